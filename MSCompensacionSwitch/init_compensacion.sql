@@ -34,3 +34,81 @@ CREATE TABLE IF NOT EXISTS archivoLiquidacion (
     contenidoXml TEXT,               -- XML SIN FIRMA
     fechaGeneracion TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
+
+-- Cierre automático persistido del ciclo (CicloCompensacion.fechaCierreProgramada / duracionMinutos)
+ALTER TABLE cicloCompensacion ADD COLUMN IF NOT EXISTS fecha_cierre_programada TIMESTAMP;
+ALTER TABLE cicloCompensacion ADD COLUMN IF NOT EXISTS duracion_minutos INTEGER;
+
+-- Checkpoint del neteo incremental (marca de agua del ciclo y acumulados por posición)
+ALTER TABLE cicloCompensacion ADD COLUMN IF NOT EXISTS ultimo_detalle_neteado BIGINT DEFAULT 0;
+ALTER TABLE cicloCompensacion ADD COLUMN IF NOT EXISTS detalles_neteados BIGINT DEFAULT 0;
+ALTER TABLE posicionInstitucion ADD COLUMN IF NOT EXISTS debitos_neteados NUMERIC(20,2) DEFAULT 0;
+ALTER TABLE posicionInstitucion ADD COLUMN IF NOT EXISTS creditos_neteados NUMERIC(20,2) DEFAULT 0;
+
+-- Deduplicación de ingesta: una instrucción se compensa una sola vez por tipo (ON CONFLICT en registrarOperacion)
+-- Antes del índice se purgan los duplicados que dejaron los redeliveries, conservando MIN(idDetalle)
+-- por (idInstruccion, tipoOperacion); si no, el CREATE UNIQUE INDEX falla sobre una base existente.
+DROP TABLE IF EXISTS detalle_duplicado;
+CREATE TEMP TABLE detalle_duplicado AS
+SELECT d.idDetalle, d.idCiclo, d.tipoOperacion, d.bicEmisor, d.bicReceptor, d.monto, d.estadoLiquidacion
+FROM detalleCompensacion d
+WHERE EXISTS (SELECT 1 FROM detalleCompensacion o
+              WHERE o.idInstruccion = d.idInstruccion
+                AND o.tipoOperacion = d.tipoOperacion
+                AND o.idDetalle < d.idDetalle);
+
+DELETE FROM detalleCompensacion d USING detalle_duplicado x WHERE d.idDetalle = x.idDetalle;
+
+-- Ciclos abiertos o en corte: se descarta el checkpoint del neteo y el cierre lo recalcula completo
+UPDATE posicionInstitucion SET debitos_neteados = 0, creditos_neteados = 0
+WHERE idCiclo IN (SELECT x.idCiclo FROM detalle_duplicado x
+                  JOIN cicloCompensacion c ON c.idCiclo = x.idCiclo
+                  WHERE c.estado IN ('ABIERTO', 'CERRANDO'));
+UPDATE cicloCompensacion SET ultimo_detalle_neteado = 0, detalles_neteados = 0
+WHERE estado IN ('ABIERTO', 'CERRANDO') AND idCiclo IN (SELECT idCiclo FROM detalle_duplicado);
+
+-- Ciclos ya cerrados: se resta de sus posiciones lo que aportaron los duplicados
+-- (PAGO debita al emisor y acredita al receptor; REVERSO al revés; EXCLUIDO no aportó nada)
+UPDATE posicionInstitucion p
+SET totalDebitos = p.totalDebitos - r.debitos,
+    totalCredits = p.totalCredits - r.creditos,
+    posicionNeta = p.posicionNeta + r.debitos - r.creditos
+FROM (SELECT a.idCiclo, a.bic, SUM(a.debito) AS debitos, SUM(a.credito) AS creditos
+      FROM (SELECT x.idCiclo, x.bicEmisor AS bic,
+                   CASE WHEN UPPER(x.tipoOperacion) = 'REVERSO' THEN 0 ELSE x.monto END AS debito,
+                   CASE WHEN UPPER(x.tipoOperacion) = 'REVERSO' THEN x.monto ELSE 0 END AS credito
+            FROM detalle_duplicado x
+            WHERE UPPER(COALESCE(x.estadoLiquidacion, '')) <> 'EXCLUIDO'
+            UNION ALL
+            SELECT x.idCiclo, x.bicReceptor,
+                   CASE WHEN UPPER(x.tipoOperacion) = 'REVERSO' THEN x.monto ELSE 0 END,
+                   CASE WHEN UPPER(x.tipoOperacion) = 'REVERSO' THEN 0 ELSE x.monto END
+            FROM detalle_duplicado x
+            WHERE UPPER(COALESCE(x.estadoLiquidacion, '')) <> 'EXCLUIDO') a
+      GROUP BY a.idCiclo, a.bic) r
+JOIN cicloCompensacion c ON c.idCiclo = r.idCiclo
+WHERE p.idCiclo = r.idCiclo AND p.bic = r.bic
+  AND c.estado NOT IN ('ABIERTO', 'CERRANDO');
+
+DROP TABLE detalle_duplicado;
+
+CREATE UNIQUE INDEX IF NOT EXISTS uk_detalle_instruccion_tipo ON detalleCompensacion (idInstruccion, tipoOperacion);
+
+-- Ids con secuencia en lugar de IDENTITY para que Hibernate agrupe los INSERT en batch JDBC.
+-- INCREMENT BY = allocationSize de cada entidad. Con pool, Hibernate reparte (valor - 49 .. valor] de cada
+-- nextval, así que setval deja el valor en MAX + 50 para que el primer bloque empiece por encima de MAX.
+CREATE SEQUENCE IF NOT EXISTS ciclo_compensacion_seq START WITH 1 INCREMENT BY 50;
+SELECT setval('ciclo_compensacion_seq', (SELECT COALESCE(MAX(idCiclo), 0) + 50 FROM cicloCompensacion), true);
+CREATE SEQUENCE IF NOT EXISTS posicion_institucion_seq START WITH 1 INCREMENT BY 50;
+SELECT setval('posicion_institucion_seq', (SELECT COALESCE(MAX(idPosicion), 0) + 50 FROM posicionInstitucion), true);
+CREATE SEQUENCE IF NOT EXISTS archivo_liquidacion_seq START WITH 1 INCREMENT BY 50;
+SELECT setval('archivo_liquidacion_seq', (SELECT COALESCE(MAX(idArchivo), 0) + 50 FROM archivoLiquidacion), true);
+-- Sin pool: idDetalle es la marca de agua del neteo incremental. Cada nextval es un id, así que aquí
+-- basta con que el siguiente valor sea MAX + 1.
+CREATE SEQUENCE IF NOT EXISTS detalle_compensacion_seq START WITH 1 INCREMENT BY 1;
+SELECT setval('detalle_compensacion_seq', (SELECT COALESCE(MAX(idDetalle), 0) + 1 FROM detalleCompensacion), false);
+ALTER TABLE detalleCompensacion ALTER COLUMN idDetalle SET DEFAULT nextval('detalle_compensacion_seq');
+
+-- Fecha de ingesta del detalle para el extracto de conciliación de tres vías (en UTC, como el núcleo)
+ALTER TABLE detalleCompensacion ADD COLUMN IF NOT EXISTS fechaRegistro TIMESTAMP DEFAULT (CURRENT_TIMESTAMP AT TIME ZONE 'UTC');
+CREATE INDEX IF NOT EXISTS idx_detalle_fecha_registro ON detalleCompensacion (fechaRegistro);
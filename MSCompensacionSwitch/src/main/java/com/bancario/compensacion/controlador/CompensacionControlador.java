@@ -3,15 +3,22 @@ package com.bancario.compensacion.controlador;
 import com.bancario.compensacion.dto.ArchivoDTO;
 import com.bancario.compensacion.dto.CicloDTO;
 import com.bancario.compensacion.dto.PosicionDTO;
+import com.bancario.compensacion.modelo.Dinero;
 import com.bancario.compensacion.servicio.CompensacionServicio;
+import com.bancario.compensacion.servicio.ExtractoConciliacionServicio;
+import com.bancario.compensacion.servicio.ReporteCicloServicio;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Slf4j
@@ -22,6 +29,8 @@ import java.util.List;
 public class CompensacionControlador {
 
     private final CompensacionServicio service;
+    private final ReporteCicloServicio reporteServicio;
+    private final ExtractoConciliacionServicio extractoConciliacion;
 
     @GetMapping("/ciclos")
     @Operation(summary = "Listar ciclos", description = "Obtiene el historial de todos los ciclos operativos.")
@@ -29,18 +38,32 @@ public class CompensacionControlador {
         return ResponseEntity.ok(service.listarCiclos());
     }
 
+    @GetMapping("/ciclos/historial")
+    @Operation(summary = "Historial de ciclos paginado", description = "Ciclos del más reciente al más antiguo. Para la siguiente página envíe en antesDe el último numeroCiclo recibido.")
+    public ResponseEntity<List<CicloDTO>> listarHistorialCiclos(
+            @RequestParam(required = false) Integer antesDe,
+            @RequestParam(required = false, defaultValue = "50") Integer limite) {
+        return ResponseEntity.ok(service.listarHistorialCiclos(antesDe, limite));
+    }
+
     @GetMapping("/ciclos/{cicloId}/posiciones")
     @Operation(summary = "Obtener detalle de posiciones", description = "Ver acumulados netos por banco")
     public ResponseEntity<List<PosicionDTO>> obtenerPosiciones(@PathVariable Integer cicloId) {
         return ResponseEntity.ok(service.obtenerPosicionesCiclo(cicloId));
     }
 
+    @GetMapping("/ciclos/{cicloId}/posiciones/preview")
+    @Operation(summary = "Previsualizar posiciones netas", description = "Posiciones al instante del ciclo (checkpoint de neteo + operaciones pendientes).")
+    public ResponseEntity<List<PosicionDTO>> previsualizarPosiciones(@PathVariable Integer cicloId) {
+        return ResponseEntity.ok(service.previsualizarPosiciones(cicloId));
+    }
+
     @PostMapping("/ciclos/{cicloId}/acumular")
     @Operation(summary = "INTERNAL: Acumular movimiento (Deprecated)", description = "Use el endpoint sin ID para autodetectar ciclo.")
     public ResponseEntity<Void> acumular(
             @PathVariable Integer cicloId,
             @RequestParam String bic,
-            @RequestParam BigDecimal monto,
+            @RequestParam Dinero monto,
             @RequestParam boolean esDebito) {
 
         service.acumularTransaccion(cicloId, bic, monto, esDebito);
@@ -51,7 +74,7 @@ public class CompensacionControlador {
     @Operation(summary = "INTERNAL: Acumular movimiento (Auto-Ciclo)", description = "Registra débitos/créditos en el ciclo ABIERTO actual.")
     public ResponseEntity<Void> acumularAuto(
             @RequestParam String bic,
-            @RequestParam BigDecimal monto,
+            @RequestParam Dinero monto,
             @RequestParam boolean esDebito) {
 
         service.acumularEnCicloAbierto(bic, monto, esDebito);
@@ -80,9 +103,9 @@ public class CompensacionControlador {
     }
 
     @GetMapping("/reporte/pdf/{cicloId}")
-    @Operation(summary = "Descargar Reporte PDF", description = "Genera visualización imprimible del ciclo.")
-    public ResponseEntity<byte[]> descargarReportePDF(@PathVariable Integer cicloId) {
-        byte[] pdf = service.generarReportePDF(cicloId);
+    @Operation(summary = "Descargar Reporte PDF", description = "Genera visualización imprimible del ciclo (pre-generada y cacheada para ciclos cerrados).")
+    public ResponseEntity<Resource> descargarReportePDF(@PathVariable Integer cicloId) {
+        Resource pdf = reporteServicio.obtenerReporte(cicloId);
 
         return ResponseEntity.ok()
                 .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION,
@@ -90,4 +113,15 @@ public class CompensacionControlador {
                 .contentType(org.springframework.http.MediaType.APPLICATION_PDF)
                 .body(pdf);
     }
+
+    @GetMapping("/conciliacion")
+    @Operation(summary = "Extracto de conciliación", description = "Detalles ingresados en [desde, hasta) en NDJSON, ordenados por instrucción (la original en los reversos).")
+    public ResponseEntity<StreamingResponseBody> extractoConciliacion(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta) {
+        extractoConciliacion.validarRango(desde, hasta);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(salida -> extractoConciliacion.escribirExtracto(desde, hasta, salida));
+    }
 }
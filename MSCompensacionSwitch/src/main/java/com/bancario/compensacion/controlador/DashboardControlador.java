@@ -25,10 +25,7 @@ public class DashboardControlador {
     public ResponseEntity<Map<String, Object>> obtenerEstadoMonitor() {
         Map<String, Object> response = new HashMap<>();
 
-        CicloDTO ciclo = service.listarCiclos().stream()
-                .filter(c -> "ABIERTO".equals(c.getEstado()))
-                .findFirst()
-                .orElse(null);
+        CicloDTO ciclo = service.obtenerCicloVigente().orElse(null);
 
         if (ciclo != null) {
             response.put("estadoSistema", "OPERATIVO");
@@ -1,8 +1,8 @@
 package com.bancario.compensacion.dto;
 
+import com.bancario.compensacion.modelo.Dinero;
 import lombok.Builder;
 import lombok.Data;
-import java.math.BigDecimal;
 
 @Data
 @Builder
@@ -10,8 +10,8 @@ public class PosicionDTO {
     private Integer id;
     private Integer idCiclo;
     private String codigoBic;
-    private BigDecimal saldoInicial;
-    private BigDecimal totalDebitos;
-    private BigDecimal totalCreditos;
-    private BigDecimal neto;
+    private Dinero saldoInicial;
+    private Dinero totalDebitos;
+    private Dinero totalCreditos;
+    private Dinero neto;
 }
@@ -0,0 +1,23 @@
+package com.bancario.compensacion.dto;
+
+import com.bancario.compensacion.modelo.Dinero;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Línea del extracto de conciliación. En los reversos idInstruccion es la
+ * instrucción original, para cruzarlos con la transacción que anulan.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RegistroConciliacionDTO {
+    private UUID idInstruccion;
+    private String tipo;
+    private Dinero monto;
+    private LocalDateTime fecha;
+}
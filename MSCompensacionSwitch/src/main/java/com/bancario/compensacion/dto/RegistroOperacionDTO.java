@@ -1,7 +1,7 @@
 package com.bancario.compensacion.dto;
 
+import com.bancario.compensacion.modelo.Dinero;
 import lombok.Data;
-import java.math.BigDecimal;
 import java.util.UUID;
 
 @Data
@@ -10,7 +10,7 @@ public class RegistroOperacionDTO {
     private UUID idInstruccionOriginal; // Opcional, para reversos
     private String bicEmisor;
     private String bicReceptor;
-    private BigDecimal monto;
+    private Dinero monto;
     private String tipoOperacion; // PAGO, REVERSO
     private String codigoReferencia;
 }
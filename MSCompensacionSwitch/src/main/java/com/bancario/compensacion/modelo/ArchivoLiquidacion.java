@@ -10,8 +10,10 @@ import java.time.LocalDateTime;
 @Getter
 @Setter
 public class ArchivoLiquidacion {
+    // Secuencia con pool (allocationSize = INCREMENT BY de archivo_liquidacion_seq) para que los INSERT vayan en batch JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "archivo_liquidacion_seq")
+    @SequenceGenerator(name = "archivo_liquidacion_seq", sequenceName = "archivo_liquidacion_seq", allocationSize = 50)
     private Integer id;
 
     @ManyToOne(fetch = FetchType.LAZY)
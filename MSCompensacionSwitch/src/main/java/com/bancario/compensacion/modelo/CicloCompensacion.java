@@ -6,15 +6,19 @@ import lombok.Setter;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "ciclocompensacion")
+@Table(name = "ciclocompensacion", indexes = {
+        @Index(name = "idx_ciclo_estado_cierre_programado", columnList = "estado, fecha_cierre_programada")
+})
 @Getter
 @Setter
 public class CicloCompensacion {
+    // Secuencia con pool (allocationSize = INCREMENT BY de ciclo_compensacion_seq) para que los INSERT vayan en batch JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ciclo_compensacion_seq")
+    @SequenceGenerator(name = "ciclo_compensacion_seq", sequenceName = "ciclo_compensacion_seq", allocationSize = 50)
     private Integer id;
 
-    @Column(name = "numero_ciclo")
+    @Column(name = "numero_ciclo", unique = true)
     private Integer numeroCiclo;
 
     @Column(length = 100)
@@ -28,4 +32,23 @@ public class CicloCompensacion {
 
     @Column(name = "fecha_cierre")
     private LocalDateTime fechaCierre;
+
+    // Cierre automático persistido: sobrevive reinicios y lo ejecuta una sola réplica
+    @Column(name = "fecha_cierre_programada")
+    private LocalDateTime fechaCierreProgramada;
+
+    @Column(name = "duracion_minutos")
+    private Integer duracionMinutos;
+
+    // Checkpoint de neteo incremental: último idDetalle plegado en las posiciones y cuántos detalles suman
+    @Column(name = "ultimo_detalle_neteado")
+    private Long ultimoDetalleNeteado;
+
+    @Column(name = "detalles_neteados")
+    private Long detallesNeteados;
+
+    public void programarCierre(int minutos) {
+        this.duracionMinutos = minutos;
+        this.fechaCierreProgramada = this.fechaApertura.plusMinutes(minutos);
+    }
 }
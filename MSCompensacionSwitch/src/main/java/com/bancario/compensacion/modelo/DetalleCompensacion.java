@@ -2,16 +2,25 @@ package com.bancario.compensacion.modelo;
 
 import jakarta.persistence.*;
 import lombok.Data;
-import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Entity
-@Table(name = "detalleCompensacion")
+@Table(name = "detalleCompensacion", indexes = {
+        @Index(name = "idx_detalle_ciclo_id", columnList = "idCiclo, idDetalle"),
+        @Index(name = "idx_detalle_fecha_registro", columnList = "fechaRegistro")
+}, uniqueConstraints = {
+        // Una instrucción se compensa una sola vez por tipo (PAGO / REVERSO), aunque llegue redelivered
+        @UniqueConstraint(name = "uk_detalle_instruccion_tipo", columnNames = { "idInstruccion", "tipoOperacion" })
+})
 @Data
 public class DetalleCompensacion {
 
+    // Sin pool: idDetalle es la marca de agua del neteo incremental y debe crecer en orden de
+    // inserción entre réplicas. La ingesta inserta con nextval en insertarSiNoExiste.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "detalle_compensacion_seq")
+    @SequenceGenerator(name = "detalle_compensacion_seq", sequenceName = "detalle_compensacion_seq", allocationSize = 1)
     private Long idDetalle;
 
     @Column(name = "idInstruccion")
@@ -34,7 +43,7 @@ public class DetalleCompensacion {
     private String bicReceptor;
 
     @Column(name = "monto", precision = 18, scale = 2)
-    private BigDecimal monto;
+    private Dinero monto;
 
     @Column(name = "estadoLiquidacion", length = 20)
     private String estadoLiquidacion; // INCLUIDO, EXCLUIDO
@@ -42,4 +51,8 @@ public class DetalleCompensacion {
     // Código de referencia bancario de 6 dígitos para devoluciones
     @Column(name = "codigoReferencia", length = 6)
     private String codigoReferencia;
+
+    // Momento de ingesta (UTC, como las fechas del núcleo); lo pone la base al insertar
+    @Column(name = "fechaRegistro", insertable = false, updatable = false)
+    private LocalDateTime fechaRegistro;
 }
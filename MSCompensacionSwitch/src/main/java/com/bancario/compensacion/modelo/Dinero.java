@@ -0,0 +1,206 @@
+package com.bancario.compensacion.modelo;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Importe en USD guardado como centavos en un {@code long}. Es inmutable y
+ * sustituye a {@code BigDecimal} en la aritmética de cada transacción.
+ *
+ * La conversión es exacta en los dos bordes. En JSON se lee y se escribe como
+ * número con dos decimales, interpretando el texto directamente. Hacia la
+ * base se usa {@link #aBigDecimal()} con escala 2. Un importe con más de dos
+ * decimales significativos se rechaza en vez de redondearse.
+ */
+@JsonSerialize(using = Dinero.Serializador.class)
+@JsonDeserialize(using = Dinero.Deserializador.class)
+public final class Dinero implements Comparable<Dinero> {
+
+    public static final Dinero CERO = new Dinero(0);
+
+    private final long centavos;
+
+    private Dinero(long centavos) {
+        this.centavos = centavos;
+    }
+
+    public static Dinero deCentavos(long centavos) {
+        return centavos == 0 ? CERO : new Dinero(centavos);
+    }
+
+    public static Dinero de(BigDecimal valor) {
+        if (valor == null) {
+            return null;
+        }
+        try {
+            return deCentavos(valor.movePointRight(2).longValueExact());
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Importe con más de dos decimales o fuera de rango: " + valor);
+        }
+    }
+
+    /**
+     * Interpreta un importe decimal ("1500", "-12.5", "0.05"). Spring lo usa
+     * también para los {@code @RequestParam}.
+     */
+    public static Dinero valueOf(String texto) {
+        String s = texto.trim();
+        int n = s.length();
+        int i = 0;
+        boolean negativo = false;
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negativo = s.charAt(i) == '-';
+            i++;
+        }
+        long entero = 0;
+        int digitos = 0;
+        while (i < n && esDigito(s.charAt(i))) {
+            entero = Math.addExact(Math.multiplyExact(entero, 10), s.charAt(i) - '0');
+            i++;
+            digitos++;
+        }
+        long fraccion = 0;
+        int decimales = 0;
+        if (i < n && s.charAt(i) == '.') {
+            i++;
+            while (i < n && esDigito(s.charAt(i))) {
+                int d = s.charAt(i) - '0';
+                if (decimales < 2) {
+                    fraccion = fraccion * 10 + d;
+                } else if (d != 0) {
+                    throw new IllegalArgumentException("Importe con más de dos decimales: " + texto);
+                }
+                decimales++;
+                i++;
+            }
+        }
+        if (i != n) {
+            // Notación exponencial u otra forma poco habitual: se resuelve por la vía general
+            return de(new BigDecimal(s));
+        }
+        if (digitos == 0 && decimales == 0) {
+            throw new NumberFormatException("Importe vacío: " + texto);
+        }
+        if (decimales == 1) {
+            fraccion *= 10;
+        }
+        long total = Math.addExact(Math.multiplyExact(entero, 100), fraccion);
+        return deCentavos(negativo ? -total : total);
+    }
+
+    private static boolean esDigito(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    public long centavos() {
+        return centavos;
+    }
+
+    public Dinero mas(Dinero otro) {
+        return deCentavos(Math.addExact(centavos, otro.centavos));
+    }
+
+    public Dinero menos(Dinero otro) {
+        return deCentavos(Math.subtractExact(centavos, otro.centavos));
+    }
+
+    public Dinero negado() {
+        return deCentavos(Math.negateExact(centavos));
+    }
+
+    public Dinero abs() {
+        return centavos < 0 ? negado() : this;
+    }
+
+    public boolean mayorQue(Dinero otro) {
+        return centavos > otro.centavos;
+    }
+
+    public boolean menorQue(Dinero otro) {
+        return centavos < otro.centavos;
+    }
+
+    public boolean esPositivo() {
+        return centavos > 0;
+    }
+
+    public boolean esNegativo() {
+        return centavos < 0;
+    }
+
+    public boolean esCero() {
+        return centavos == 0;
+    }
+
+    public Dinero min(Dinero otro) {
+        return centavos <= otro.centavos ? this : otro;
+    }
+
+    public Dinero max(Dinero otro) {
+        return centavos >= otro.centavos ? this : otro;
+    }
+
+    public BigDecimal aBigDecimal() {
+        return BigDecimal.valueOf(centavos, 2);
+    }
+
+    @Override
+    public int compareTo(Dinero otro) {
+        return Long.compare(centavos, otro.centavos);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Dinero otro && otro.centavos == centavos;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(centavos);
+    }
+
+    /** Mismo texto que {@code setScale(2).toPlainString()} de BigDecimal. */
+    @Override
+    public String toString() {
+        long abs = Math.abs(centavos);
+        long resto = abs % 100;
+        StringBuilder sb = new StringBuilder(24);
+        if (centavos < 0) {
+            sb.append('-');
+        }
+        sb.append(abs / 100).append('.');
+        if (resto < 10) {
+            sb.append('0');
+        }
+        return sb.append(resto).toString();
+    }
+
+    public static class Serializador extends JsonSerializer<Dinero> {
+        @Override
+        public void serialize(Dinero valor, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeNumber(valor.toString());
+        }
+    }
+
+    public static class Deserializador extends JsonDeserializer<Dinero> {
+        @Override
+        public Dinero deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String texto = p.getText();
+            try {
+                return Dinero.valueOf(texto);
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                throw InvalidFormatException.from(p, e.getMessage(), texto, Dinero.class);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.bancario.compensacion.modelo;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.hibernate.annotations.Mutability;
+import org.hibernate.type.descriptor.java.Immutability;
+
+import java.math.BigDecimal;
+
+/**
+ * Columnas NUMERIC(_, 2) como {@link Dinero}. Al ser inmutable, Hibernate
+ * compara por valor en el dirty checking sin copiar el objeto.
+ */
+@Converter(autoApply = true)
+@Mutability(Immutability.class)
+public class DineroConverter implements AttributeConverter<Dinero, BigDecimal> {
+
+    @Override
+    public BigDecimal convertToDatabaseColumn(Dinero valor) {
+        return valor != null ? valor.aBigDecimal() : null;
+    }
+
+    @Override
+    public Dinero convertToEntityAttribute(BigDecimal valor) {
+        return Dinero.de(valor);
+    }
+}
@@ -3,7 +3,6 @@ package com.bancario.compensacion.modelo;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
-import java.math.BigDecimal;
 
 @Entity
 @Table(name = "posicioninstitucion")
@@ -11,8 +10,10 @@ import java.math.BigDecimal;
 @Setter
 public class PosicionInstitucion {
 
+    // Secuencia con pool (allocationSize = INCREMENT BY de posicion_institucion_seq) para que los INSERT vayan en batch JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "posicion_institucion_seq")
+    @SequenceGenerator(name = "posicion_institucion_seq", sequenceName = "posicion_institucion_seq", allocationSize = 50)
     private Integer id;
 
     @Column(name = "id_ciclo", insertable = false, updatable = false)
@@ -26,18 +27,48 @@ public class PosicionInstitucion {
     private String codigoBic;
 
     @Column(name = "saldo_inicial", precision = 20, scale = 2)
-    private BigDecimal saldoInicial = BigDecimal.ZERO;
+    private Dinero saldoInicial = Dinero.CERO;
 
     @Column(name = "total_debitos", precision = 20, scale = 2)
-    private BigDecimal totalDebitos = BigDecimal.ZERO;
+    private Dinero totalDebitos = Dinero.CERO;
 
     @Column(name = "total_creditos", precision = 20, scale = 2)
-    private BigDecimal totalCreditos = BigDecimal.ZERO;
+    private Dinero totalCreditos = Dinero.CERO;
 
     @Column(name = "neto", precision = 20, scale = 2)
-    private BigDecimal neto = BigDecimal.ZERO;
+    private Dinero neto = Dinero.CERO;
+
+    // Totales ya plegados por el neteo incremental (hasta la marca de agua del ciclo)
+    @Column(name = "debitos_neteados", precision = 20, scale = 2)
+    private Dinero debitosNeteados = Dinero.CERO;
+
+    @Column(name = "creditos_neteados", precision = 20, scale = 2)
+    private Dinero creditosNeteados = Dinero.CERO;
 
     public void recalcularNeto() {
-        this.neto = this.saldoInicial.add(this.totalCreditos).subtract(this.totalDebitos);
+        this.neto = this.saldoInicial.mas(this.totalCreditos).menos(this.totalDebitos);
+    }
+
+    public void sumarNeteo(Dinero debitos, Dinero creditos) {
+        this.debitosNeteados = valorOCero(this.debitosNeteados).mas(debitos);
+        this.creditosNeteados = valorOCero(this.creditosNeteados).mas(creditos);
+    }
+
+    public void reiniciarNeteo() {
+        this.debitosNeteados = Dinero.CERO;
+        this.creditosNeteados = Dinero.CERO;
+    }
+
+    /**
+     * Vuelca el checkpoint de neteo en los totales oficiales de la posición.
+     */
+    public void aplicarNeteo() {
+        this.totalDebitos = valorOCero(this.debitosNeteados);
+        this.totalCreditos = valorOCero(this.creditosNeteados);
+        recalcularNeto();
+    }
+
+    private static Dinero valorOCero(Dinero valor) {
+        return valor != null ? valor : Dinero.CERO;
     }
 }
@@ -1,12 +1,64 @@
 package com.bancario.compensacion.repositorio;
 
 import com.bancario.compensacion.modelo.CicloCompensacion;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface CicloCompensacionRepositorio extends JpaRepository<CicloCompensacion, Integer> {
     Optional<CicloCompensacion> findByEstado(String estado);
+
+    // Historial paginado por keyset sobre numero_ciclo (índice de su restricción UNIQUE), del más reciente al más antiguo
+    List<CicloCompensacion> findAllByOrderByNumeroCicloDesc(Pageable pageable);
+
+    List<CicloCompensacion> findByNumeroCicloLessThanOrderByNumeroCicloDesc(Integer numeroCiclo, Pageable pageable);
+
+    /**
+     * SELECT ... FOR UPDATE: reclama la fila del ciclo durante la transacción de
+     * cierre, de modo que dos réplicas (o un cierre manual y el automático) no
+     * cierren el mismo ciclo.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM CicloCompensacion c WHERE c.id = :id")
+    Optional<CicloCompensacion> findByIdParaCierre(@Param("id") Integer id);
+
+    /**
+     * Época abierta para ingesta, tomada FOR SHARE: varias ingestas conviven, pero
+     * el corte de época (FOR UPDATE) espera a que todas terminen.
+     */
+    @Lock(LockModeType.PESSIMISTIC_READ)
+    @Query("SELECT c FROM CicloCompensacion c WHERE c.estado = 'ABIERTO'")
+    Optional<CicloCompensacion> findCicloAbiertoParaIngesta();
+
+    // Incluye épocas CERRANDO cuya liquidación quedó a medias (p.ej. caída de la réplica)
+    @Query("SELECT c.id FROM CicloCompensacion c WHERE (c.estado = 'ABIERTO' AND c.fechaCierreProgramada <= :ahora)"
+            + " OR c.estado = 'CERRANDO'")
+    List<Integer> findIdsConCierreVencido(@Param("ahora") LocalDateTime ahora);
+
+    // Bloqueo asesor (espacio 2901 = neteo) que serializa el job incremental y el cierre de un ciclo
+    @Query(value = "SELECT pg_try_advisory_xact_lock(2901, :cicloId)", nativeQuery = true)
+    boolean intentarBloqueoNeteo(@Param("cicloId") Integer cicloId);
+
+    @Query(value = "SELECT COUNT(*) FROM pg_advisory_xact_lock(2901, :cicloId)", nativeQuery = true)
+    long bloquearNeteo(@Param("cicloId") Integer cicloId);
+
+    /**
+     * Avanza sólo la marca de agua del neteo incremental y sólo si el ciclo sigue
+     * ABIERTO: nunca reescribe el estado que haya puesto un corte de época.
+     */
+    @Modifying
+    @Query("UPDATE CicloCompensacion c SET c.ultimoDetalleNeteado = :marca, c.detallesNeteados = :detalles"
+            + " WHERE c.id = :id AND c.estado = 'ABIERTO'")
+    int actualizarCheckpointNeteo(@Param("id") Integer id, @Param("marca") Long marca,
+            @Param("detalles") Long detalles);
 }
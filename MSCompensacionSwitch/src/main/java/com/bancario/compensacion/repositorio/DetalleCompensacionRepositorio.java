@@ -1,13 +1,72 @@
 package com.bancario.compensacion.repositorio;
 
+import com.bancario.compensacion.dto.RegistroConciliacionDTO;
 import com.bancario.compensacion.modelo.DetalleCompensacion;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface DetalleCompensacionRepositorio extends JpaRepository<DetalleCompensacion, Long> {
     List<DetalleCompensacion> findByCicloId(Integer cicloId);
 
     List<DetalleCompensacion> findByIdInstruccion(UUID idInstruccion);
+
+    /**
+     * Inserta el detalle salvo que la instrucción ya esté registrada con el mismo
+     * tipo. La deduplicación va en el mismo INSERT (unique index + ON CONFLICT),
+     * sin consulta previa.
+     *
+     * @return 1 si se insertó, 0 si era un duplicado.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO detalleCompensacion (idDetalle, idInstruccion, idInstruccionOriginal, idCiclo,"
+            + " tipoOperacion, bicEmisor, bicReceptor, monto, estadoLiquidacion, codigoReferencia)"
+            + " VALUES (nextval('detalle_compensacion_seq'), :idInstruccion, :idInstruccionOriginal, :idCiclo, :tipoOperacion,"
+            + " :bicEmisor, :bicReceptor, :monto, 'INCLUIDO', :codigoReferencia)"
+            + " ON CONFLICT (idInstruccion, tipoOperacion) DO NOTHING", nativeQuery = true)
+    int insertarSiNoExiste(@Param("idInstruccion") UUID idInstruccion,
+            @Param("idInstruccionOriginal") UUID idInstruccionOriginal,
+            @Param("idCiclo") Integer idCiclo,
+            @Param("tipoOperacion") String tipoOperacion,
+            @Param("bicEmisor") String bicEmisor,
+            @Param("bicReceptor") String bicReceptor,
+            @Param("monto") BigDecimal monto,
+            @Param("codigoReferencia") String codigoReferencia);
+
+    // Delta de neteo incremental: detalles posteriores a la marca de agua del ciclo
+    List<DetalleCompensacion> findByCicloIdAndIdDetalleGreaterThanOrderByIdDetalleAsc(Integer cicloId, Long idDetalle);
+
+    List<DetalleCompensacion> findByCicloIdAndIdDetalleBetweenOrderByIdDetalleAsc(Integer cicloId, Long desde,
+            Long hasta, Pageable pageable);
+
+    long countByCicloIdAndIdDetalleLessThanEqual(Integer cicloId, Long idDetalle);
+
+    @Query("SELECT MAX(d.idDetalle) FROM DetalleCompensacion d WHERE d.ciclo.id = :cicloId")
+    Long findMaxIdDetalle(@Param("cicloId") Integer cicloId);
+
+    /**
+     * Extracto de conciliación: detalles ingresados en [desde, hasta) ordenados
+     * por la instrucción que compensan (la original en los reversos). Se lee con
+     * cursor y sin cargar entidades.
+     */
+    @Query("SELECT new com.bancario.compensacion.dto.RegistroConciliacionDTO("
+            + "CASE WHEN d.tipoOperacion = 'REVERSO' AND d.idInstruccionOriginal IS NOT NULL"
+            + " THEN d.idInstruccionOriginal ELSE d.idInstruccion END, d.tipoOperacion, d.monto, d.fechaRegistro)"
+            + " FROM DetalleCompensacion d WHERE d.fechaRegistro >= :desde AND d.fechaRegistro < :hasta"
+            + " ORDER BY CASE WHEN d.tipoOperacion = 'REVERSO' AND d.idInstruccionOriginal IS NOT NULL"
+            + " THEN d.idInstruccionOriginal ELSE d.idInstruccion END")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    Stream<RegistroConciliacionDTO> streamParaConciliacion(@Param("desde") LocalDateTime desde,
+            @Param("hasta") LocalDateTime hasta);
 }
@@ -0,0 +1,65 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.dto.CicloDTO;
+import com.bancario.compensacion.mapper.CompensacionMapper;
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ciclo ABIERTO vigente en memoria, para que el monitor del dashboard no
+ * consulte la base en cada poll.
+ *
+ * Se actualiza al abrir una época en esta réplica (tras el commit) y se
+ * refresca periódicamente desde la base para recoger los cortes hechos por
+ * otras réplicas.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CicloVigenteServicio {
+
+    private final CicloCompensacionRepositorio cicloRepo;
+    private final CompensacionMapper mapper;
+
+    private final AtomicReference<CicloDTO> vigente = new AtomicReference<>();
+
+    public Optional<CicloDTO> obtener() {
+        return Optional.ofNullable(vigente.get());
+    }
+
+    /**
+     * Publica el ciclo recién abierto. Con transacción activa se espera al commit,
+     * para no anunciar una época que termine en rollback.
+     */
+    public void publicar(CicloCompensacion cicloAbierto) {
+        CicloDTO dto = mapper.toDTO(cicloAbierto);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    vigente.set(dto);
+                }
+            });
+        } else {
+            vigente.set(dto);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${compensacion.ciclo-vigente.refresco-ms:5000}")
+    public void refrescar() {
+        try {
+            vigente.set(cicloRepo.findByEstado(CorteCicloServicio.ESTADO_ABIERTO).map(mapper::toDTO).orElse(null));
+        } catch (Exception e) {
+            log.warn("No se pudo refrescar el ciclo vigente: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Ejecuta los cierres automáticos vencidos a partir de la hora programada
+ * guardada en {@code ciclocompensacion}. Corre en todas las réplicas; la
+ * exclusión la da el bloqueo de fila en {@link CompensacionServicio#cerrarSiVencido}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CierreAutomaticoPlanificador {
+
+    private final CicloCompensacionRepositorio cicloRepo;
+    private final CompensacionServicio compensacionServicio;
+
+    @Scheduled(fixedDelayString = "${compensacion.cierre.intervalo-ms:10000}")
+    public void ejecutarCierresVencidos() {
+        List<Integer> vencidos = cicloRepo.findIdsConCierreVencido(LocalDateTime.now(ZoneOffset.UTC));
+        for (Integer cicloId : vencidos) {
+            try {
+                compensacionServicio.cerrarSiVencido(cicloId);
+            } catch (Exception e) {
+                log.error("Error en cierre automático del ciclo {}: {}", cicloId, e.getMessage());
+            }
+        }
+    }
+}
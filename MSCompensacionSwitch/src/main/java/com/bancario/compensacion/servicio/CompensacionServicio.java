@@ -8,13 +8,15 @@ import com.bancario.compensacion.modelo.*;
 import com.bancario.compensacion.repositorio.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -29,31 +31,33 @@ public class CompensacionServicio {
     // no longer handled here
     private final DetalleCompensacionRepositorio detalleRepo;
     private final CompensacionMapper mapper;
+    private final ReporteCicloServicio reporteServicio;
+    private final CorteCicloServicio corteServicio;
+    private final CicloVigenteServicio cicloVigente;
 
-    private final org.springframework.scheduling.TaskScheduler taskScheduler;
-    private java.util.concurrent.ScheduledFuture<?> scheduledTask;
+    private static final int INTENTOS_EPOCA_ABIERTA = 5;
+    private static final int LOTE_NETEO = 5000;
+    private static final int MAX_PAGINA_HISTORIAL = 200;
+    private static final Dinero TOLERANCIA_CUADRE = Dinero.deCentavos(1);
 
     @Transactional
     public void registrarOperacion(com.bancario.compensacion.dto.RegistroOperacionDTO req) {
-        CicloCompensacion cicloAbierto = cicloRepo.findByEstado("ABIERTO")
-                .stream().findFirst()
-                .orElseThrow(() -> new RuntimeException("No hay ciclo abierto para compensar"));
-
-        DetalleCompensacion detalle = new DetalleCompensacion();
-        detalle.setIdInstruccion(req.getIdInstruccion());
-        detalle.setIdInstruccionOriginal(req.getIdInstruccionOriginal());
-        detalle.setCiclo(cicloAbierto);
-        detalle.setTipoOperacion(req.getTipoOperacion());
-        detalle.setBicEmisor(req.getBicEmisor());
-        detalle.setBicReceptor(req.getBicReceptor());
-        detalle.setMonto(req.getMonto());
-        detalle.setCodigoReferencia(req.getCodigoReferencia());
-        detalle.setEstadoLiquidacion("INCLUIDO");
-        detalleRepo.save(detalle);
+        CicloCompensacion cicloAbierto = obtenerEpocaAbierta();
+
+        String tipoOperacion = req.getTipoOperacion() != null ? req.getTipoOperacion().toUpperCase() : "PAGO";
+
+        int insertados = detalleRepo.insertarSiNoExiste(req.getIdInstruccion(), req.getIdInstruccionOriginal(),
+                cicloAbierto.getId(), tipoOperacion, req.getBicEmisor(), req.getBicReceptor(),
+                req.getMonto().aBigDecimal(), req.getCodigoReferencia());
+        if (insertados == 0) {
+            // Redelivery de RabbitMQ o reintento REST de la saga: ya está compensada
+            log.warn("Operación duplicada ignorada: {} {}", tipoOperacion, req.getIdInstruccion());
+            return;
+        }
 
         // NOTE: Real-time accumulation is kept for immediate visibility,
         // but final settlement will be recalculated from details at closing.
-        if ("REVERSO".equalsIgnoreCase(req.getTipoOperacion())) {
+        if ("REVERSO".equals(tipoOperacion)) {
             // REVERSO logic: Credit Emisor (Refund), Debit Receptor (Take back)
             acumularTransaccion(cicloAbierto.getId(), req.getBicEmisor(), req.getMonto(), false); // Credit
             acumularTransaccion(cicloAbierto.getId(), req.getBicReceptor(), req.getMonto(), true); // Debit
@@ -65,28 +69,55 @@ public class CompensacionServicio {
     }
 
     @Transactional
-    public void acumularTransaccion(Integer cicloId, String bic, BigDecimal monto, boolean esDebito) {
+    public void acumularTransaccion(Integer cicloId, String bic, Dinero monto, boolean esDebito) {
         PosicionInstitucion posicion = posicionRepo.findByCicloIdAndCodigoBic(cicloId, bic)
                 .orElseGet(() -> crearPosicionVacia(cicloId, bic));
 
         if (esDebito) {
-            posicion.setTotalDebitos(posicion.getTotalDebitos().add(monto));
+            posicion.setTotalDebitos(posicion.getTotalDebitos().mas(monto));
         } else {
-            posicion.setTotalCreditos(posicion.getTotalCreditos().add(monto));
+            posicion.setTotalCreditos(posicion.getTotalCreditos().mas(monto));
         }
 
         posicion.recalcularNeto();
         posicionRepo.save(posicion);
     }
 
+    @Transactional
+    public void acumularEnCicloAbierto(String bic, Dinero monto, boolean esDebito) {
+        CicloCompensacion cicloAbierto = obtenerEpocaAbierta();
+        acumularTransaccion(cicloAbierto.getId(), bic, monto, esDebito);
+    }
+
+    /**
+     * Resuelve la época abierta bloqueándola FOR SHARE hasta el commit de la
+     * ingesta. Si un corte de época la selló mientras se esperaba el bloqueo, la
+     * consulta vuelve vacía y se repite para tomar la época recién abierta.
+     */
+    private CicloCompensacion obtenerEpocaAbierta() {
+        for (int intento = 0; intento < INTENTOS_EPOCA_ABIERTA; intento++) {
+            java.util.Optional<CicloCompensacion> abierto = cicloRepo.findCicloAbiertoParaIngesta();
+            if (abierto.isPresent()) {
+                return abierto.get();
+            }
+            try {
+                Thread.sleep(20L * (intento + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new RuntimeException("No hay ciclo abierto para compensar");
+    }
+
     private PosicionInstitucion crearPosicionVacia(Integer cicloId, String bic) {
         PosicionInstitucion p = new PosicionInstitucion();
         p.setCiclo(cicloRepo.getReferenceById(cicloId));
         p.setCodigoBic(bic);
-        p.setSaldoInicial(BigDecimal.ZERO);
-        p.setTotalDebitos(BigDecimal.ZERO);
-        p.setTotalCreditos(BigDecimal.ZERO);
-        p.setNeto(BigDecimal.ZERO);
+        p.setSaldoInicial(Dinero.CERO);
+        p.setTotalDebitos(Dinero.CERO);
+        p.setTotalCreditos(Dinero.CERO);
+        p.setNeto(Dinero.CERO);
         return posicionRepo.save(p);
     }
 
@@ -94,16 +125,30 @@ public class CompensacionServicio {
     public ArchivoDTO realizarCierreDiario(Integer cicloId, Integer minutosProximoCiclo) {
         log.info(">>> INICIANDO CIERRE DEL CICLO: {}", cicloId);
 
-        if (scheduledTask != null && !scheduledTask.isDone()) {
-            scheduledTask.cancel(false);
-            log.info("Tarea automática anterior cancelada.");
+        if (!corteServicio.sellarCiclo(cicloId, minutosProximoCiclo, false)) {
+            throw new RuntimeException("El ciclo ya está cerrado");
+        }
+        ArchivoDTO archivo = liquidarCicloSellado(cicloId);
+        if (archivo == null) {
+            throw new RuntimeException("El ciclo ya está cerrado");
         }
+        return archivo;
+    }
 
-        CicloCompensacion cicloActual = cicloRepo.findById(cicloId)
+    /**
+     * Neteo y archivo de liquidación de una época ya sellada. La ingesta sigue en
+     * el ciclo nuevo mientras esto corre.
+     *
+     * @return null si otra réplica terminó la liquidación primero.
+     */
+    private ArchivoDTO liquidarCicloSellado(Integer cicloId) {
+        // Mismo orden que el neteo incremental: primero el bloqueo asesor, después la fila
+        cicloRepo.bloquearNeteo(cicloId);
+        CicloCompensacion cicloActual = cicloRepo.findByIdParaCierre(cicloId)
                 .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
 
-        if (!"ABIERTO".equals(cicloActual.getEstado())) {
-            throw new RuntimeException("El ciclo ya está cerrado");
+        if (CorteCicloServicio.ESTADO_CERRADO.equals(cicloActual.getEstado())) {
+            return null;
         }
 
         // --- ALGORITMO DE NETEO / CLEARING ---
@@ -113,11 +158,11 @@ public class CompensacionServicio {
 
         List<PosicionInstitucion> posiciones = posicionRepo.findByCicloId(cicloId);
 
-        BigDecimal sumaNetos = posiciones.stream()
+        Dinero sumaNetos = posiciones.stream()
                 .map(PosicionInstitucion::getNeto)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+                .reduce(Dinero.CERO, Dinero::mas);
 
-        if (sumaNetos.abs().compareTo(new BigDecimal("0.01")) > 0) {
+        if (sumaNetos.abs().mayorQue(TOLERANCIA_CUADRE)) {
             throw new RuntimeException("ALERTA: El sistema no cuadra. Suma Netos: " + sumaNetos);
         }
 
@@ -137,159 +182,201 @@ public class CompensacionServicio {
         cicloActual.setEstado("CERRADO");
         cicloActual.setFechaCierre(LocalDateTime.now(java.time.ZoneOffset.UTC));
         cicloRepo.save(cicloActual);
-
-        iniciarSiguienteCiclo(cicloActual, posiciones, minutosProximoCiclo);
+        reporteServicio.prerenderizarCicloCerrado(cicloActual.getId());
 
         return mapper.toDTO(archivo);
     }
 
     /**
-     * Re-processes all details for the cycle to ensure the final positions are
-     * correct.
-     * Use this for the "Clearing" step.
+     * Clearing de cierre. Sólo pliega el delta de detalles posterior al último
+     * checkpoint del job incremental y vuelca el resultado en las posiciones. Si
+     * el conteo de detalles no cuadra con el checkpoint (un detalle confirmado
+     * tarde quedó detrás de la marca de agua) se recalcula todo desde cero.
      */
     private void recalcularPosicionesDesdeDetalles(CicloCompensacion ciclo) {
         log.info("Ejecutando algoritmo de neteo para ciclo {}", ciclo.getId());
 
-        // 1. Reset all positions for the cycle
-        List<PosicionInstitucion> posiciones = posicionRepo.findByCicloId(ciclo.getId());
-        for (PosicionInstitucion p : posiciones) {
-            p.setTotalDebitos(BigDecimal.ZERO);
-            p.setTotalCreditos(BigDecimal.ZERO);
-            p.setNeto(BigDecimal.ZERO); // derived, but good to reset
+        long marca = valorOCero(ciclo.getUltimoDetalleNeteado());
+        List<DetalleCompensacion> delta = detalleRepo
+                .findByCicloIdAndIdDetalleGreaterThanOrderByIdDetalleAsc(ciclo.getId(), marca);
+        Map<String, PosicionInstitucion> mapaPosiciones = plegarEnCheckpoint(ciclo, delta);
+        // La fila está FOR UPDATE y se guarda entera al pasar a CERRADO
+        ciclo.setUltimoDetalleNeteado(delta.isEmpty() ? marca : delta.get(delta.size() - 1).getIdDetalle());
+        ciclo.setDetallesNeteados(valorOCero(ciclo.getDetallesNeteados()) + delta.size());
+
+        long esperados = detalleRepo.countByCicloIdAndIdDetalleLessThanEqual(ciclo.getId(),
+                valorOCero(ciclo.getUltimoDetalleNeteado()));
+        if (esperados != valorOCero(ciclo.getDetallesNeteados())) {
+            log.warn("Checkpoint de neteo inconsistente en ciclo {} ({} detalles vs {} plegados). Recalculando completo.",
+                    ciclo.getId(), esperados, ciclo.getDetallesNeteados());
+            mapaPosiciones = recalcularCheckpointCompleto(ciclo);
         }
-        Map<String, PosicionInstitucion> mapaPosiciones = posiciones.stream()
-                .collect(Collectors.toMap(PosicionInstitucion::getCodigoBic, p -> p));
 
-        // 2. Fetch all details
-        List<DetalleCompensacion> detalles = detalleRepo.findByCicloId(ciclo.getId()); // Assuming this method exists or
-                                                                                       // similar
+        for (PosicionInstitucion p : mapaPosiciones.values()) {
+            p.aplicarNeteo();
+        }
+        posicionRepo.saveAll(mapaPosiciones.values());
+        log.info("Neteo completado. Delta de {} detalles sobre checkpoint {}.", delta.size(), marca);
+    }
 
-        // 3. Process each detail
-        for (DetalleCompensacion d : detalles) {
-            if ("EXCLUIDO".equalsIgnoreCase(d.getEstadoLiquidacion()))
-                continue;
-
-            PosicionInstitucion posEmisor = mapaPosiciones.computeIfAbsent(d.getBicEmisor(),
-                    k -> crearPosicionVacia(ciclo.getId(), k));
-            PosicionInstitucion posReceptor = mapaPosiciones.computeIfAbsent(d.getBicReceptor(),
-                    k -> crearPosicionVacia(ciclo.getId(), k));
-
-            if ("REVERSO".equalsIgnoreCase(d.getTipoOperacion())) {
-                // REVERSO: Emisor receives back (Credit), Receptor pays back (Debit)
-                posEmisor.setTotalCreditos(posEmisor.getTotalCreditos().add(d.getMonto()));
-                posReceptor.setTotalDebitos(posReceptor.getTotalDebitos().add(d.getMonto()));
-            } else {
-                // PAGO: Emisor pays (Debit), Receptor receives (Credit)
-                posEmisor.setTotalDebitos(posEmisor.getTotalDebitos().add(d.getMonto()));
-                posReceptor.setTotalCreditos(posReceptor.getTotalCreditos().add(d.getMonto()));
-            }
+    /**
+     * Pliega en el checkpoint del ciclo abierto los detalles con idDetalle en
+     * (marca de agua, hastaIdDetalle]. Lo invoca {@link NeteoIncrementalPlanificador}.
+     *
+     * No bloquea la fila del ciclo, que la ingesta tiene FOR SHARE: un plegado no
+     * frena la ingesta. El bloqueo asesor lo excluye frente al cierre, y la marca
+     * de agua sólo avanza con un UPDATE condicionado a que el ciclo siga ABIERTO;
+     * si un corte lo selló mientras tanto, el plegado entero se deshace.
+     */
+    @Transactional
+    public int plegarDetallesPendientes(Integer cicloId, Long hastaIdDetalle) {
+        if (hastaIdDetalle == null || !cicloRepo.intentarBloqueoNeteo(cicloId)) {
+            return 0;
+        }
+        CicloCompensacion ciclo = cicloRepo.findById(cicloId).orElse(null);
+        if (ciclo == null || !CorteCicloServicio.ESTADO_ABIERTO.equals(ciclo.getEstado())) {
+            return 0;
         }
 
-        // 4. Save and Recalculate Net
-        for (PosicionInstitucion p : mapaPosiciones.values()) {
-            p.recalcularNeto();
-            posicionRepo.save(p);
+        long marca = valorOCero(ciclo.getUltimoDetalleNeteado());
+        if (hastaIdDetalle <= marca) {
+            return 0;
+        }
+        List<DetalleCompensacion> detalles = detalleRepo.findByCicloIdAndIdDetalleBetweenOrderByIdDetalleAsc(
+                cicloId, marca + 1, hastaIdDetalle, PageRequest.of(0, LOTE_NETEO));
+        long nuevaMarca = detalles.size() < LOTE_NETEO ? hastaIdDetalle
+                : detalles.get(detalles.size() - 1).getIdDetalle();
+        plegarEnCheckpoint(ciclo, detalles);
+        int actualizados = cicloRepo.actualizarCheckpointNeteo(cicloId, nuevaMarca,
+                valorOCero(ciclo.getDetallesNeteados()) + detalles.size());
+        if (actualizados == 0) {
+            // Un corte selló el ciclo durante el plegado: el cierre recalcula desde la marca anterior
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            log.debug("Ciclo {} sellado durante el neteo incremental; plegado descartado", cicloId);
+            return 0;
         }
-        log.info("Neteo completado. Procesados {} detalles.", detalles.size());
+        return detalles.size();
     }
 
-    private void iniciarSiguienteCiclo(CicloCompensacion anterior, List<PosicionInstitucion> saldosAnteriores,
-            Integer minutosDuracion) {
-        CicloCompensacion nuevo = new CicloCompensacion();
-        nuevo.setNumeroCiclo(anterior.getNumeroCiclo() + 1);
-        nuevo.setDescripcion("Ciclo Automático (" + minutosDuracion + " min)");
-        nuevo.setEstado("ABIERTO");
-        nuevo.setFechaApertura(LocalDateTime.now(java.time.ZoneOffset.UTC));
-        CicloCompensacion guardado = cicloRepo.save(nuevo);
-
-        for (PosicionInstitucion posAnt : saldosAnteriores) {
-            PosicionInstitucion posNueva = new PosicionInstitucion();
-            posNueva.setCiclo(guardado);
-            posNueva.setCodigoBic(posAnt.getCodigoBic());
-            posNueva.setSaldoInicial(BigDecimal.ZERO);
-            posNueva.setTotalDebitos(BigDecimal.ZERO);
-            posNueva.setTotalCreditos(BigDecimal.ZERO);
-            posNueva.recalcularNeto();
-            posicionRepo.save(posNueva);
+    /**
+     * Posiciones netas al instante: checkpoint más el delta pendiente, calculado
+     * en memoria sin escribir nada. Hace la misma comprobación de conteo que el
+     * cierre: si algún detalle se confirmó por debajo de la marca de agua, pliega
+     * todos los del ciclo desde cero.
+     */
+    @Transactional(readOnly = true)
+    public List<PosicionDTO> previsualizarPosiciones(Integer cicloId) {
+        CicloCompensacion ciclo = cicloRepo.findById(cicloId)
+                .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+        if (CorteCicloServicio.ESTADO_CERRADO.equals(ciclo.getEstado())) {
+            return mapper.toPosicionList(posicionRepo.findByCicloId(cicloId));
         }
 
-        programarCierreAutomatico(guardado.getId(), minutosDuracion != null ? minutosDuracion : 10);
+        Map<String, PosicionInstitucion> vista = new java.util.LinkedHashMap<>();
+        for (PosicionInstitucion p : posicionRepo.findByCicloId(cicloId)) {
+            PosicionInstitucion copia = posicionTransitoria(ciclo, p.getCodigoBic());
+            copia.setId(p.getId());
+            copia.setSaldoInicial(p.getSaldoInicial());
+            copia.setDebitosNeteados(p.getDebitosNeteados());
+            copia.setCreditosNeteados(p.getCreditosNeteados());
+            vista.put(p.getCodigoBic(), copia);
+        }
 
-        log.info(">>> CICLO {} INICIADO. Cierre programado en {} minutos.", nuevo.getNumeroCiclo(), minutosDuracion);
+        long marca = valorOCero(ciclo.getUltimoDetalleNeteado());
+        List<DetalleCompensacion> delta;
+        if (detalleRepo.countByCicloIdAndIdDetalleLessThanEqual(cicloId, marca) != valorOCero(
+                ciclo.getDetallesNeteados())) {
+            vista.values().forEach(PosicionInstitucion::reiniciarNeteo);
+            delta = detalleRepo.findByCicloId(cicloId);
+        } else {
+            delta = detalleRepo.findByCicloIdAndIdDetalleGreaterThanOrderByIdDetalleAsc(cicloId, marca);
+        }
+        for (DetalleCompensacion d : delta) {
+            plegarDetalle(vista, d, bic -> posicionTransitoria(ciclo, bic));
+        }
+
+        vista.values().forEach(PosicionInstitucion::aplicarNeteo);
+        return mapper.toPosicionList(new java.util.ArrayList<>(vista.values()));
     }
 
-    public void programarCierreAutomatico(Integer cicloId, int minutos) {
+    private Map<String, PosicionInstitucion> plegarEnCheckpoint(CicloCompensacion ciclo,
+            List<DetalleCompensacion> detalles) {
+        Map<String, PosicionInstitucion> mapaPosiciones = posicionRepo.findByCicloId(ciclo.getId()).stream()
+                .collect(Collectors.toMap(PosicionInstitucion::getCodigoBic, p -> p));
 
-        Runnable tareaCierre = () -> {
-            try {
-                log.info(">>> EJECUTANDO CIERRE AUTOMÁTICO CICLO {}", cicloId);
+        for (DetalleCompensacion d : detalles) {
+            plegarDetalle(mapaPosiciones, d, bic -> crearPosicionVacia(ciclo.getId(), bic));
+        }
+        if (!detalles.isEmpty()) {
+            posicionRepo.saveAll(mapaPosiciones.values());
+        }
+        return mapaPosiciones;
+    }
 
-                realizarCierreDiario(cicloId, 10);
-            } catch (Exception e) {
-                log.error("Error en cierre automático: {}", e.getMessage());
+    private Map<String, PosicionInstitucion> recalcularCheckpointCompleto(CicloCompensacion ciclo) {
+        List<PosicionInstitucion> posiciones = posicionRepo.findByCicloId(ciclo.getId());
+        posiciones.forEach(PosicionInstitucion::reiniciarNeteo);
+        Map<String, PosicionInstitucion> mapaPosiciones = posiciones.stream()
+                .collect(Collectors.toMap(PosicionInstitucion::getCodigoBic, p -> p));
+
+        List<DetalleCompensacion> detalles = detalleRepo.findByCicloId(ciclo.getId());
+        long marca = 0;
+        for (DetalleCompensacion d : detalles) {
+            plegarDetalle(mapaPosiciones, d, bic -> crearPosicionVacia(ciclo.getId(), bic));
+            if (d.getIdDetalle() != null) {
+                marca = Math.max(marca, d.getIdDetalle());
             }
-        };
+        }
 
-        java.time.Instant fechaEjecucion = java.time.Instant.now().plus(java.time.Duration.ofMinutes(minutos));
-        this.scheduledTask = taskScheduler.schedule(tareaCierre, fechaEjecucion);
+        ciclo.setUltimoDetalleNeteado(marca);
+        ciclo.setDetallesNeteados((long) detalles.size());
+        cicloRepo.save(ciclo);
+        return mapaPosiciones;
     }
 
-    public byte[] generarReportePDF(Integer cicloId) {
-        try (java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream()) {
-            com.lowagie.text.Document document = new com.lowagie.text.Document();
-            com.lowagie.text.pdf.PdfWriter.getInstance(document, out);
-
-            document.open();
-
-            com.lowagie.text.Font titleFont = com.lowagie.text.FontFactory
-                    .getFont(com.lowagie.text.FontFactory.HELVETICA_BOLD, 18);
-            com.lowagie.text.Paragraph title = new com.lowagie.text.Paragraph("Reporte de Compensación (Switch V3)",
-                    titleFont);
-            title.setAlignment(com.lowagie.text.Element.ALIGN_CENTER);
-            document.add(title);
-            document.add(new com.lowagie.text.Paragraph(" "));
-
-            CicloCompensacion ciclo = cicloRepo.findById(cicloId).orElseThrow();
-            document.add(new com.lowagie.text.Paragraph("Ciclo: " + ciclo.getNumeroCiclo()));
-            document.add(new com.lowagie.text.Paragraph("Estado: " + ciclo.getEstado()));
-            document.add(new com.lowagie.text.Paragraph("Fecha Apertura: " + ciclo.getFechaApertura()));
-            if (ciclo.getFechaCierre() != null)
-                document.add(new com.lowagie.text.Paragraph("Fecha Cierre: " + ciclo.getFechaCierre()));
-
-            document.add(new com.lowagie.text.Paragraph(" "));
-
-            com.lowagie.text.pdf.PdfPTable table = new com.lowagie.text.pdf.PdfPTable(4);
-            table.setWidthPercentage(100);
-            table.addCell("Banco (BIC)");
-            table.addCell("Débitos");
-            table.addCell("Créditos");
-            table.addCell("Posición Neta");
-
-            List<PosicionInstitucion> posiciones = posicionRepo.findByCicloId(cicloId);
-            for (PosicionInstitucion p : posiciones) {
-                table.addCell(p.getCodigoBic());
-                table.addCell(p.getTotalDebitos().toString());
-                table.addCell(p.getTotalCreditos().toString());
-
-                com.lowagie.text.pdf.PdfPCell cellNeto = new com.lowagie.text.pdf.PdfPCell(
-                        new com.lowagie.text.Phrase(p.getNeto().toString()));
-                if (p.getNeto().signum() < 0)
-                    cellNeto.setBackgroundColor(java.awt.Color.PINK);
-                else
-                    cellNeto.setBackgroundColor(java.awt.Color.CYAN);
-
-                table.addCell(cellNeto);
-            }
-            document.add(table);
+    private void plegarDetalle(Map<String, PosicionInstitucion> mapaPosiciones, DetalleCompensacion d,
+            java.util.function.Function<String, PosicionInstitucion> nuevaPosicion) {
+        if ("EXCLUIDO".equalsIgnoreCase(d.getEstadoLiquidacion()))
+            return;
 
-            document.close();
-            return out.toByteArray();
-        } catch (Exception e) {
-            throw new RuntimeException("Error generando PDF: " + e.getMessage());
+        PosicionInstitucion posEmisor = mapaPosiciones.computeIfAbsent(d.getBicEmisor(), nuevaPosicion);
+        PosicionInstitucion posReceptor = mapaPosiciones.computeIfAbsent(d.getBicReceptor(), nuevaPosicion);
+
+        if ("REVERSO".equalsIgnoreCase(d.getTipoOperacion())) {
+            // REVERSO: Emisor receives back (Credit), Receptor pays back (Debit)
+            posEmisor.sumarNeteo(Dinero.CERO, d.getMonto());
+            posReceptor.sumarNeteo(d.getMonto(), Dinero.CERO);
+        } else {
+            // PAGO: Emisor pays (Debit), Receptor receives (Credit)
+            posEmisor.sumarNeteo(d.getMonto(), Dinero.CERO);
+            posReceptor.sumarNeteo(Dinero.CERO, d.getMonto());
         }
     }
 
+    private PosicionInstitucion posicionTransitoria(CicloCompensacion ciclo, String bic) {
+        PosicionInstitucion p = new PosicionInstitucion();
+        p.setCiclo(ciclo);
+        p.setCodigoBic(bic);
+        return p;
+    }
+
+    private static long valorOCero(Long valor) {
+        return valor != null ? valor : 0L;
+    }
+
+    /**
+     * Cierre automático: sólo sella y liquida si el ciclo sigue ABIERTO y su hora
+     * programada ya pasó. Si otra réplica ganó el corte, no hace nada.
+     */
+    @Transactional
+    public boolean cerrarSiVencido(Integer cicloId) {
+        if (!corteServicio.sellarCiclo(cicloId, null, true)) {
+            return false;
+        }
+        log.info(">>> EJECUTANDO CIERRE AUTOMÁTICO CICLO {}", cicloId);
+        return liquidarCicloSellado(cicloId) != null;
+    }
+
     private String generarXML(CicloCompensacion ciclo, List<PosicionInstitucion> posiciones) {
         StringBuilder sb = new StringBuilder();
 
@@ -306,7 +393,7 @@ public class CompensacionServicio {
             sb.append("    <Tx>\n");
             sb.append("      <BankBIC>").append(p.getCodigoBic()).append("</BankBIC>\n");
             sb.append("      <NetPosition currency=\"USD\">").append(p.getNeto()).append("</NetPosition>\n");
-            sb.append("      <Action>").append(p.getNeto().signum() >= 0 ? "RECEIVE" : "PAY").append("</Action>\n");
+            sb.append("      <Action>").append(!p.getNeto().esNegativo() ? "RECEIVE" : "PAY").append("</Action>\n");
             sb.append("    </Tx>\n");
         }
         sb.append("  </Transactions>\n");
@@ -323,15 +410,40 @@ public class CompensacionServicio {
             primerCiclo.setDescripcion("Ciclo Inicial");
             primerCiclo.setEstado("ABIERTO");
             primerCiclo.setFechaApertura(LocalDateTime.now(java.time.ZoneOffset.UTC));
+            primerCiclo.programarCierre(10);
             CicloCompensacion guardado = cicloRepo.save(primerCiclo);
-
-            programarCierreAutomatico(guardado.getId(), 10);
+            cicloVigente.publicar(guardado);
 
             ciclos.add(guardado);
         }
         return ciclos.stream().map(mapper::toDTO).toList();
     }
 
+    /**
+     * Ciclo ABIERTO para el monitor, leído de memoria. Sólo si no hay ninguno y la
+     * tabla está vacía se arranca el ciclo inicial, como hacía listarCiclos.
+     */
+    public Optional<CicloDTO> obtenerCicloVigente() {
+        Optional<CicloDTO> vigente = cicloVigente.obtener();
+        if (vigente.isEmpty() && cicloRepo.count() == 0) {
+            listarCiclos();
+            return cicloVigente.obtener();
+        }
+        return vigente;
+    }
+
+    /**
+     * Historial de ciclos paginado por keyset: la primera página sin
+     * {@code antesDeNumero}, las siguientes con el último numeroCiclo recibido.
+     */
+    public List<CicloDTO> listarHistorialCiclos(Integer antesDeNumero, int limite) {
+        PageRequest pagina = PageRequest.of(0, Math.max(1, Math.min(limite, MAX_PAGINA_HISTORIAL)));
+        List<CicloCompensacion> ciclos = antesDeNumero == null
+                ? cicloRepo.findAllByOrderByNumeroCicloDesc(pagina)
+                : cicloRepo.findByNumeroCicloLessThanOrderByNumeroCicloDesc(antesDeNumero, pagina);
+        return ciclos.stream().map(mapper::toDTO).toList();
+    }
+
     public List<PosicionDTO> obtenerPosicionesCiclo(Integer cicloId) {
         List<PosicionInstitucion> posiciones = posicionRepo.findByCicloId(cicloId);
         return mapper.toPosicionList(posiciones);
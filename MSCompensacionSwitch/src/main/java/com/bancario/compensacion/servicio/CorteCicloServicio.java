@@ -0,0 +1,101 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.modelo.Dinero;
+import com.bancario.compensacion.modelo.PosicionInstitucion;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.PosicionInstitucionRepositorio;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Corte de época del clearing.
+ *
+ * El ciclo que se va a cerrar pasa a CERRANDO y el siguiente se abre en la
+ * misma transacción corta, confirmada antes del neteo. Así siempre hay un ciclo
+ * ABIERTO para la ingesta mientras el anterior se liquida.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CorteCicloServicio {
+
+    public static final String ESTADO_ABIERTO = "ABIERTO";
+    public static final String ESTADO_CERRANDO = "CERRANDO";
+    public static final String ESTADO_CERRADO = "CERRADO";
+
+    private final CicloCompensacionRepositorio cicloRepo;
+    private final PosicionInstitucionRepositorio posicionRepo;
+    private final CicloVigenteServicio cicloVigente;
+
+    /**
+     * Sella el ciclo y abre el siguiente. El FOR UPDATE sobre la fila espera a que
+     * terminen las ingestas en curso (que la tienen FOR SHARE), por lo que al
+     * confirmar ya no puede entrar ningún detalle nuevo a la época sellada.
+     *
+     * @return true si el ciclo quedó (o ya estaba) en CERRANDO y puede liquidarse;
+     *         false si ya estaba CERRADO o, con soloSiVencido, aún no toca cerrarlo.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public boolean sellarCiclo(Integer cicloId, Integer minutosProximoCiclo, boolean soloSiVencido) {
+        CicloCompensacion ciclo = cicloRepo.findByIdParaCierre(cicloId)
+                .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+
+        if (ESTADO_CERRANDO.equals(ciclo.getEstado())) {
+            // Un cierre anterior selló la época pero no terminó la liquidación: se reintenta
+            return true;
+        }
+        if (!ESTADO_ABIERTO.equals(ciclo.getEstado())) {
+            return false;
+        }
+        if (soloSiVencido && (ciclo.getFechaCierreProgramada() == null
+                || ciclo.getFechaCierreProgramada().isAfter(LocalDateTime.now(ZoneOffset.UTC)))) {
+            return false;
+        }
+
+        ciclo.setEstado(ESTADO_CERRANDO);
+        ciclo.setFechaCierreProgramada(null);
+        cicloRepo.save(ciclo);
+
+        int minutos = minutosProximoCiclo != null ? minutosProximoCiclo
+                : (ciclo.getDuracionMinutos() != null ? ciclo.getDuracionMinutos() : 10);
+        iniciarSiguienteCiclo(ciclo, minutos);
+        return true;
+    }
+
+    private void iniciarSiguienteCiclo(CicloCompensacion anterior, int minutosDuracion) {
+        CicloCompensacion nuevo = new CicloCompensacion();
+        nuevo.setNumeroCiclo(anterior.getNumeroCiclo() + 1);
+        nuevo.setDescripcion("Ciclo Automático (" + minutosDuracion + " min)");
+        nuevo.setEstado(ESTADO_ABIERTO);
+        nuevo.setFechaApertura(LocalDateTime.now(ZoneOffset.UTC));
+        nuevo.programarCierre(minutosDuracion);
+        CicloCompensacion guardado = cicloRepo.save(nuevo);
+
+        List<PosicionInstitucion> posiciones = new ArrayList<>();
+        for (PosicionInstitucion posAnt : posicionRepo.findByCicloId(anterior.getId())) {
+            PosicionInstitucion posNueva = new PosicionInstitucion();
+            posNueva.setCiclo(guardado);
+            posNueva.setCodigoBic(posAnt.getCodigoBic());
+            posNueva.setSaldoInicial(Dinero.CERO);
+            posNueva.setTotalDebitos(Dinero.CERO);
+            posNueva.setTotalCreditos(Dinero.CERO);
+            posNueva.recalcularNeto();
+            posiciones.add(posNueva);
+        }
+        // Ids del pool de posicion_institucion_seq: los INSERT salen en un batch
+        posicionRepo.saveAll(posiciones);
+        cicloVigente.publicar(guardado);
+
+        log.info(">>> CICLO {} INICIADO (época anterior {} sellada). Cierre programado en {} minutos.",
+                nuevo.getNumeroCiclo(), anterior.getNumeroCiclo(), minutosDuracion);
+    }
+}
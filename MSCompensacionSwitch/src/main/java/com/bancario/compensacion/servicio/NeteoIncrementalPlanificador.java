@@ -0,0 +1,50 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.DetalleCompensacionRepositorio;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Job de neteo incremental del ciclo abierto.
+ *
+ * Sólo pliega hasta el máximo idDetalle observado en la pasada anterior. Los
+ * ids salen de detalle_compensacion_seq al insertar, pero las transacciones no
+ * confirman en ese orden: un detalle de id menor puede hacerse visible después
+ * de uno mayor. El intervalo de retraso deja que esas ingestas terminen antes
+ * de mover la marca de agua. Si aun así alguno queda atrás, el cierre lo
+ * detecta y recalcula.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class NeteoIncrementalPlanificador {
+
+    private final CicloCompensacionRepositorio cicloRepo;
+    private final DetalleCompensacionRepositorio detalleRepo;
+    private final CompensacionServicio compensacionServicio;
+
+    private Integer cicloObservado;
+    private Long maximoObservado;
+
+    @Scheduled(fixedDelayString = "${compensacion.neteo.intervalo-ms:5000}")
+    public void plegarCicloAbierto() {
+        cicloRepo.findByEstado(CorteCicloServicio.ESTADO_ABIERTO).ifPresent(ciclo -> {
+            Long maximoActual = detalleRepo.findMaxIdDetalle(ciclo.getId());
+            try {
+                if (ciclo.getId().equals(cicloObservado)) {
+                    int plegados = compensacionServicio.plegarDetallesPendientes(ciclo.getId(), maximoObservado);
+                    if (plegados > 0) {
+                        log.debug("Neteo incremental: {} detalles plegados en ciclo {}", plegados, ciclo.getId());
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Error en neteo incremental del ciclo {}: {}", ciclo.getId(), e.getMessage());
+            }
+            cicloObservado = ciclo.getId();
+            maximoObservado = maximoActual;
+        });
+    }
+}
@@ -0,0 +1,331 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.modelo.PosicionInstitucion;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.PosicionInstitucionRepositorio;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Reportes PDF de ciclos de compensación.
+ *
+ * Un ciclo CERRADO es inmutable: su PDF se genera una sola vez (en segundo
+ * plano, al cierre) y queda en disco con un índice LRU que limita el número de
+ * archivos. Un ciclo ABIERTO cambia con cada operación, por lo que se cachea en
+ * memoria sólo durante unos segundos para absorber las descargas repetidas del
+ * dashboard; esa caché también es LRU y se barre al insertar, porque sólo la
+ * réplica que cierra un ciclo recibe el aviso para soltar su PDF.
+ *
+ * El pre-render tiene su propio hilo: no compite con los jobs programados
+ * (cierre automático, neteo incremental) en el scheduler de la aplicación.
+ *
+ * Cada archivo lleva en el nombre la fecha de cierre del ciclo
+ * ({@code Reporte_Ciclo_<id>_<cierre>.pdf}) y sólo se sirve si coincide con la
+ * del ciclo en la base: un PDF que quedó de otra base con los mismos ids se
+ * descarta y se vuelve a generar.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReporteCicloServicio {
+
+    private static final String ESTADO_CERRADO = "CERRADO";
+    private static final Pattern NOMBRE_REPORTE = Pattern.compile("Reporte_Ciclo_(\\d+)_(\\d{17})\\.pdf");
+    private static final DateTimeFormatter FORMATO_SELLO = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+
+    private final CicloCompensacionRepositorio cicloRepo;
+    private final PosicionInstitucionRepositorio posicionRepo;
+
+    @Value("${compensacion.reportes.directorio:${java.io.tmpdir}/ms-compensacion/reportes}")
+    private String directorioReportes;
+
+    @Value("${compensacion.reportes.max-archivos:500}")
+    private int maxArchivos;
+
+    @Value("${compensacion.reportes.ttl-abierto-segundos:15}")
+    private long ttlAbiertoSegundos;
+
+    @Value("${compensacion.reportes.max-abiertos:20}")
+    private int maxAbiertos;
+
+    private Path directorio;
+
+    // Índice LRU (orden de acceso) de los PDFs de ciclos cerrados presentes en disco
+    private Map<Integer, Path> indiceCerrados;
+
+    // Render en curso por ciclo, para que descargas concurrentes no generen el mismo PDF dos veces
+    private final Map<Integer, Object> locksRender = new ConcurrentHashMap<>();
+
+    // LRU acotado de PDFs de ciclos abiertos; acceso sincronizado sobre el propio mapa
+    private Map<Integer, ReporteEnMemoria> cacheAbiertos;
+
+    private final ExecutorService renderFondo = Executors.newSingleThreadExecutor(r -> {
+        Thread hilo = new Thread(r, "reporte-prerender");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    private record ReporteEnMemoria(byte[] contenido, Instant expira) {
+    }
+
+    @PostConstruct
+    void inicializar() throws IOException {
+        this.directorio = Paths.get(directorioReportes);
+        Files.createDirectories(directorio);
+
+        this.cacheAbiertos = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ReporteEnMemoria> eldest) {
+                return size() > maxAbiertos;
+            }
+        };
+
+        this.indiceCerrados = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Path> eldest) {
+                if (size() > maxArchivos) {
+                    eliminarArchivo(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        // Reconstruir el índice con los reportes que sobrevivieron a un reinicio; el sello se valida al servirlos
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            archivos.filter(p -> p.getFileName().toString().startsWith("Reporte_Ciclo_"))
+                    .sorted((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()))
+                    .forEach(p -> {
+                        Matcher m = NOMBRE_REPORTE.matcher(p.getFileName().toString());
+                        if (!m.matches()) {
+                            // Formato anterior, sin sello de cierre: no se puede validar
+                            eliminarArchivo(p);
+                            return;
+                        }
+                        synchronized (indiceCerrados) {
+                            indiceCerrados.put(Integer.valueOf(m.group(1)), p);
+                        }
+                    });
+        }
+        log.info("Reportes PDF: {} ciclos cerrados indexados en {}", indiceCerrados.size(), directorio);
+    }
+
+    @PreDestroy
+    void detener() {
+        renderFondo.shutdownNow();
+    }
+
+    /**
+     * Programa la generación del PDF de un ciclo recién cerrado. Si hay una
+     * transacción activa se espera al commit, para no renderizar un cierre que
+     * termine en rollback.
+     */
+    public void prerenderizarCicloCerrado(Integer cicloId) {
+        synchronized (cacheAbiertos) {
+            cacheAbiertos.remove(cicloId);
+        }
+        Runnable tarea = () -> {
+            try {
+                CicloCompensacion ciclo = cicloRepo.findById(cicloId)
+                        .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+                obtenerArchivoCerrado(ciclo);
+                log.info("Reporte PDF del ciclo {} pre-generado", cicloId);
+            } catch (Exception e) {
+                log.error("Error pre-generando reporte del ciclo {}: {}", cicloId, e.getMessage());
+            }
+        };
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    renderFondo.execute(tarea);
+                }
+            });
+        } else {
+            renderFondo.execute(tarea);
+        }
+    }
+
+    /**
+     * Devuelve el reporte listo para enviarse en la respuesta: un archivo en disco
+     * (transmitido por streaming) para ciclos cerrados, o bytes en memoria para el
+     * ciclo abierto.
+     */
+    public Resource obtenerReporte(Integer cicloId) {
+        CicloCompensacion ciclo = cicloRepo.findById(cicloId)
+                .orElseThrow(() -> new RuntimeException("Ciclo no encontrado"));
+
+        if (ESTADO_CERRADO.equals(ciclo.getEstado())) {
+            return new FileSystemResource(obtenerArchivoCerrado(ciclo));
+        }
+
+        ReporteEnMemoria enCache;
+        synchronized (cacheAbiertos) {
+            enCache = cacheAbiertos.get(cicloId);
+        }
+        if (enCache != null && enCache.expira().isAfter(Instant.now())) {
+            return new ByteArrayResource(enCache.contenido());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderizar(ciclo, out);
+        byte[] pdf = out.toByteArray();
+        Instant ahora = Instant.now();
+        synchronized (cacheAbiertos) {
+            // Barrido de vencidos: incluye ciclos ya cerrados en otra réplica
+            cacheAbiertos.values().removeIf(r -> !r.expira().isAfter(ahora));
+            cacheAbiertos.put(cicloId, new ReporteEnMemoria(pdf, ahora.plus(Duration.ofSeconds(ttlAbiertoSegundos))));
+        }
+        return new ByteArrayResource(pdf);
+    }
+
+    private Path obtenerArchivoCerrado(CicloCompensacion ciclo) {
+        Integer cicloId = ciclo.getId();
+        Path destino = directorio.resolve("Reporte_Ciclo_" + cicloId + "_" + sello(ciclo) + ".pdf");
+        Path existente = buscarEnIndice(cicloId, destino);
+        if (existente != null) {
+            return existente;
+        }
+
+        Object lock = locksRender.computeIfAbsent(cicloId, k -> new Object());
+        synchronized (lock) {
+            try {
+                existente = buscarEnIndice(cicloId, destino);
+                if (existente != null) {
+                    return existente;
+                }
+
+                Path temporal = Files.createTempFile(directorio, "render_" + cicloId + "_", ".tmp");
+                try (OutputStream out = Files.newOutputStream(temporal)) {
+                    renderizar(ciclo, out);
+                }
+                Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                synchronized (indiceCerrados) {
+                    indiceCerrados.put(cicloId, destino);
+                }
+                return destino;
+            } catch (IOException e) {
+                throw new RuntimeException("Error guardando PDF del ciclo " + cicloId + ": " + e.getMessage());
+            } finally {
+                locksRender.remove(cicloId);
+            }
+        }
+    }
+
+    // El archivo indexado sólo vale si es el de este cierre; si no, se borra y se regenera
+    private Path buscarEnIndice(Integer cicloId, Path esperado) {
+        synchronized (indiceCerrados) {
+            Path archivo = indiceCerrados.get(cicloId);
+            if (archivo == null) {
+                return null;
+            }
+            if (archivo.equals(esperado) && Files.exists(archivo)) {
+                return archivo;
+            }
+            indiceCerrados.remove(cicloId);
+            if (!archivo.equals(esperado)) {
+                log.warn("Reporte {} no corresponde al cierre actual del ciclo {}: se descarta", archivo, cicloId);
+                eliminarArchivo(archivo);
+            }
+            return null;
+        }
+    }
+
+    private static String sello(CicloCompensacion ciclo) {
+        // Milisegundos: la fecha se relee igual de la base aunque TIMESTAMP guarde microsegundos
+        return ciclo.getFechaCierre() != null ? FORMATO_SELLO.format(ciclo.getFechaCierre()) : "0".repeat(17);
+    }
+
+    private void eliminarArchivo(Path archivo) {
+        try {
+            Files.deleteIfExists(archivo);
+        } catch (IOException e) {
+            log.warn("No se pudo eliminar reporte expulsado {}: {}", archivo, e.getMessage());
+        }
+    }
+
+    private void renderizar(CicloCompensacion ciclo, OutputStream out) {
+        try {
+            com.lowagie.text.Document document = new com.lowagie.text.Document();
+            com.lowagie.text.pdf.PdfWriter.getInstance(document, out);
+
+            document.open();
+
+            com.lowagie.text.Font titleFont = com.lowagie.text.FontFactory
+                    .getFont(com.lowagie.text.FontFactory.HELVETICA_BOLD, 18);
+            com.lowagie.text.Paragraph title = new com.lowagie.text.Paragraph("Reporte de Compensación (Switch V3)",
+                    titleFont);
+            title.setAlignment(com.lowagie.text.Element.ALIGN_CENTER);
+            document.add(title);
+            document.add(new com.lowagie.text.Paragraph(" "));
+
+            document.add(new com.lowagie.text.Paragraph("Ciclo: " + ciclo.getNumeroCiclo()));
+            document.add(new com.lowagie.text.Paragraph("Estado: " + ciclo.getEstado()));
+            document.add(new com.lowagie.text.Paragraph("Fecha Apertura: " + ciclo.getFechaApertura()));
+            if (ciclo.getFechaCierre() != null)
+                document.add(new com.lowagie.text.Paragraph("Fecha Cierre: " + ciclo.getFechaCierre()));
+
+            document.add(new com.lowagie.text.Paragraph(" "));
+
+            com.lowagie.text.pdf.PdfPTable table = new com.lowagie.text.pdf.PdfPTable(4);
+            table.setWidthPercentage(100);
+            table.addCell("Banco (BIC)");
+            table.addCell("Débitos");
+            table.addCell("Créditos");
+            table.addCell("Posición Neta");
+
+            List<PosicionInstitucion> posiciones = posicionRepo.findByCicloId(ciclo.getId());
+            for (PosicionInstitucion p : posiciones) {
+                table.addCell(p.getCodigoBic());
+                table.addCell(p.getTotalDebitos().toString());
+                table.addCell(p.getTotalCreditos().toString());
+
+                com.lowagie.text.pdf.PdfPCell cellNeto = new com.lowagie.text.pdf.PdfPCell(
+                        new com.lowagie.text.Phrase(p.getNeto().toString()));
+                if (p.getNeto().esNegativo())
+                    cellNeto.setBackgroundColor(java.awt.Color.PINK);
+                else
+                    cellNeto.setBackgroundColor(java.awt.Color.CYAN);
+
+                table.addCell(cellNeto);
+            }
+            document.add(table);
+
+            document.close();
+        } catch (Exception e) {
+            throw new RuntimeException("Error generando PDF: " + e.getMessage());
+        }
+    }
+}
@@ -11,7 +11,6 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.scheduling.TaskScheduler;
 
-import java.math.BigDecimal;
 
 import java.util.Arrays;
 import java.util.List;
@@ -36,6 +35,12 @@ class CompensacionServicioTest {
     private CompensacionMapper mapper;
     @Mock
     private TaskScheduler taskScheduler;
+    @Mock
+    private ReporteCicloServicio reporteServicio;
+    @Mock
+    private CorteCicloServicio corteServicio;
+    @Mock
+    private CicloVigenteServicio cicloVigente;
 
     @InjectMocks
     private CompensacionServicio servicio;
@@ -54,21 +59,23 @@ class CompensacionServicioTest {
         ciclo.setNumeroCiclo(100);
         ciclo.setEstado("ABIERTO");
 
-        when(cicloRepo.findById(cicloId)).thenReturn(Optional.of(ciclo));
+        when(corteServicio.sellarCiclo(cicloId, 10, false)).thenReturn(true);
+        ciclo.setEstado("CERRANDO");
+        when(cicloRepo.findByIdParaCierre(cicloId)).thenReturn(Optional.of(ciclo));
         when(cicloRepo.save(any(CicloCompensacion.class))).thenAnswer(i -> i.getArguments()[0]);
 
         // Mock Positions (initial state - will be reset)
         PosicionInstitucion posBankA = new PosicionInstitucion();
         posBankA.setCodigoBic("BANKA");
-        posBankA.setNeto(BigDecimal.ZERO);
-        posBankA.setTotalDebitos(BigDecimal.ZERO);
-        posBankA.setTotalCreditos(BigDecimal.ZERO);
+        posBankA.setNeto(Dinero.CERO);
+        posBankA.setTotalDebitos(Dinero.CERO);
+        posBankA.setTotalCreditos(Dinero.CERO);
 
         PosicionInstitucion posBankB = new PosicionInstitucion();
         posBankB.setCodigoBic("BANKB");
-        posBankB.setNeto(BigDecimal.ZERO);
-        posBankB.setTotalDebitos(BigDecimal.ZERO);
-        posBankB.setTotalCreditos(BigDecimal.ZERO);
+        posBankB.setNeto(Dinero.CERO);
+        posBankB.setTotalDebitos(Dinero.CERO);
+        posBankB.setTotalCreditos(Dinero.CERO);
 
         List<PosicionInstitucion> posiciones = Arrays.asList(posBankA, posBankB);
         when(posicionRepo.findByCicloId(cicloId)).thenReturn(posiciones);
@@ -76,10 +83,11 @@ class CompensacionServicioTest {
         // Mock Details
         // 1. PAGO: A pays B 100. -> A Debit 100, B Credit 100.
         DetalleCompensacion det1 = new DetalleCompensacion();
+        det1.setIdDetalle(1L);
         det1.setTipoOperacion("PAGO");
         det1.setBicEmisor("BANKA");
         det1.setBicReceptor("BANKB");
-        det1.setMonto(new BigDecimal("100.00"));
+        det1.setMonto(Dinero.valueOf("100.00"));
         det1.setEstadoLiquidacion("INCLUIDO");
 
         // 2. REVERSO: A (original sender) gets refund from B?
@@ -87,13 +95,17 @@ class CompensacionServicioTest {
         // If "Emisor" in detail is still BANKA (the original sender), then:
         // BANKA Credit 20 (refund), BANKB Debit 20 (pay back).
         DetalleCompensacion det2 = new DetalleCompensacion();
+        det2.setIdDetalle(2L);
         det2.setTipoOperacion("REVERSO");
         det2.setBicEmisor("BANKA");
         det2.setBicReceptor("BANKB");
-        det2.setMonto(new BigDecimal("20.00"));
+        det2.setMonto(Dinero.valueOf("20.00"));
         det2.setEstadoLiquidacion("INCLUIDO");
 
-        when(detalleRepo.findByCicloId(cicloId)).thenReturn(Arrays.asList(det1, det2));
+        // No checkpoint yet: the whole cycle is the delta folded at close
+        when(detalleRepo.findByCicloIdAndIdDetalleGreaterThanOrderByIdDetalleAsc(cicloId, 0L))
+                .thenReturn(Arrays.asList(det1, det2));
+        when(detalleRepo.countByCicloIdAndIdDetalleLessThanEqual(cicloId, 2L)).thenReturn(2L);
 
         when(archivoRepo.save(any(ArchivoLiquidacion.class))).thenAnswer(i -> i.getArguments()[0]);
         when(mapper.toDTO(any(ArchivoLiquidacion.class))).thenReturn(ArchivoDTO.builder().build());
@@ -107,22 +119,148 @@ class CompensacionServicioTest {
         // REVERSO (Credit 20) -> +20
         // Net: -80
         // Expected TotalDebitos = 100, TotalCreditos = 20
-        assertEquals(new BigDecimal("100.00"), posBankA.getTotalDebitos());
-        assertEquals(new BigDecimal("20.00"), posBankA.getTotalCreditos());
-        assertEquals(new BigDecimal("-80.00"), posBankA.getNeto());
+        assertEquals(Dinero.valueOf("100.00"), posBankA.getTotalDebitos());
+        assertEquals(Dinero.valueOf("20.00"), posBankA.getTotalCreditos());
+        assertEquals(Dinero.valueOf("-80.00"), posBankA.getNeto());
 
         // BANKB:
         // PAGO (Credit 100) -> +100
         // REVERSO (Debit 20) -> -20
         // Net: +80
         // Expected TotalDebitos = 20, TotalCreditos = 100
-        assertEquals(new BigDecimal("20.00"), posBankB.getTotalDebitos());
-        assertEquals(new BigDecimal("100.00"), posBankB.getTotalCreditos());
-        assertEquals(new BigDecimal("80.00"), posBankB.getNeto());
+        assertEquals(Dinero.valueOf("20.00"), posBankB.getTotalDebitos());
+        assertEquals(Dinero.valueOf("100.00"), posBankB.getTotalCreditos());
+        assertEquals(Dinero.valueOf("80.00"), posBankB.getNeto());
 
         // Assert XML Signature Removal
         verify(archivoRepo).save(argThat(
                 archivo -> archivo.getXmlContenido().contains("<NetPosition currency=\"USD\">-80.00</NetPosition>") &&
                         archivo.getXmlContenido().contains("<NetPosition currency=\"USD\">80.00</NetPosition>")));
     }
+
+    @Test
+    void testPrevisualizarPosiciones_SumaDeltaSobreCheckpoint() {
+        Integer cicloId = 5;
+        CicloCompensacion ciclo = new CicloCompensacion();
+        ciclo.setId(cicloId);
+        ciclo.setEstado("ABIERTO");
+        ciclo.setUltimoDetalleNeteado(10L);
+        when(cicloRepo.findById(cicloId)).thenReturn(Optional.of(ciclo));
+
+        // Checkpoint: BANKA already paid 50 to BANKB
+        PosicionInstitucion posBankA = new PosicionInstitucion();
+        posBankA.setCodigoBic("BANKA");
+        posBankA.setDebitosNeteados(Dinero.valueOf("50.00"));
+        PosicionInstitucion posBankB = new PosicionInstitucion();
+        posBankB.setCodigoBic("BANKB");
+        posBankB.setCreditosNeteados(Dinero.valueOf("50.00"));
+        when(posicionRepo.findByCicloId(cicloId)).thenReturn(Arrays.asList(posBankA, posBankB));
+
+        DetalleCompensacion pendiente = new DetalleCompensacion();
+        pendiente.setIdDetalle(11L);
+        pendiente.setTipoOperacion("PAGO");
+        pendiente.setBicEmisor("BANKB");
+        pendiente.setBicReceptor("BANKC");
+        pendiente.setMonto(Dinero.valueOf("30.00"));
+        pendiente.setEstadoLiquidacion("INCLUIDO");
+        when(detalleRepo.findByCicloIdAndIdDetalleGreaterThanOrderByIdDetalleAsc(cicloId, 10L))
+                .thenReturn(List.of(pendiente));
+
+        CompensacionMapper mapperReal = new CompensacionMapper();
+        when(mapper.toPosicionList(any())).thenAnswer(i -> mapperReal.toPosicionList(i.getArgument(0)));
+
+        List<com.bancario.compensacion.dto.PosicionDTO> vista = servicio.previsualizarPosiciones(cicloId);
+
+        assertEquals(3, vista.size());
+        assertEquals(Dinero.valueOf("-50.00"), vista.get(0).getNeto());
+        assertEquals(Dinero.valueOf("20.00"), vista.get(1).getNeto());
+        assertEquals(Dinero.valueOf("30.00"), vista.get(2).getNeto());
+        // Preview never writes the checkpoint
+        verify(posicionRepo, never()).save(any());
+        verify(posicionRepo, never()).saveAll(any());
+        verify(cicloRepo, never()).save(any());
+    }
+
+    @Test
+    void testPrevisualizarPosiciones_DetalleTardioBajoLaMarcaRecalculaCompleto() {
+        Integer cicloId = 6;
+        CicloCompensacion ciclo = new CicloCompensacion();
+        ciclo.setId(cicloId);
+        ciclo.setEstado("ABIERTO");
+        ciclo.setUltimoDetalleNeteado(10L);
+        ciclo.setDetallesNeteados(1L);
+        when(cicloRepo.findById(cicloId)).thenReturn(Optional.of(ciclo));
+
+        // Checkpoint holds only detail 10 (BANKA -> BANKB 50); detail 9 committed after the fold
+        PosicionInstitucion posBankA = new PosicionInstitucion();
+        posBankA.setCodigoBic("BANKA");
+        posBankA.setDebitosNeteados(Dinero.valueOf("50.00"));
+        PosicionInstitucion posBankB = new PosicionInstitucion();
+        posBankB.setCodigoBic("BANKB");
+        posBankB.setCreditosNeteados(Dinero.valueOf("50.00"));
+        when(posicionRepo.findByCicloId(cicloId)).thenReturn(Arrays.asList(posBankA, posBankB));
+        when(detalleRepo.countByCicloIdAndIdDetalleLessThanEqual(cicloId, 10L)).thenReturn(2L);
+
+        DetalleCompensacion tardio = new DetalleCompensacion();
+        tardio.setIdDetalle(9L);
+        tardio.setTipoOperacion("PAGO");
+        tardio.setBicEmisor("BANKB");
+        tardio.setBicReceptor("BANKA");
+        tardio.setMonto(Dinero.valueOf("20.00"));
+        tardio.setEstadoLiquidacion("INCLUIDO");
+        DetalleCompensacion plegado = new DetalleCompensacion();
+        plegado.setIdDetalle(10L);
+        plegado.setTipoOperacion("PAGO");
+        plegado.setBicEmisor("BANKA");
+        plegado.setBicReceptor("BANKB");
+        plegado.setMonto(Dinero.valueOf("50.00"));
+        plegado.setEstadoLiquidacion("INCLUIDO");
+        when(detalleRepo.findByCicloId(cicloId)).thenReturn(List.of(tardio, plegado));
+
+        CompensacionMapper mapperReal = new CompensacionMapper();
+        when(mapper.toPosicionList(any())).thenAnswer(i -> mapperReal.toPosicionList(i.getArgument(0)));
+
+        List<com.bancario.compensacion.dto.PosicionDTO> vista = servicio.previsualizarPosiciones(cicloId);
+
+        // Detail 10 counted once, detail 9 included
+        assertEquals(Dinero.valueOf("-30.00"), vista.get(0).getNeto());
+        assertEquals(Dinero.valueOf("30.00"), vista.get(1).getNeto());
+        verify(detalleRepo, never()).findByCicloIdAndIdDetalleGreaterThanOrderByIdDetalleAsc(any(), any());
+        verify(posicionRepo, never()).saveAll(any());
+    }
+
+    @Test
+    void testRegistrarOperacion_DuplicadoNoAcumula() {
+        CicloCompensacion ciclo = new CicloCompensacion();
+        ciclo.setId(7);
+        ciclo.setEstado("ABIERTO");
+        when(cicloRepo.findCicloAbiertoParaIngesta()).thenReturn(Optional.of(ciclo));
+
+        com.bancario.compensacion.dto.RegistroOperacionDTO req = new com.bancario.compensacion.dto.RegistroOperacionDTO();
+        req.setIdInstruccion(java.util.UUID.randomUUID());
+        req.setBicEmisor("BANKA");
+        req.setBicReceptor("BANKB");
+        req.setMonto(Dinero.valueOf("25.00"));
+        req.setTipoOperacion("pago");
+
+        // Redelivery: the unique index already holds (idInstruccion, PAGO)
+        when(detalleRepo.insertarSiNoExiste(eq(req.getIdInstruccion()), any(), eq(7), eq("PAGO"),
+                any(), any(), any(), any())).thenReturn(0);
+
+        servicio.registrarOperacion(req);
+
+        verify(posicionRepo, never()).findByCicloIdAndCodigoBic(any(), any());
+        verify(posicionRepo, never()).save(any());
+    }
+
+    @Test
+    void testObtenerCicloVigente_LeeDeMemoria() {
+        com.bancario.compensacion.dto.CicloDTO abierto = com.bancario.compensacion.dto.CicloDTO.builder()
+                .id(3).numeroCiclo(3).estado("ABIERTO").build();
+        when(cicloVigente.obtener()).thenReturn(Optional.of(abierto));
+
+        assertSame(abierto, servicio.obtenerCicloVigente().orElseThrow());
+        // The monitor poll must not touch the cycle table
+        verifyNoInteractions(cicloRepo);
+    }
 }
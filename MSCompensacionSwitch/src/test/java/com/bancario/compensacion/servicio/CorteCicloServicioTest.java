@@ -0,0 +1,86 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.PosicionInstitucionRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class CorteCicloServicioTest {
+
+    @Mock
+    private CicloCompensacionRepositorio cicloRepo;
+    @Mock
+    private PosicionInstitucionRepositorio posicionRepo;
+    @Mock
+    private CicloVigenteServicio cicloVigente;
+
+    @InjectMocks
+    private CorteCicloServicio servicio;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    private CicloCompensacion ciclo(Integer id, String estado, LocalDateTime cierreProgramado) {
+        CicloCompensacion ciclo = new CicloCompensacion();
+        ciclo.setId(id);
+        ciclo.setNumeroCiclo(id);
+        ciclo.setEstado(estado);
+        ciclo.setFechaCierreProgramada(cierreProgramado);
+        when(cicloRepo.findByIdParaCierre(id)).thenReturn(Optional.of(ciclo));
+        return ciclo;
+    }
+
+    @Test
+    void testSellarCiclo_AbreSiguienteEpocaAntesDeLiquidar() {
+        CicloCompensacion actual = ciclo(1, "ABIERTO", null);
+        when(posicionRepo.findByCicloId(1)).thenReturn(List.of());
+        when(cicloRepo.save(any(CicloCompensacion.class))).thenAnswer(i -> i.getArguments()[0]);
+
+        assertTrue(servicio.sellarCiclo(1, 10, false));
+
+        assertEquals("CERRANDO", actual.getEstado());
+        verify(cicloRepo).save(argThat(c -> "ABIERTO".equals(c.getEstado())
+                && c.getNumeroCiclo() == 2
+                && c.getFechaCierreProgramada() != null));
+        verify(cicloVigente).publicar(argThat(c -> c.getNumeroCiclo() == 2));
+    }
+
+    @Test
+    void testSellarCiclo_NoCierraAntesDeLaHoraProgramada() {
+        ciclo(2, "ABIERTO", LocalDateTime.now(ZoneOffset.UTC).plusMinutes(5));
+
+        assertFalse(servicio.sellarCiclo(2, null, true));
+        verify(cicloRepo, never()).save(any());
+    }
+
+    @Test
+    void testSellarCiclo_IgnoraCicloYaCerradoPorOtraReplica() {
+        ciclo(3, "CERRADO", null);
+
+        assertFalse(servicio.sellarCiclo(3, null, true));
+        verify(cicloRepo, never()).save(any());
+    }
+
+    @Test
+    void testSellarCiclo_ReintentaEpocaSelladaSinAbrirOtra() {
+        ciclo(4, "CERRANDO", null);
+
+        assertTrue(servicio.sellarCiclo(4, null, true));
+        verify(cicloRepo, never()).save(any());
+    }
+}
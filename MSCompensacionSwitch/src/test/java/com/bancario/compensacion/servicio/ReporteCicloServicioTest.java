@@ -0,0 +1,87 @@
+package com.bancario.compensacion.servicio;
+
+import com.bancario.compensacion.modelo.CicloCompensacion;
+import com.bancario.compensacion.repositorio.CicloCompensacionRepositorio;
+import com.bancario.compensacion.repositorio.PosicionInstitucionRepositorio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReporteCicloServicioTest {
+
+    @Mock
+    private CicloCompensacionRepositorio cicloRepo;
+    @Mock
+    private PosicionInstitucionRepositorio posicionRepo;
+
+    @InjectMocks
+    private ReporteCicloServicio servicio;
+
+    @TempDir
+    Path directorio;
+
+    private CicloCompensacion ciclo;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ReflectionTestUtils.setField(servicio, "directorioReportes", directorio.toString());
+        ReflectionTestUtils.setField(servicio, "maxArchivos", 10);
+        ReflectionTestUtils.setField(servicio, "ttlAbiertoSegundos", 15L);
+        ReflectionTestUtils.setField(servicio, "maxAbiertos", 5);
+
+        ciclo = new CicloCompensacion();
+        ciclo.setId(7);
+        ciclo.setNumeroCiclo(7);
+        ciclo.setEstado("CERRADO");
+        ciclo.setFechaApertura(LocalDateTime.of(2026, 1, 5, 10, 0));
+        ciclo.setFechaCierre(LocalDateTime.of(2026, 1, 5, 10, 10, 0, 123_456_000));
+        when(cicloRepo.findById(7)).thenReturn(Optional.of(ciclo));
+        when(posicionRepo.findByCicloId(7)).thenReturn(List.of());
+    }
+
+    @Test
+    void reporteDeOtroCierreNoSeSirve() throws Exception {
+        // Mismo id de ciclo, otro cierre (p. ej. una base anterior) y el formato viejo sin sello
+        Path ajeno = Files.writeString(directorio.resolve("Reporte_Ciclo_7_20250101000000000.pdf"), "ajeno");
+        Path viejo = Files.writeString(directorio.resolve("Reporte_Ciclo_7.pdf"), "viejo");
+        servicio.inicializar();
+
+        Resource pdf = servicio.obtenerReporte(7);
+
+        assertEquals("Reporte_Ciclo_7_20260105101000123.pdf", pdf.getFilename());
+        assertTrue(new String(pdf.getContentAsByteArray(), 0, 4).startsWith("%PDF"));
+        assertFalse(Files.exists(ajeno));
+        assertFalse(Files.exists(viejo));
+    }
+
+    @Test
+    void reporteDelMismoCierreSobreviveAlReinicio() throws Exception {
+        servicio.inicializar();
+        Path generado = servicio.obtenerReporte(7).getFile().toPath();
+
+        ReporteCicloServicio reiniciado = new ReporteCicloServicio(cicloRepo, posicionRepo);
+        ReflectionTestUtils.setField(reiniciado, "directorioReportes", directorio.toString());
+        ReflectionTestUtils.setField(reiniciado, "maxArchivos", 10);
+        ReflectionTestUtils.setField(reiniciado, "maxAbiertos", 5);
+        reiniciado.inicializar();
+        clearInvocations(posicionRepo);
+
+        assertEquals(generado, reiniciado.obtenerReporte(7).getFile().toPath());
+        verify(posicionRepo, never()).findByCicloId(7);
+    }
+}
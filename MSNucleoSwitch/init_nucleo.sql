@@ -18,6 +18,9 @@ CREATE TABLE IF NOT EXISTS transaccion (
     fechaCompletado TIMESTAMP
 );
 
+-- Extracto de conciliación por ventana de fechas
+CREATE INDEX IF NOT EXISTS idx_transaccion_fecha_creacion ON transaccion (fechaCreacion);
+
 -- Tabla de Idempotencia
 CREATE TABLE IF NOT EXISTS respaldoIdempotencia (
     idInstruccion UUID PRIMARY KEY REFERENCES transaccion(idInstruccion),
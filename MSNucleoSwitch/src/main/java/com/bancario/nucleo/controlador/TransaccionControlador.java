@@ -2,7 +2,9 @@ package com.bancario.nucleo.controlador;
 
 import com.bancario.nucleo.dto.TransaccionResponseDTO;
 import com.bancario.nucleo.dto.ReturnRequestDTO;
+import com.bancario.nucleo.servicio.ExtractoConciliacionServicio;
 import com.bancario.nucleo.servicio.TransaccionServicio;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -11,10 +13,13 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.UUID;
 
@@ -26,6 +31,7 @@ import java.util.UUID;
 public class TransaccionControlador {
 
     private final TransaccionServicio transaccionServicio;
+    private final ExtractoConciliacionServicio extractoConciliacion;
 
     @GetMapping
     @Operation(summary = "Listar últimas transacciones", description = "Dashboard endpoint")
@@ -96,4 +102,15 @@ public class TransaccionControlador {
     public ResponseEntity<?> obtenerStats() {
         return ResponseEntity.ok(transaccionServicio.obtenerEstadisticas());
     }
+
+    @GetMapping("/conciliacion")
+    @Operation(summary = "Extracto de conciliación", description = "Transacciones creadas en [desde, hasta) en NDJSON, ordenadas por idInstruccion")
+    public ResponseEntity<StreamingResponseBody> extractoConciliacion(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta) {
+        extractoConciliacion.validarRango(desde, hasta);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(salida -> extractoConciliacion.escribirExtracto(desde, hasta, salida));
+    }
 }
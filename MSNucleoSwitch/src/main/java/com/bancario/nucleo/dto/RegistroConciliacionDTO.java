@@ -0,0 +1,23 @@
+package com.bancario.nucleo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Línea del extracto de conciliación: lo mínimo de una transacción para
+ * cruzarla con Contabilidad y Compensación.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RegistroConciliacionDTO {
+    private UUID idInstruccion;
+    private BigDecimal monto;
+    private String estado;
+    private LocalDateTime fecha;
+}
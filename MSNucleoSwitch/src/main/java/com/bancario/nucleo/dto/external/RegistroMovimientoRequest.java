@@ -1,10 +1,10 @@
 package com.bancario.nucleo.dto.external;
 
+import com.bancario.nucleo.modelo.Dinero;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import java.math.BigDecimal;
 import java.util.UUID;
 
 @Data
@@ -14,6 +14,6 @@ import java.util.UUID;
 public class RegistroMovimientoRequest {
     private String codigoBic;
     private UUID idInstruccion;
-    private BigDecimal monto;
+    private Dinero monto;
     private String tipo;
 }
\ No newline at end of file
@@ -1,18 +1,22 @@
 package com.bancario.nucleo.dto.external;
 
+import com.bancario.nucleo.modelo.Dinero;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
-import java.math.BigDecimal;
+import lombok.NoArgsConstructor;
 import java.util.UUID;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class RegistroOperacionDTO {
     private UUID idInstruccion;
     private UUID idInstruccionOriginal; // Opcional, para reversos
     private String bicEmisor;
     private String bicReceptor;
-    private BigDecimal monto;
+    private Dinero monto;
     private String tipoOperacion; // PAGO, REVERSO
     private String codigoReferencia;
 }
@@ -1,10 +1,10 @@
 package com.bancario.nucleo.dto.iso;
 
+import com.bancario.nucleo.modelo.Dinero;
 import lombok.Data;
-import java.math.BigDecimal;
 
 @Data
 public class AmountISO {
     private String currency;
-    private BigDecimal value;
+    private Dinero value;
 }
\ No newline at end of file
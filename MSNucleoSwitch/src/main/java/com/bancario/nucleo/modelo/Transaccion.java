@@ -11,7 +11,9 @@ import java.util.UUID;
 @Getter
 @Setter
 @Entity
-@Table(name = "Transaccion")
+@Table(name = "Transaccion", indexes = {
+        @Index(name = "idx_transaccion_fecha_creacion", columnList = "fechaCreacion")
+})
 public class Transaccion {
 
     @Id
@@ -1,11 +1,16 @@
 package com.bancario.nucleo.repositorio;
 
+import com.bancario.nucleo.dto.RegistroConciliacionDTO;
 import com.bancario.nucleo.modelo.Transaccion;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface TransaccionRepositorio extends JpaRepository<Transaccion, UUID> {
@@ -31,4 +36,13 @@ public interface TransaccionRepositorio extends JpaRepository<Transaccion, UUID>
             @org.springframework.data.repository.query.Param("id") String id,
             @org.springframework.data.repository.query.Param("bic") String bic,
             @org.springframework.data.repository.query.Param("estado") String estado);
+
+    // Extracto de conciliación ordenado por idInstruccion; se lee con cursor (fetch size) sin cargar entidades
+    @org.springframework.data.jpa.repository.Query("SELECT new com.bancario.nucleo.dto.RegistroConciliacionDTO("
+            + "t.idInstruccion, t.monto, t.estado, t.fechaCreacion) FROM Transaccion t"
+            + " WHERE t.fechaCreacion >= :desde AND t.fechaCreacion < :hasta ORDER BY t.idInstruccion")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    Stream<RegistroConciliacionDTO> streamParaConciliacion(
+            @org.springframework.data.repository.query.Param("desde") java.time.LocalDateTime desde,
+            @org.springframework.data.repository.query.Param("hasta") java.time.LocalDateTime hasta);
 }
@@ -0,0 +1,58 @@
+package com.bancario.nucleo.servicio;
+
+import com.bancario.nucleo.dto.RegistroConciliacionDTO;
+import com.bancario.nucleo.excepcion.BusinessException;
+import com.bancario.nucleo.repositorio.TransaccionRepositorio;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Extracto de transacciones para la conciliación de tres vías que corre en
+ * Contabilidad. Sale en NDJSON ordenado por idInstruccion (el orden de uuid de
+ * PostgreSQL), leído con un cursor: la memoria no depende del volumen del día.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ExtractoConciliacionServicio {
+
+    private final TransaccionRepositorio transaccionRepositorio;
+    private final ObjectMapper objectMapper;
+
+    public void validarRango(LocalDateTime desde, LocalDateTime hasta) {
+        if (desde == null || hasta == null || !desde.isBefore(hasta)) {
+            throw new BusinessException("Rango de fechas inválido para el extracto de conciliación.");
+        }
+    }
+
+    // La transacción mantiene abierto el cursor mientras se escribe la respuesta
+    @Transactional(readOnly = true)
+    public void escribirExtracto(LocalDateTime desde, LocalDateTime hasta, OutputStream salida) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8));
+        long total = 0;
+        try (Stream<RegistroConciliacionDTO> registros = transaccionRepositorio.streamParaConciliacion(desde, hasta)) {
+            Iterator<RegistroConciliacionDTO> it = registros.iterator();
+            while (it.hasNext()) {
+                writer.write(objectMapper.writeValueAsString(it.next()));
+                writer.write('\n');
+                total++;
+            }
+        }
+        writer.flush();
+        log.info("Extracto de conciliación [{} - {}): {} transacciones", desde, hasta, total);
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Map;
 
 import com.bancario.nucleo.repositorio.TransaccionRepositorio;
 import com.bancario.nucleo.repositorio.RespaldoIdempotenciaRepositorio;
+import com.bancario.nucleo.modelo.Dinero;
 import com.bancario.nucleo.modelo.Transaccion;
 import com.bancario.nucleo.modelo.RespaldoIdempotencia;
 import com.bancario.nucleo.modelo.IsoError;
@@ -25,6 +26,7 @@ import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 
 import com.bancario.nucleo.dto.TransaccionResponseDTO;
@@ -42,6 +44,9 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 public class TransaccionServicio {
 
+    // Tope por transacción: 10.000,00 USD
+    private static final Dinero LIMITE_MONTO = Dinero.deCentavos(1_000_000);
+
     private final StringRedisTemplate redisTemplate;
     private final TransaccionRepositorio transaccionRepositorio;
     private final RespaldoIdempotenciaRepositorio idempotenciaRepositorio;
@@ -68,9 +73,10 @@ public class TransaccionServicio {
         log.info(">>> ESCUDO ROBUSTO ACTIVADO v2 <<<");
         UUID idInstruccion;
         String bicOrigen, bicDestino, moneda, messageId, creationDateTime, cuentaOrigen, cuentaDestino;
-        BigDecimal monto;
+        Dinero monto;
         String fingerprintMd5;
         boolean debitRealizado = false;
+        boolean pagoEnClearing = false;
 
         try {
             if (iso.getBody() == null || iso.getHeader() == null) {
@@ -93,7 +99,7 @@ public class TransaccionServicio {
             if (!"USD".equalsIgnoreCase(moneda)) {
                 throw new BusinessException(IsoError.AC03.getCodigo() + " - Moneda no soportada: " + moneda);
             }
-            if (monto.compareTo(new BigDecimal("10000")) > 0) {
+            if (monto.mayorQue(LIMITE_MONTO)) {
                 throw new BusinessException(
                         IsoError.CH03.getCodigo() + " - Monto excede el límite permitido (Max: 10,000 USD)");
             }
@@ -175,7 +181,7 @@ public class TransaccionServicio {
         tx.setIdMensaje(messageId);
         String rawRef = monto.toString() + bicOrigen + bicDestino + creationDateTime + cuentaOrigen + cuentaDestino;
         tx.setReferenciaRed(generarMD5(rawRef).toUpperCase());
-        tx.setMonto(monto);
+        tx.setMonto(monto.aBigDecimal());
         tx.setMoneda(moneda);
         tx.setCodigoBicOrigen(bicOrigen);
         tx.setCodigoBicDestino(bicDestino);
@@ -194,9 +200,9 @@ public class TransaccionServicio {
         tx = transaccionRepositorio.save(tx);
 
         try {
-            String bin = (cuentaDestino != null && cuentaDestino.length() >= 6) ? cuentaDestino.substring(0, 6)
-                    : "000000";
-            validarEnrutamientoBin(bin, bicDestino);
+            // El directorio resuelve por prefijo más largo: se envían hasta 11 dígitos iniciales de la cuenta
+            String bin = prefijoCuenta(cuentaDestino);
+            validarEnrutamientoBin(bin, bicDestino, bicOrigen);
             log.info("Enrutamiento: BIN {} mapeado correctamente a {}", bin, bicDestino);
 
             validarBanco(bicOrigen, false);
@@ -227,31 +233,27 @@ public class TransaccionServicio {
             operacionDTO.setCodigoReferencia(tx.getCodigoReferencia());
 
             mensajeriaServicio.publicarCompensacion(operacionDTO);
+            pagoEnClearing = true;
 
             // --- FASE 2: NÚCLEO ASÍNCRONO (RabbitMQ) ---
             log.info("Núcleo: Publicando mensaje a Exchange (RoutingKey={})", bicDestino);
             mensajeriaServicio.publicarTransferencia(iso);
 
-            entregado = true;
+            resolverRetencion(idInstruccion, "captura");
             tx.setEstado("COMPLETED");
             guardarRespaldoIdempotencia(tx, "EXITO (ENVIADO A COLA)");
             log.info("Tx UUID={} completada localmente y encolada para {}", idInstruccion, bicDestino);
 
-        } catch (java.util.concurrent.TimeoutException e) {
-            log.error("Transacción en estado PENDING por Timeout: {}", e.getMessage());
-            throw new org.springframework.web.server.ResponseStatusException(
-                    org.springframework.http.HttpStatus.GATEWAY_TIMEOUT, "Tiempo de espera agotado con Banco Destino");
-
         } catch (BusinessException e) {
             log.error("Error de Negocio: {}", e.getMessage());
             if (debitRealizado) {
-                ejecutarReversoSaga(tx);
+                ejecutarReversoSaga(tx, pagoEnClearing);
             }
             tx.setEstado("FAILED");
         } catch (Exception e) {
             log.error("Error crítico en Tx: {}", e.getMessage());
             if (debitRealizado) {
-                ejecutarReversoSaga(tx);
+                ejecutarReversoSaga(tx, pagoEnClearing);
             }
             tx.setEstado("FAILED");
         }
@@ -288,16 +290,17 @@ public class TransaccionServicio {
                                 tx = transaccionRepositorio.save(tx);
 
                                 if ("COMPLETED".equals(nuevoEstado)) {
+                                    resolverRetencion(tx.getIdInstruccion(), "captura");
                                     try {
                                         registrarMovimientoContable(tx.getCodigoBicDestino(), tx.getIdInstruccion(),
-                                                tx.getMonto(), "CREDIT");
-                                        notificarCompensacion(tx.getCodigoBicDestino(), tx.getMonto(), false);
+                                                Dinero.de(tx.getMonto()), "CREDIT");
+                                        notificarCompensacion(tx.getCodigoBicDestino(), Dinero.de(tx.getMonto()), false);
                                     } catch (Exception ex) {
                                         log.error("Error aplicando contabilidad en Recuperación: {}", ex.getMessage());
                                     }
                                     guardarRespaldoIdempotencia(tx, "EXITO (RECUPERADO)");
                                 } else if ("FAILED".equals(nuevoEstado)) {
-                                    ejecutarReversoSaga(tx);
+                                    ejecutarReversoSagaIncierto(tx);
                                 }
                             }
                         }
@@ -308,7 +311,7 @@ public class TransaccionServicio {
                             log.error("RF-04: Tiempo máximo de resolución agotado (60s). Marcando FAILED.");
                             tx.setEstado("FAILED");
                             tx = transaccionRepositorio.save(tx);
-                            ejecutarReversoSaga(tx);
+                            ejecutarReversoSagaIncierto(tx);
                         }
                     }
 
@@ -439,8 +442,9 @@ public class TransaccionServicio {
 
         log.info("Compensación: Registrando reverso en ciclo ABIERTO");
         try {
-            notificarCompensacion(originalTx.getCodigoBicOrigen(), originalTx.getMonto(), false);
-            notificarCompensacion(originalTx.getCodigoBicDestino(), originalTx.getMonto(), true);
+            Dinero montoOriginal = Dinero.de(originalTx.getMonto());
+            notificarCompensacion(originalTx.getCodigoBicOrigen(), montoOriginal, false);
+            notificarCompensacion(originalTx.getCodigoBicDestino(), montoOriginal, true);
         } catch (Exception e) {
             log.error("Error al compensar reverso (No bloqueante): {}", e.getMessage());
         }
@@ -557,10 +561,23 @@ public class TransaccionServicio {
         }
     }
 
-    private void validarEnrutamientoBin(String bin, String bicDestinoEsperado) {
+    private static String prefijoCuenta(String cuenta) {
+        int digitos = 0;
+        while (cuenta != null && digitos < cuenta.length() && digitos < 11
+                && cuenta.charAt(digitos) >= '0' && cuenta.charAt(digitos) <= '9') {
+            digitos++;
+        }
+        return digitos >= 6 ? cuenta.substring(0, digitos) : "000000";
+    }
+
+    private void validarEnrutamientoBin(String bin, String bicDestinoEsperado, String bicOrigen) {
         try {
             String urlLookup = directorioUrl + "/api/v1/lookup/" + bin;
-            InstitucionDTO bancoPropietario = restTemplate.getForObject(urlLookup, InstitucionDTO.class);
+            // El directorio lleva métricas de lookups fallidos por banco solicitante
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("X-Banco-Origen", bicOrigen);
+            InstitucionDTO bancoPropietario = restTemplate.exchange(urlLookup, HttpMethod.GET,
+                    new HttpEntity<>(headers), InstitucionDTO.class).getBody();
 
             if (bancoPropietario == null) {
                 throw new BusinessException(
@@ -589,7 +606,7 @@ public class TransaccionServicio {
         }
     }
 
-    private void registrarMovimientoContable(String bic, UUID idTx, BigDecimal monto, String tipo) {
+    private void registrarMovimientoContable(String bic, UUID idTx, Dinero monto, String tipo) {
         try {
             RegistroMovimientoRequest req = RegistroMovimientoRequest.builder()
                     .codigoBic(bic)
@@ -610,7 +627,7 @@ public class TransaccionServicio {
         }
     }
 
-    private void reservarBalance(String bic, UUID idTx, BigDecimal monto) {
+    private void reservarBalance(String bic, UUID idTx, Dinero monto) {
         try {
             RegistroMovimientoRequest req = RegistroMovimientoRequest.builder()
                     .codigoBic(bic)
@@ -630,7 +647,17 @@ public class TransaccionServicio {
         }
     }
 
-    private void registrarOperacionCompensacion(String bicEmisor, String bicReceptor, UUID idTx, BigDecimal monto,
+    // Best-effort: si falla, la retención expira sola en Contabilidad
+    private void resolverRetencion(UUID idTx, String accion) {
+        try {
+            String url = contabilidadUrl + "/api/v1/ledger/retenciones/" + idTx + "/" + accion;
+            restTemplate.postForEntity(url, null, Object.class);
+        } catch (Exception e) {
+            log.warn("Ledger: no se pudo aplicar {} de la retención {}: {}", accion, idTx, e.getMessage());
+        }
+    }
+
+    private void registrarOperacionCompensacion(String bicEmisor, String bicReceptor, UUID idTx, Dinero monto,
             String tipo, String codigoReferencia) {
         try {
             com.bancario.nucleo.dto.external.RegistroOperacionDTO req = com.bancario.nucleo.dto.external.RegistroOperacionDTO
@@ -676,32 +703,46 @@ public class TransaccionServicio {
         }
     }
 
-    private void ejecutarReversoSaga(Transaccion tx) {
+    /**
+     * Deshace un pago que no llegó a completarse. La retención se libera en el
+     * acto y el cierre del ciclo ya no la toca (sólo desbloquea retenciones
+     * capturadas), así que en Clearing sólo hay que anular el PAGO si llegó a
+     * publicarse: su REVERSO deja la posición neta en cero.
+     */
+    private void ejecutarReversoSaga(Transaccion tx, boolean pagoEnClearing) {
         try {
             log.warn("SAGA COMPENSACIÓN: Iniciando reverso local (release blocks) para Tx {}", tx.getIdInstruccion());
 
-            // 1. Register PAGO (So 'Total Debits' includes this, releasing the block in
-            // closing)
-            registrarOperacionCompensacion(tx.getCodigoBicOrigen(), tx.getCodigoBicDestino(), tx.getIdInstruccion(),
-                    tx.getMonto(), "PAGO", tx.getCodigoReferencia());
+            // 1. Release the ledger hold now so the bank's liquidity comes back immediately
+            resolverRetencion(tx.getIdInstruccion(), "liberacion");
 
-            // 2. Register REVERSO (So Net Position cancels out, refunding the user in
-            // 'Available')
-            registrarOperacionCompensacion(tx.getCodigoBicOrigen(), tx.getCodigoBicDestino(), tx.getIdInstruccion(),
-                    tx.getMonto(), "REVERSO", tx.getCodigoReferencia());
-
-            // No need to manually CREDIT ledger. Cycle Closing handles it.
+            // 2. Cancel the PAGO already sent to Clearing (nothing to cancel if it never left)
+            if (pagoEnClearing) {
+                registrarOperacionCompensacion(tx.getCodigoBicOrigen(), tx.getCodigoBicDestino(),
+                        tx.getIdInstruccion(), Dinero.de(tx.getMonto()), "REVERSO", tx.getCodigoReferencia());
+            }
 
             notificarReversoAlBancoOrigen(tx);
 
-            log.info(
-                    "SAGA COMPENSACIÓN: Reverso registrado en Clearing exitosamente (Funds will unblock at cycle close).");
+            log.info("SAGA COMPENSACIÓN: Retención liberada en Ledger{}.",
+                    pagoEnClearing ? " y PAGO anulado en Clearing" : "");
 
         } catch (Exception e) {
             log.error("CRITICAL: Fallo en Saga de Reverso. Inconsistencia Contable posible. {}", e.getMessage());
         }
     }
 
+    /**
+     * Saga de una transacción recuperada a medias, de la que no se sabe si su PAGO
+     * llegó a Clearing: se registra el PAGO (el índice único de Clearing lo
+     * descarta si ya estaba) para que el REVERSO siempre tenga qué anular.
+     */
+    private void ejecutarReversoSagaIncierto(Transaccion tx) {
+        registrarOperacionCompensacion(tx.getCodigoBicOrigen(), tx.getCodigoBicDestino(), tx.getIdInstruccion(),
+                Dinero.de(tx.getMonto()), "PAGO", tx.getCodigoReferencia());
+        ejecutarReversoSaga(tx, true);
+    }
+
     private void notificarReversoAlBancoOrigen(Transaccion tx) {
         try {
             InstitucionDTO bancoOrigen = validarBanco(tx.getCodigoBicOrigen(), true);
@@ -806,7 +847,7 @@ public class TransaccionServicio {
      * El sistema ahora usa registrarOperacionCompensacion() para el flujo DNS.
      */
     @Deprecated
-    private void notificarCompensacion(String bic, BigDecimal monto, boolean esDebito) {
+    private void notificarCompensacion(String bic, Dinero monto, boolean esDebito) {
         try {
             String url = compensacionUrl + "/api/v1/compensacion/acumular?bic=" + bic
                     + "&monto=" + monto + "&esDebito=" + esDebito;
@@ -1,6 +1,7 @@
 package com.bancario.nucleo.controlador;
 
 import com.bancario.nucleo.dto.ReturnRequestDTO;
+import com.bancario.nucleo.servicio.ExtractoConciliacionServicio;
 import com.bancario.nucleo.servicio.TransaccionServicio;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
@@ -10,6 +11,7 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.Map;
 import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -29,6 +31,9 @@ public class TransaccionControladorTest {
     @MockBean
     private TransaccionServicio transaccionServicio;
 
+    @MockBean
+    private ExtractoConciliacionServicio extractoConciliacionServicio;
+
     @Test
     public void testProcesarDevolucion() throws Exception {
         ReturnRequestDTO dto = new ReturnRequestDTO();
@@ -40,7 +45,7 @@ public class TransaccionControladorTest {
         body.setOriginalInstructionId(UUID.randomUUID().toString());
         dto.setBody(body);
 
-        when(transaccionServicio.procesarDevolucion(any(ReturnRequestDTO.class))).thenReturn(new Object());
+        when(transaccionServicio.procesarDevolucion(any(ReturnRequestDTO.class))).thenReturn(Map.of("status", "COMPLETED"));
 
         mockMvc.perform(post("/api/v1/transacciones/devoluciones")
                 .contentType(MediaType.APPLICATION_JSON)
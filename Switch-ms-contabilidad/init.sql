@@ -4,6 +4,9 @@
 DROP TABLE IF EXISTS Transaccion;
 DROP TABLE IF EXISTS Cuenta;
 -- Eliminar tablas actuales para asegurar recreación limpia
+DROP TABLE IF EXISTS SnapshotSaldo;
+DROP TABLE IF EXISTS RetencionFondos;
+DROP TABLE IF EXISTS SaldoParticion;
 DROP TABLE IF EXISTS Movimiento;
 DROP TABLE IF EXISTS CuentaTecnica;
 
@@ -12,7 +15,15 @@ CREATE TABLE IF NOT EXISTS CuentaTecnica (
     id UUID PRIMARY KEY,
     codigoBic VARCHAR(20) NOT NULL UNIQUE,
     saldoDisponible NUMERIC(18, 2) NOT NULL DEFAULT 0.00,
-    firmaIntegridad TEXT NOT NULL -- Hash SHA-256
+    fondosBloqueados NUMERIC(18, 2) NOT NULL DEFAULT 0.00,
+    firmaIntegridad TEXT NOT NULL, -- Cabeza de la cadena HMAC de movimientos
+    secuenciaCadena BIGINT DEFAULT 0,
+    secuenciaVerificada BIGINT,                 -- Checkpoint del verificador de la cadena
+    hashVerificado TEXT,
+    integridadComprometida BOOLEAN,             -- Cadena rota: la cuenta deja de operar
+    particionesSaldo INTEGER,                   -- Saldo particionado (NULL = fila única)
+    ultimaConciliacion TIMESTAMP,               -- Último snapshot conciliado
+    version BIGINT NOT NULL DEFAULT 0           -- Versión de la fila para la proyección de saldos
 );
 
 -- 2. Tabla de Movimientos Inmutables
@@ -24,13 +35,63 @@ CREATE TABLE IF NOT EXISTS Movimiento (
     monto NUMERIC(18, 2) NOT NULL,
     saldoResultante NUMERIC(18, 2) NOT NULL,
     fechaRegistro TIMESTAMP NOT NULL,
-    referenciaId UUID -- Para Reversos (Link a transacción original)
+    referenciaId UUID, -- Para Reversos (Link a transacción original)
+    secuenciaCuenta BIGINT, -- Posición en la cadena de integridad de la cuenta
+    hashCadena VARCHAR(44), -- HMAC-SHA256 encadenado con el movimiento anterior
+    efectoContable NUMERIC(18, 2) -- Cambio firmado en disponible + bloqueados
 );
 
+-- Ids de Movimiento con pool de 50 (allocationSize en la entidad) para inserts en batch.
+-- Hibernate reparte (valor - 49 .. valor] de cada nextval: el siguiente bloque debe empezar por encima de MAX.
+CREATE SEQUENCE IF NOT EXISTS movimiento_seq START WITH 1 INCREMENT BY 50;
+SELECT setval('movimiento_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM Movimiento), true);
+
+-- Particiones de saldo para bancos de alto volumen (reservas repartidas entre filas)
+CREATE TABLE IF NOT EXISTS SaldoParticion (
+    id BIGINT PRIMARY KEY,
+    idCuenta UUID NOT NULL REFERENCES CuentaTecnica(id),
+    numeroParticion INTEGER NOT NULL,
+    saldoDisponible NUMERIC(18, 2) NOT NULL DEFAULT 0.00,
+    fondosBloqueados NUMERIC(18, 2) NOT NULL DEFAULT 0.00,
+    firmaIntegridad VARCHAR(44) NOT NULL, -- HMAC de la partición
+    CONSTRAINT uk_saldo_particion UNIQUE (idCuenta, numeroParticion)
+);
+CREATE SEQUENCE IF NOT EXISTS saldo_particion_seq START WITH 1 INCREMENT BY 50;
+
+-- Retenciones de fondos por instrucción (reservarFondos), con expiración para el barrido
+CREATE TABLE IF NOT EXISTS RetencionFondos (
+    idInstruccion UUID PRIMARY KEY,
+    idCuenta UUID NOT NULL REFERENCES CuentaTecnica(id),
+    monto NUMERIC(18, 2) NOT NULL,
+    estado VARCHAR(10) NOT NULL, -- ACTIVA, CAPTURADA, LIBERADA, EXPIRADA, LIQUIDADA
+    fechaCreacion TIMESTAMP NOT NULL,
+    fechaExpiracion TIMESTAMP NOT NULL,
+    fechaResolucion TIMESTAMP
+);
+CREATE INDEX IF NOT EXISTS idx_retencion_estado_expiracion ON RetencionFondos(estado, fechaExpiracion);
+CREATE INDEX IF NOT EXISTS idx_retencion_fecha_creacion ON RetencionFondos(fechaCreacion); -- Conciliación de tres vías por ventana
+
+-- Snapshots de saldo por cuenta: la conciliación reproduce sólo los movimientos posteriores
+CREATE TABLE IF NOT EXISTS SnapshotSaldo (
+    id BIGINT PRIMARY KEY,
+    idCuenta UUID NOT NULL REFERENCES CuentaTecnica(id),
+    saldoDisponible NUMERIC(18, 2) NOT NULL,
+    fondosBloqueados NUMERIC(18, 2) NOT NULL,
+    firmaCadena TEXT NOT NULL,
+    secuenciaCadena BIGINT NOT NULL,
+    ultimoMovimientoId BIGINT,
+    conciliado BOOLEAN NOT NULL,
+    fechaSnapshot TIMESTAMP NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_snapshot_cuenta_secuencia ON SnapshotSaldo(idCuenta, secuenciaCadena);
+CREATE SEQUENCE IF NOT EXISTS snapshot_saldo_seq START WITH 1 INCREMENT BY 50;
+
 -- Índices para optimización
 CREATE INDEX IF NOT EXISTS idx_movimiento_cuenta ON Movimiento(idCuenta);
-CREATE INDEX IF NOT EXISTS idx_movimiento_fecha ON Movimiento(fechaRegistro);
+CREATE INDEX IF NOT EXISTS idx_movimiento_fecha ON Movimiento(fechaRegistro, id); -- Keyset de exportación por rango
+CREATE INDEX IF NOT EXISTS idx_movimiento_cuenta_fecha ON Movimiento(idCuenta, fechaRegistro, id); -- Estado de cuenta
 CREATE INDEX IF NOT EXISTS idx_movimiento_instruccion ON Movimiento(idInstruccion);
+CREATE UNIQUE INDEX IF NOT EXISTS uk_movimiento_cadena ON Movimiento(idCuenta, secuenciaCuenta);
 CREATE INDEX IF NOT EXISTS idx_movimiento_referencia ON Movimiento(referenciaId); -- Vital para RF-07 (validación duplicados)
 
 -- Datos Semilla (Seed Data) - BANCOS OFICIALES DEL SISTEMA
@@ -3,8 +3,14 @@ CREATE TABLE IF NOT EXISTS cuentaTecnica (
     bic VARCHAR(20) UNIQUE NOT NULL,
     saldoDisponible NUMERIC(18,2) NOT NULL,
     fondosBloqueados NUMERIC(18,2) DEFAULT 0.00, -- Reserva para QUEUED
-    firmaIntegridad VARCHAR(128),               -- Hash de seguridad de fila
-    ultimaConciliacion TIMESTAMP
+    firmaIntegridad VARCHAR(128),               -- Cabeza de la cadena HMAC de movimientos
+    secuenciaCadena BIGINT DEFAULT 0,
+    secuenciaVerificada BIGINT,                 -- Checkpoint del verificador de la cadena
+    hashVerificado TEXT,
+    integridadComprometida BOOLEAN,             -- Cadena rota: la cuenta deja de operar
+    particionesSaldo INTEGER,                   -- Saldo particionado (NULL = fila única)
+    ultimaConciliacion TIMESTAMP,
+    version BIGINT NOT NULL DEFAULT 0           -- Versión de la fila para la proyección de saldos
 );
 
 CREATE TABLE IF NOT EXISTS movimiento (
@@ -14,9 +20,63 @@ CREATE TABLE IF NOT EXISTS movimiento (
     tipo VARCHAR(10),                -- DEBIT, CREDIT
     monto NUMERIC(18,2),
     saldoResultante NUMERIC(18,2),
-    fechaRegistro TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+    fechaRegistro TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    secuenciaCuenta BIGINT,          -- Posición en la cadena de integridad de la cuenta
+    hashCadena VARCHAR(44),          -- HMAC-SHA256 encadenado con el movimiento anterior
+    efectoContable NUMERIC(18,2)     -- Cambio firmado en disponible + bloqueados
 );
 
+CREATE UNIQUE INDEX IF NOT EXISTS uk_movimiento_cadena ON movimiento(idCuenta, secuenciaCuenta);
+
+-- Keysets de la exportación por rango y del estado de cuenta
+CREATE INDEX IF NOT EXISTS idx_movimiento_fecha ON movimiento(fechaRegistro, idMovimiento);
+CREATE INDEX IF NOT EXISTS idx_movimiento_cuenta_fecha ON movimiento(idCuenta, fechaRegistro, idMovimiento);
+
+-- Ids de Movimiento con pool de 50 (allocationSize en la entidad) para inserts en batch.
+-- Hibernate reparte (valor - 49 .. valor] de cada nextval: el siguiente bloque debe empezar por encima de MAX.
+CREATE SEQUENCE IF NOT EXISTS movimiento_seq START WITH 1 INCREMENT BY 50;
+SELECT setval('movimiento_seq', (SELECT COALESCE(MAX(idMovimiento), 0) + 50 FROM movimiento), true);
+
+-- Particiones de saldo para bancos de alto volumen (reservas repartidas entre filas)
+CREATE TABLE IF NOT EXISTS SaldoParticion (
+    id BIGINT PRIMARY KEY,
+    idCuenta UUID NOT NULL REFERENCES cuentaTecnica(idCuenta),
+    numeroParticion INTEGER NOT NULL,
+    saldoDisponible NUMERIC(18, 2) NOT NULL DEFAULT 0.00,
+    fondosBloqueados NUMERIC(18, 2) NOT NULL DEFAULT 0.00,
+    firmaIntegridad VARCHAR(44) NOT NULL, -- HMAC de la partición
+    CONSTRAINT uk_saldo_particion UNIQUE (idCuenta, numeroParticion)
+);
+CREATE SEQUENCE IF NOT EXISTS saldo_particion_seq START WITH 1 INCREMENT BY 50;
+
+-- Retenciones de fondos por instrucción (reservarFondos), con expiración para el barrido
+CREATE TABLE IF NOT EXISTS RetencionFondos (
+    idInstruccion UUID PRIMARY KEY,
+    idCuenta UUID NOT NULL REFERENCES cuentaTecnica(idCuenta),
+    monto NUMERIC(18, 2) NOT NULL,
+    estado VARCHAR(10) NOT NULL, -- ACTIVA, CAPTURADA, LIBERADA, EXPIRADA, LIQUIDADA
+    fechaCreacion TIMESTAMP NOT NULL,
+    fechaExpiracion TIMESTAMP NOT NULL,
+    fechaResolucion TIMESTAMP
+);
+CREATE INDEX IF NOT EXISTS idx_retencion_estado_expiracion ON RetencionFondos(estado, fechaExpiracion);
+CREATE INDEX IF NOT EXISTS idx_retencion_fecha_creacion ON RetencionFondos(fechaCreacion); -- Conciliación de tres vías por ventana
+
+-- Snapshots de saldo por cuenta: la conciliación reproduce sólo los movimientos posteriores
+CREATE TABLE IF NOT EXISTS SnapshotSaldo (
+    id BIGINT PRIMARY KEY,
+    idCuenta UUID NOT NULL REFERENCES cuentaTecnica(idCuenta),
+    saldoDisponible NUMERIC(18, 2) NOT NULL,
+    fondosBloqueados NUMERIC(18, 2) NOT NULL,
+    firmaCadena TEXT NOT NULL,
+    secuenciaCadena BIGINT NOT NULL,
+    ultimoMovimientoId BIGINT,
+    conciliado BOOLEAN NOT NULL,
+    fechaSnapshot TIMESTAMP NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_snapshot_cuenta_secuencia ON SnapshotSaldo(idCuenta, secuenciaCadena);
+CREATE SEQUENCE IF NOT EXISTS snapshot_saldo_seq START WITH 1 INCREMENT BY 50;
+
 -- Seed Data (Initial Data)
 INSERT INTO cuentaTecnica (idCuenta, bic, saldoDisponible, fondosBloqueados, firmaIntegridad)
 VALUES 
@@ -1,20 +1,37 @@
 package com.switchbank.mscontabilidad.controlador;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.switchbank.mscontabilidad.dto.ConciliacionDTO;
 import com.switchbank.mscontabilidad.dto.CrearCuentaRequest;
 import com.switchbank.mscontabilidad.dto.CuentaDTO;
 import com.switchbank.mscontabilidad.dto.MovimientoDTO;
 import com.switchbank.mscontabilidad.dto.RegistroMovimientoRequest;
+import com.switchbank.mscontabilidad.dto.ResultadoMovimientoDTO;
+import com.switchbank.mscontabilidad.dto.ResumenConciliacionTresViasDTO;
 import com.switchbank.mscontabilidad.dto.ReturnRequestDTO;
+import com.switchbank.mscontabilidad.servicio.ConciliacionSaldosServicio;
+import com.switchbank.mscontabilidad.servicio.ConciliacionTresViasServicio;
 import com.switchbank.mscontabilidad.servicio.ContabilidadServicio;
+import com.switchbank.mscontabilidad.servicio.ExportacionMovimientosServicio;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/v1/ledger")
@@ -23,6 +40,10 @@ import java.util.List;
 public class ContabilidadControlador {
 
     private final ContabilidadServicio servicio;
+    private final ExportacionMovimientosServicio exportacion;
+    private final ConciliacionSaldosServicio conciliacion;
+    private final ConciliacionTresViasServicio conciliacionTresVias;
+    private final ObjectMapper objectMapper;
 
     @PostMapping("/cuentas")
     @Operation(summary = "Crear Cuenta Técnica", description = "Inicializa una cuenta técnica para un Banco.")
@@ -42,12 +63,38 @@ public class ContabilidadControlador {
         return ResponseEntity.ok(servicio.registrarMovimiento(req));
     }
 
+    @PostMapping("/movimientos/lote")
+    @Operation(summary = "Registrar Movimientos en Lote", description = "Aplica una ráfaga de movimientos con group commit y devuelve el resultado de cada uno.")
+    public ResponseEntity<List<ResultadoMovimientoDTO>> registrarMovimientosLote(
+            @RequestBody List<RegistroMovimientoRequest> items) {
+        return ResponseEntity.ok(servicio.registrarMovimientosLote(items));
+    }
+
     @PostMapping("/reservar")
     @Operation(summary = "Reservar Fondos (Pre-Autorización)", description = "Bloquea fondos preventivamente.")
     public ResponseEntity<CuentaDTO> reservarFondos(@RequestBody RegistroMovimientoRequest req) {
         return ResponseEntity.ok(servicio.reservarFondos(req));
     }
 
+    @PostMapping("/retenciones/{idInstruccion}/captura")
+    @Operation(summary = "Capturar Retención", description = "El pago siguió adelante: los fondos quedan bloqueados hasta la liquidación.")
+    public ResponseEntity<CuentaDTO> capturarRetencion(@PathVariable UUID idInstruccion) {
+        return ResponseEntity.ok(servicio.capturarRetencion(idInstruccion));
+    }
+
+    @PostMapping("/retenciones/{idInstruccion}/liberacion")
+    @Operation(summary = "Liberar Retención", description = "El pago falló: devuelve los fondos reservados al disponible.")
+    public ResponseEntity<CuentaDTO> liberarRetencion(@PathVariable UUID idInstruccion) {
+        return ResponseEntity.ok(servicio.liberarRetencion(idInstruccion));
+    }
+
+    @PostMapping("/cuentas/{bic}/conciliacion")
+    @Operation(summary = "Conciliar Cuenta", description = "Reproduce los movimientos desde el último snapshot y compara con el saldo registrado.")
+    public ResponseEntity<ConciliacionDTO> conciliarCuenta(@PathVariable String bic,
+            @RequestParam(defaultValue = "true") boolean registrar) {
+        return ResponseEntity.ok(conciliacion.conciliar(bic, registrar));
+    }
+
     @PostMapping("/compensar")
     @Operation(summary = "Aplicar Compensación Masiva", description = "Cierra el ciclo y asienta saldos netos.")
     public ResponseEntity<Void> aplicarCompensacion(
@@ -69,4 +116,58 @@ public class ContabilidadControlador {
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end) {
         return ResponseEntity.ok(servicio.obtenerMovimientosPorRango(start, end));
     }
+
+    @GetMapping("/movimientos/exportacion")
+    @Operation(summary = "Exportar Movimientos por Rango", description = "Descarga en streaming (NDJSON o CSV) con memoria constante.")
+    public ResponseEntity<StreamingResponseBody> exportarMovimientos(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime start,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime end,
+            @RequestParam(defaultValue = "ndjson") String formato) {
+        ExportacionMovimientosServicio.Exportacion export = exportacion.prepararRango(start, end, formato);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(ExportacionMovimientosServicio.tipoContenido(formato)))
+                .body(export::escribirEn);
+    }
+
+    @GetMapping("/cuentas/{bic}/estado")
+    @Operation(summary = "Estado de Cuenta", description = "Movimientos de un banco en streaming (NDJSON o CSV), sin límite de rango.")
+    public ResponseEntity<StreamingResponseBody> estadoCuenta(
+            @PathVariable String bic,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta,
+            @RequestParam(defaultValue = "csv") String formato) {
+        ExportacionMovimientosServicio.Exportacion export = exportacion.prepararEstadoCuenta(bic, desde, hasta,
+                formato);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(ExportacionMovimientosServicio.tipoContenido(formato)))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"estado_" + bic + "." + formato.toLowerCase() + "\"")
+                .body(export::escribirEn);
+    }
+
+    @GetMapping("/conciliacion/tres-vias")
+    @Operation(summary = "Conciliación de Tres Vías", description = "Cruza Núcleo, Contabilidad y Compensación en [desde, hasta). NDJSON: una línea por discrepancia y el resumen al final.")
+    public ResponseEntity<StreamingResponseBody> conciliarTresVias(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime hasta) {
+        conciliacionTresVias.validarRango(desde, hasta);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(salida -> {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8));
+                    ResumenConciliacionTresViasDTO resumen = conciliacionTresVias.conciliar(desde, hasta,
+                            discrepancia -> escribirLinea(writer, discrepancia));
+                    escribirLinea(writer, resumen);
+                    writer.flush();
+                });
+    }
+
+    private void escribirLinea(Writer writer, Object valor) {
+        try {
+            writer.write(objectMapper.writeValueAsString(valor));
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 }
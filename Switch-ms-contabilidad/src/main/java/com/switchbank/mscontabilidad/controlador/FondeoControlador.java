@@ -2,6 +2,7 @@ package com.switchbank.mscontabilidad.controlador;
 
 import com.switchbank.mscontabilidad.dto.CuentaDTO;
 import com.switchbank.mscontabilidad.dto.RecargaRequest;
+import com.switchbank.mscontabilidad.modelo.Dinero;
 import com.switchbank.mscontabilidad.servicio.ContabilidadServicio;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -9,7 +10,6 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.math.BigDecimal;
 import java.util.Map;
 
 @RestController
@@ -26,10 +26,16 @@ public class FondeoControlador {
         return ResponseEntity.ok(service.recargarSaldo(req.getBic(), req.getMonto(), req.getIdInstruccion()));
     }
 
+    @PostMapping("/{bic}/particiones")
+    @Operation(summary = "Particionar Saldo", description = "Reparte el disponible de un banco de alto volumen en N particiones (1 desactiva el modo).")
+    public ResponseEntity<CuentaDTO> configurarParticiones(@PathVariable String bic, @RequestParam int cantidad) {
+        return ResponseEntity.ok(service.configurarParticiones(bic, cantidad));
+    }
+
     @GetMapping("/available/{bic}/{monto}")
     @Operation(summary = "Verificar Disponibilidad", description = "Check booleano de fondos suficientes.")
     public ResponseEntity<Map<String, Object>> verificarSaldo(@PathVariable String bic,
-            @PathVariable BigDecimal monto) {
+            @PathVariable Dinero monto) {
         boolean disponible = service.verificarSaldo(bic, monto);
         return ResponseEntity.ok(Map.of(
                 "bic", bic,
@@ -0,0 +1,24 @@
+package com.switchbank.mscontabilidad.dto;
+
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import lombok.Builder;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+public class ConciliacionDTO {
+    private String codigoBic;
+    private Long secuenciaSnapshot;
+    private Long secuenciaActual;
+    private long movimientosReproducidos;
+    // Saldo contable = disponible + bloqueados (particiones incluidas)
+    private Dinero saldoContableSnapshot;
+    private Dinero saldoContableCalculado;
+    private Dinero saldoContableRegistrado;
+    private boolean cadenaValida;
+    private boolean conciliada;
+    private boolean snapshotRegistrado;
+    private String detalle;
+    private LocalDateTime fecha;
+}
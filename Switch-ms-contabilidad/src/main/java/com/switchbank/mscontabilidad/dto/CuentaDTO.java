@@ -1,8 +1,9 @@
 package com.switchbank.mscontabilidad.dto;
 
+import com.switchbank.mscontabilidad.modelo.Dinero;
 import lombok.Builder;
 import lombok.Data;
-import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Data
@@ -10,6 +11,7 @@ import java.util.UUID;
 public class CuentaDTO {
     private UUID id;
     private String codigoBic;
-    private BigDecimal saldoDisponible;
+    private Dinero saldoDisponible;
     private String firmaIntegridad;
+    private LocalDateTime ultimaConciliacion;
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.switchbank.mscontabilidad.dto;
+
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import lombok.Builder;
+import lombok.Data;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@Builder
+public class DiscrepanciaDTO {
+
+    public enum Tipo {
+        RETENCION_FALTANTE,
+        DETALLE_COMPENSACION_FALTANTE,
+        MONTO_DISTINTO,
+        REVERSO_HUERFANO,
+        // Registro en Contabilidad o Compensación sin transacción en Núcleo
+        TRANSACCION_FALTANTE,
+        // La retención no terminó como corresponde al estado final de la transacción
+        ESTADO_RETENCION_INCONSISTENTE
+    }
+
+    private UUID idInstruccion;
+    private Tipo tipo;
+    private String detalle;
+    private String estadoNucleo;
+    private Dinero montoNucleo;
+    private Dinero montoContabilidad;
+    private Dinero montoCompensacion;
+    private LocalDateTime fecha;
+}
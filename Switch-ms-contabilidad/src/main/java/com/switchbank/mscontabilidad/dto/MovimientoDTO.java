@@ -1,8 +1,8 @@
 package com.switchbank.mscontabilidad.dto;
 
+import com.switchbank.mscontabilidad.modelo.Dinero;
 import lombok.Builder;
 import lombok.Data;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.UUID;
 
@@ -12,8 +12,8 @@ public class MovimientoDTO {
     private Long id;
     private UUID idInstruccion;
     private String tipo;
-    private BigDecimal monto;
-    private BigDecimal saldoResultante;
+    private Dinero monto;
+    private Dinero saldoResultante;
     private LocalDateTime fechaRegistro;
     private UUID referenciaId;
     private String codigoBicCuenta;
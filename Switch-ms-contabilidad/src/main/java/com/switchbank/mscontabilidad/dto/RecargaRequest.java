@@ -1,12 +1,12 @@
 package com.switchbank.mscontabilidad.dto;
 
+import com.switchbank.mscontabilidad.modelo.Dinero;
 import lombok.Data;
-import java.math.BigDecimal;
 import java.util.UUID;
 
 @Data
 public class RecargaRequest {
     private String bic;
-    private BigDecimal monto;
+    private Dinero monto;
     private UUID idInstruccion;
 }
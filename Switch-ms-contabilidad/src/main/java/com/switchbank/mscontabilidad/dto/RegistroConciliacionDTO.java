@@ -0,0 +1,30 @@
+package com.switchbank.mscontabilidad.dto;
+
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Registro de cualquiera de los tres lados de la conciliación, ya expresado
+ * en la instrucción a la que pertenece (la original en los reversos). Es
+ * también el formato de los extractos NDJSON de Núcleo y Compensación.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RegistroConciliacionDTO {
+    private UUID idInstruccion;
+    // RETENCION, tipo de movimiento o tipo de operación de compensación; null en Núcleo
+    private String tipo;
+    private Dinero monto;
+    // Estado de la transacción en Núcleo o de la retención
+    private String estado;
+    private LocalDateTime fecha;
+
+    public RegistroConciliacionDTO(UUID idInstruccion, String tipo, Dinero monto, LocalDateTime fecha) {
+        this(idInstruccion, tipo, monto, null, fecha);
+    }
+}
@@ -1,13 +1,13 @@
 package com.switchbank.mscontabilidad.dto;
 
+import com.switchbank.mscontabilidad.modelo.Dinero;
 import lombok.Data;
-import java.math.BigDecimal;
 import java.util.UUID;
 
 @Data
 public class RegistroMovimientoRequest {
     private String codigoBic;
     private UUID idInstruccion;
-    private BigDecimal monto;
+    private Dinero monto;
     private String tipo;
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package com.switchbank.mscontabilidad.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import java.util.UUID;
+
+@Data
+@Builder
+public class ResultadoMovimientoDTO {
+    private int indice;
+    private UUID idInstruccion;
+    private boolean exitoso;
+    private CuentaDTO cuenta;
+    private String error;
+}
@@ -0,0 +1,20 @@
+package com.switchbank.mscontabilidad.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+@Data
+@Builder
+public class ResumenConciliacionTresViasDTO {
+    private LocalDateTime desde;
+    private LocalDateTime hasta;
+    private long transaccionesNucleo;
+    private long registrosContabilidad;
+    private long registrosCompensacion;
+    private long instrucciones;
+    private long discrepancias;
+    private Map<DiscrepanciaDTO.Tipo, Long> porTipo;
+    private long duracionMs;
+}
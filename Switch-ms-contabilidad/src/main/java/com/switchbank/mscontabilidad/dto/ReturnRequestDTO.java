@@ -1,9 +1,9 @@
 package com.switchbank.mscontabilidad.dto;
 
+import com.switchbank.mscontabilidad.modelo.Dinero;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
-import java.math.BigDecimal;
 
 @Data
 @NoArgsConstructor
@@ -36,6 +36,6 @@ public class ReturnRequestDTO {
     @AllArgsConstructor
     public static class Amount {
         private String currency;
-        private BigDecimal value;
+        private Dinero value;
     }
 }
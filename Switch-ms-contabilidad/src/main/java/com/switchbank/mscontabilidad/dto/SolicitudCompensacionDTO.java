@@ -1,8 +1,9 @@
 package com.switchbank.mscontabilidad.dto;
 
+import com.switchbank.mscontabilidad.modelo.Dinero;
 import lombok.Data;
-import java.math.BigDecimal;
 import java.util.List;
+import java.util.UUID;
 
 @Data
 public class SolicitudCompensacionDTO {
@@ -12,8 +13,9 @@ public class SolicitudCompensacionDTO {
     @Data
     public static class PosicionBancariaDTO {
         private String bic;
-        private BigDecimal totalDebitos; // Lo que el banco envió (y se reservó)
-        private BigDecimal totalCreditos; // Lo que el banco recibió
-        private BigDecimal posicionNeta; // El resultado final (+/-)
+        private Dinero totalDebitos; // Lo que el banco envió (y se reservó)
+        private Dinero totalCreditos; // Lo que el banco recibió
+        private Dinero posicionNeta; // El resultado final (+/-)
+        private List<UUID> instrucciones; // idInstruccion de los PAGO del banco incluidos en el ciclo
     }
 }
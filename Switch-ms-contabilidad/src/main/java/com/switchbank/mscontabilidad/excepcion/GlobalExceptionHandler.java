@@ -8,6 +8,7 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 @Slf4j
 @RestControllerAdvice
@@ -44,7 +45,7 @@ public class GlobalExceptionHandler {
         ErrorDTO error = ErrorDTO.builder()
                 .codigo(codigo)
                 .mensaje(mensaje)
-                .fecha(LocalDateTime.now())
+                .fecha(LocalDateTime.now(ZoneOffset.UTC))
                 .path(request.getRequestURI())
                 .build();
         return new ResponseEntity<>(error, status);
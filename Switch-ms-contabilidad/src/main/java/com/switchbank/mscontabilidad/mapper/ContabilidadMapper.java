@@ -20,6 +20,7 @@ public class ContabilidadMapper {
                 .codigoBic(entidad.getCodigoBic())
                 .saldoDisponible(entidad.getSaldoDisponible())
                 .firmaIntegridad(entidad.getFirmaIntegridad())
+                .ultimaConciliacion(entidad.getUltimaConciliacion())
                 .build();
     }
 
@@ -1,14 +1,15 @@
 package com.switchbank.mscontabilidad.modelo;
 
+import com.switchbank.mscontabilidad.servicio.ProyeccionSaldosListener;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Entity
 @Table(name = "CuentaTecnica")
+@EntityListeners(ProyeccionSaldosListener.class)
 @Getter
 @Setter
 public class CuentaTecnica {
@@ -22,14 +23,39 @@ public class CuentaTecnica {
     private String codigoBic;
 
     @Column(name = "saldoDisponible", nullable = false, precision = 18, scale = 2)
-    private BigDecimal saldoDisponible;
+    private Dinero saldoDisponible;
 
     @Column(name = "fondosBloqueados", nullable = false, precision = 18, scale = 2)
-    private BigDecimal fondosBloqueados = BigDecimal.ZERO;
+    private Dinero fondosBloqueados = Dinero.CERO;
 
+    // Cabeza de la cadena HMAC de movimientos (hashCadena del último movimiento)
     @Column(name = "firmaIntegridad", nullable = false)
     private String firmaIntegridad;
 
+    // Número de movimientos encadenados; secuenciaCuenta del último movimiento
+    @Column(name = "secuenciaCadena")
+    private Long secuenciaCadena = 0L;
+
+    // Checkpoint del verificador de integridad (IntegridadLedgerServicio). Sólo lo escriben las
+    // consultas de CuentaTecnicaRepository, así las escrituras de saldo nunca lo pisan
+    @Column(name = "secuenciaVerificada", insertable = false, updatable = false)
+    private Long secuenciaVerificada;
+
+    @Column(name = "hashVerificado", insertable = false, updatable = false)
+    private String hashVerificado;
+
+    @Column(name = "integridadComprometida", insertable = false, updatable = false)
+    private Boolean integridadComprometida;
+
+    // Saldo particionado: número de filas SaldoParticion (null o 0 = modo normal, una sola fila)
+    @Column(name = "particionesSaldo")
+    private Integer particionesSaldo;
+
+    // Sube con cada escritura confirmada; ordena las actualizaciones de la proyección de saldos
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
     // Campo agregado para cumplir con especificación DNS
     @Column(name = "ultimaConciliacion")
     private LocalDateTime ultimaConciliacion;
@@ -37,11 +63,19 @@ public class CuentaTecnica {
     public CuentaTecnica() {
     }
 
+    public boolean isIntegridadComprometida() {
+        return Boolean.TRUE.equals(integridadComprometida);
+    }
+
+    public boolean isParticionada() {
+        return particionesSaldo != null && particionesSaldo > 1;
+    }
+
     public CuentaTecnica(String codigoBic) {
         this.codigoBic = codigoBic;
 
-        this.saldoDisponible = BigDecimal.ZERO.setScale(2, java.math.RoundingMode.HALF_UP);
-        this.fondosBloqueados = BigDecimal.ZERO.setScale(2, java.math.RoundingMode.HALF_UP);
+        this.saldoDisponible = Dinero.CERO;
+        this.fondosBloqueados = Dinero.CERO;
         this.firmaIntegridad = "INITIAL_HASH";
     }
 }
\ No newline at end of file
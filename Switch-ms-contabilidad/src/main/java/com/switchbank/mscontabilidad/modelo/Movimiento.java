@@ -3,18 +3,26 @@ package com.switchbank.mscontabilidad.modelo;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.UUID;
 
 @Entity
-@Table(name = "Movimiento")
+@Table(name = "Movimiento", uniqueConstraints = {
+        // Un eslabón por posición: dos escrituras concurrentes no pueden bifurcar la cadena
+        @UniqueConstraint(name = "uk_movimiento_cadena", columnNames = { "idCuenta", "secuenciaCuenta" })
+}, indexes = {
+        // Keysets de la exportación por rango y del estado de cuenta
+        @Index(name = "idx_movimiento_fecha", columnList = "fechaRegistro, id"),
+        @Index(name = "idx_movimiento_cuenta_fecha", columnList = "idCuenta, fechaRegistro, id")
+})
 @Getter
 @Setter
 public class Movimiento {
 
+    // Secuencia con pool (allocationSize = INCREMENT BY de movimiento_seq) para que los INSERT vayan en batch JDBC
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "movimiento_seq")
+    @SequenceGenerator(name = "movimiento_seq", sequenceName = "movimiento_seq", allocationSize = 50)
     @Column(name = "id")
     private Long id;
 
@@ -31,10 +39,10 @@ public class Movimiento {
     private TipoMovimiento tipo;
 
     @Column(name = "monto", nullable = false, precision = 18, scale = 2)
-    private BigDecimal monto;
+    private Dinero monto;
 
     @Column(name = "saldoResultante", nullable = false, precision = 18, scale = 2)
-    private BigDecimal saldoResultante;
+    private Dinero saldoResultante;
 
     @Column(name = "fechaRegistro", nullable = false)
     private LocalDateTime fechaRegistro;
@@ -42,6 +50,19 @@ public class Movimiento {
     @Column(name = "referenciaId")
     private UUID referenciaId;
 
+    // Posición en la cadena de integridad de la cuenta (1..n)
+    @Column(name = "secuenciaCuenta")
+    private Long secuenciaCuenta;
+
+    // Cambio firmado en disponible + bloqueados; la conciliación lo suma desde el último snapshot.
+    // monto no basta: en SETTLEMENT guarda el neto en valor absoluto
+    @Column(name = "efectoContable", precision = 18, scale = 2)
+    private Dinero efectoContable;
+
+    // HMAC-SHA256 (Base64) de este movimiento encadenado con el anterior
+    @Column(name = "hashCadena", length = 44)
+    private String hashCadena;
+
     public Movimiento() {
     }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.switchbank.mscontabilidad.modelo;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Fondos bloqueados por una instrucción concreta. Mientras está ACTIVA puede
+ * capturarse (el pago siguió adelante y se liquida al cierre del ciclo) o
+ * liberarse; si nadie la resuelve antes de fechaExpiracion, el barrido la
+ * libera. La liquidación del ciclo que incluye la instrucción desbloquea sus
+ * fondos y la deja LIQUIDADA.
+ */
+@Entity
+@Table(name = "RetencionFondos", indexes = {
+        @Index(name = "idx_retencion_estado_expiracion", columnList = "estado, fechaExpiracion"),
+        @Index(name = "idx_retencion_fecha_creacion", columnList = "fechaCreacion")
+})
+@Getter
+@Setter
+public class RetencionFondos {
+
+    @Id
+    @Column(name = "idInstruccion")
+    private UUID idInstruccion;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "idCuenta", nullable = false)
+    private CuentaTecnica cuenta;
+
+    @Column(name = "monto", nullable = false, precision = 18, scale = 2)
+    private Dinero monto;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "estado", nullable = false, length = 10)
+    private EstadoRetencion estado;
+
+    @Column(name = "fechaCreacion", nullable = false)
+    private LocalDateTime fechaCreacion;
+
+    @Column(name = "fechaExpiracion", nullable = false)
+    private LocalDateTime fechaExpiracion;
+
+    @Column(name = "fechaResolucion")
+    private LocalDateTime fechaResolucion;
+
+    public RetencionFondos() {
+    }
+
+    public static RetencionFondos activa(CuentaTecnica cuenta, UUID idInstruccion, Dinero monto,
+            LocalDateTime ahora, LocalDateTime expira) {
+        RetencionFondos r = new RetencionFondos();
+        r.setIdInstruccion(idInstruccion);
+        r.setCuenta(cuenta);
+        r.setMonto(monto);
+        r.setEstado(EstadoRetencion.ACTIVA);
+        r.setFechaCreacion(ahora);
+        r.setFechaExpiracion(expira);
+        return r;
+    }
+}
@@ -0,0 +1,45 @@
+package com.switchbank.mscontabilidad.modelo;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Fracción del saldo de una cuenta con saldo particionado. Las reservas de un
+ * banco de alto volumen se reparten entre estas filas en lugar de competir
+ * todas por la fila de {@link CuentaTecnica}.
+ */
+@Entity
+@Table(name = "SaldoParticion", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_saldo_particion", columnNames = { "idCuenta", "numeroParticion" })
+})
+@Getter
+@Setter
+public class SaldoParticion {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "saldo_particion_seq")
+    @SequenceGenerator(name = "saldo_particion_seq", sequenceName = "saldo_particion_seq", allocationSize = 50)
+    @Column(name = "id")
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "idCuenta", nullable = false)
+    private CuentaTecnica cuenta;
+
+    @Column(name = "numeroParticion", nullable = false)
+    private Integer numeroParticion;
+
+    @Column(name = "saldoDisponible", nullable = false, precision = 18, scale = 2)
+    private Dinero saldoDisponible = Dinero.CERO;
+
+    @Column(name = "fondosBloqueados", nullable = false, precision = 18, scale = 2)
+    private Dinero fondosBloqueados = Dinero.CERO;
+
+    // HMAC de la partición (cuenta, número, saldos); se renueva en cada escritura
+    @Column(name = "firmaIntegridad", nullable = false, length = 44)
+    private String firmaIntegridad;
+
+    public SaldoParticion() {
+    }
+}
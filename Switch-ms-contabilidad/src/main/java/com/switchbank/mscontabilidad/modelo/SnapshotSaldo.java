@@ -0,0 +1,58 @@
+package com.switchbank.mscontabilidad.modelo;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import java.time.LocalDateTime;
+
+/**
+ * Foto del saldo de una cuenta en una posición de su cadena de movimientos.
+ * La conciliación parte del último snapshot y sólo reproduce los movimientos
+ * con secuenciaCuenta posterior a {@link #secuenciaCadena}.
+ */
+@Entity
+@Table(name = "SnapshotSaldo", indexes = {
+        @Index(name = "idx_snapshot_cuenta_secuencia", columnList = "idCuenta, secuenciaCadena")
+})
+@Getter
+@Setter
+public class SnapshotSaldo {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "snapshot_saldo_seq")
+    @SequenceGenerator(name = "snapshot_saldo_seq", sequenceName = "snapshot_saldo_seq", allocationSize = 50)
+    @Column(name = "id")
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "idCuenta", nullable = false)
+    private CuentaTecnica cuenta;
+
+    // Totales de la cuenta, particiones incluidas
+    @Column(name = "saldoDisponible", nullable = false, precision = 18, scale = 2)
+    private Dinero saldoDisponible;
+
+    @Column(name = "fondosBloqueados", nullable = false, precision = 18, scale = 2)
+    private Dinero fondosBloqueados;
+
+    // Cabeza de la cadena HMAC y su posición al tomar la foto
+    @Column(name = "firmaCadena", nullable = false)
+    private String firmaCadena;
+
+    @Column(name = "secuenciaCadena", nullable = false)
+    private Long secuenciaCadena;
+
+    @Column(name = "ultimoMovimientoId")
+    private Long ultimoMovimientoId;
+
+    // false en el primer snapshot de una cuenta: se toma sin reproducir el historial previo
+    @Column(name = "conciliado", nullable = false)
+    private boolean conciliado;
+
+    @Column(name = "fechaSnapshot", nullable = false)
+    private LocalDateTime fechaSnapshot;
+
+    public Dinero getSaldoContable() {
+        return saldoDisponible.mas(fondosBloqueados);
+    }
+}
@@ -2,12 +2,41 @@ package com.switchbank.mscontabilidad.repositorio;
 
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
 
+import jakarta.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 public interface CuentaTecnicaRepository extends JpaRepository<CuentaTecnica, UUID> {
     Optional<CuentaTecnica> findByCodigoBic(String codigoBic);
-}
\ No newline at end of file
+
+    // FOR UPDATE: serializa las escrituras de la cuenta (saldo y cadena de integridad)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM CuentaTecnica c WHERE c.codigoBic = :codigoBic")
+    Optional<CuentaTecnica> findByCodigoBicParaActualizar(@Param("codigoBic") String codigoBic);
+
+    // Una sola consulta FOR UPDATE; el orden por BIC evita deadlocks entre lotes y liquidaciones concurrentes
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM CuentaTecnica c WHERE c.codigoBic IN :bics ORDER BY c.codigoBic")
+    List<CuentaTecnica> findByCodigoBicInParaActualizar(@Param("bics") Collection<String> bics);
+
+    @Query("SELECT c.codigoBic FROM CuentaTecnica c WHERE c.particionesSaldo > 1")
+    List<String> findBicsParticionados();
+
+    // Checkpoint del verificador de integridad. UPDATE directo: no sube version ni pasa por la entidad
+    @Modifying
+    @Query("UPDATE CuentaTecnica c SET c.secuenciaVerificada = :secuencia, c.hashVerificado = :hash WHERE c.id = :id")
+    int guardarVerificacion(@Param("id") UUID id, @Param("secuencia") long secuencia, @Param("hash") String hash);
+
+    @Modifying
+    @Query("UPDATE CuentaTecnica c SET c.integridadComprometida = true WHERE c.id = :id")
+    int marcarComprometida(@Param("id") UUID id);
+}
@@ -1,11 +1,19 @@
 package com.switchbank.mscontabilidad.repositorio;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import com.switchbank.mscontabilidad.dto.RegistroConciliacionDTO;
 import com.switchbank.mscontabilidad.modelo.Movimiento;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface MovimientoRepository extends JpaRepository<Movimiento, Long> {
     List<Movimiento> findByCuentaId(UUID idCuenta);
@@ -14,5 +22,37 @@ public interface MovimientoRepository extends JpaRepository<Movimiento, Long> {
 
     List<Movimiento> findByFechaRegistroBetween(java.time.LocalDateTime start, java.time.LocalDateTime end);
 
+    // Keyset sobre (fechaRegistro, id) para exportar rangos largos página a página (idx_movimiento_fecha)
+    @Query("SELECT m FROM Movimiento m JOIN FETCH m.cuenta"
+            + " WHERE m.fechaRegistro <= :fin"
+            + " AND (m.fechaRegistro > :desdeFecha OR (m.fechaRegistro = :desdeFecha AND m.id > :desdeId))"
+            + " ORDER BY m.fechaRegistro, m.id")
+    List<Movimiento> findPaginaPorRango(@Param("desdeFecha") java.time.LocalDateTime desdeFecha,
+            @Param("desdeId") Long desdeId, @Param("fin") java.time.LocalDateTime fin, Pageable pageable);
+
+    // Igual que findPaginaPorRango pero de una sola cuenta (idx_movimiento_cuenta_fecha)
+    @Query("SELECT m FROM Movimiento m JOIN FETCH m.cuenta WHERE m.cuenta.id = :idCuenta"
+            + " AND m.fechaRegistro <= :fin"
+            + " AND (m.fechaRegistro > :desdeFecha OR (m.fechaRegistro = :desdeFecha AND m.id > :desdeId))"
+            + " ORDER BY m.fechaRegistro, m.id")
+    List<Movimiento> findPaginaPorCuenta(@Param("idCuenta") UUID idCuenta,
+            @Param("desdeFecha") java.time.LocalDateTime desdeFecha, @Param("desdeId") Long desdeId,
+            @Param("fin") java.time.LocalDateTime fin, Pageable pageable);
+
+    List<Movimiento> findByCuentaIdAndSecuenciaCuentaBetweenOrderBySecuenciaCuentaAsc(UUID idCuenta, Long desde,
+            Long hasta, Pageable pageable);
+
     boolean existsByTipoAndReferenciaId(com.switchbank.mscontabilidad.modelo.TipoMovimiento tipo, UUID referenciaId);
-}
\ No newline at end of file
+
+    // Conciliación de tres vías: movimientos de transacciones (no recargas ni liquidaciones) por la instrucción
+    // a la que pertenecen; un reverso cuenta para la original (referenciaId)
+    @Query("SELECT new com.switchbank.mscontabilidad.dto.RegistroConciliacionDTO("
+            + "CASE WHEN m.tipo = 'REVERSAL' AND m.referenciaId IS NOT NULL THEN m.referenciaId ELSE m.idInstruccion END,"
+            + " CAST(m.tipo AS String), m.monto, m.fechaRegistro) FROM Movimiento m"
+            + " WHERE m.tipo IN ('CREDIT', 'DEBIT', 'REVERSAL')"
+            + " AND m.fechaRegistro >= :desde AND m.fechaRegistro < :hasta"
+            + " ORDER BY CASE WHEN m.tipo = 'REVERSAL' AND m.referenciaId IS NOT NULL THEN m.referenciaId ELSE m.idInstruccion END")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    Stream<RegistroConciliacionDTO> streamParaConciliacion(@Param("desde") java.time.LocalDateTime desde,
+            @Param("hasta") java.time.LocalDateTime hasta);
+}
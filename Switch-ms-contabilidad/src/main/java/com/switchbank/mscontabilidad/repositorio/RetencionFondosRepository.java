@@ -0,0 +1,47 @@
+package com.switchbank.mscontabilidad.repositorio;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.switchbank.mscontabilidad.dto.RegistroConciliacionDTO;
+import com.switchbank.mscontabilidad.modelo.RetencionFondos;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+public interface RetencionFondosRepository extends JpaRepository<RetencionFondos, UUID> {
+
+    // Recorre idx_retencion_estado_expiracion; la cuenta viene en la misma consulta para enrutar al motor
+    @Query("SELECT r FROM RetencionFondos r JOIN FETCH r.cuenta WHERE r.estado = 'ACTIVA'"
+            + " AND r.fechaExpiracion <= :ahora ORDER BY r.fechaExpiracion")
+    List<RetencionFondos> findExpiradas(@Param("ahora") LocalDateTime ahora, Pageable pageable);
+
+    @Query("SELECT r FROM RetencionFondos r JOIN FETCH r.cuenta WHERE r.idInstruccion = :idInstruccion")
+    java.util.Optional<RetencionFondos> findConCuenta(@Param("idInstruccion") UUID idInstruccion);
+
+    // Liquidación del ciclo: sólo las retenciones capturadas de sus instrucciones siguen bloqueadas a su cuenta
+    @Query("SELECT r FROM RetencionFondos r WHERE r.cuenta.id = :idCuenta AND r.idInstruccion IN :instrucciones"
+            + " AND r.estado = 'CAPTURADA'")
+    List<RetencionFondos> findCapturadas(@Param("idCuenta") UUID idCuenta,
+            @Param("instrucciones") Collection<UUID> instrucciones);
+
+    // Solicitudes sin la lista de instrucciones (clientes anteriores): todo lo capturado de la cuenta
+    @Query("SELECT r FROM RetencionFondos r WHERE r.cuenta.id = :idCuenta AND r.estado = 'CAPTURADA'")
+    List<RetencionFondos> findCapturadasDeCuenta(@Param("idCuenta") UUID idCuenta);
+
+    // Conciliación de tres vías: retenciones de la ventana por idInstruccion, con cursor y sin entidades
+    @Query("SELECT new com.switchbank.mscontabilidad.dto.RegistroConciliacionDTO(r.idInstruccion, 'RETENCION',"
+            + " r.monto, CAST(r.estado AS String), r.fechaCreacion) FROM RetencionFondos r"
+            + " WHERE r.fechaCreacion >= :desde AND r.fechaCreacion < :hasta ORDER BY r.idInstruccion")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    Stream<RegistroConciliacionDTO> streamParaConciliacion(@Param("desde") LocalDateTime desde,
+            @Param("hasta") LocalDateTime hasta);
+}
@@ -0,0 +1,43 @@
+package com.switchbank.mscontabilidad.repositorio;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import com.switchbank.mscontabilidad.modelo.SaldoParticion;
+
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface SaldoParticionRepository extends JpaRepository<SaldoParticion, Long> {
+
+    // Sólo ids: la entidad se carga después con su bloqueo, nunca desde una lectura previa sin bloquear
+    @Query("SELECT p.id FROM SaldoParticion p WHERE p.cuenta.id = :idCuenta ORDER BY p.numeroParticion")
+    List<Long> findIdsByCuenta(@Param("idCuenta") UUID idCuenta);
+
+    // Nativas: el SUM de una columna con converter no tiene tipo de dominio; se devuelve NUMERIC tal cual
+    @Query(value = "SELECT COALESCE(SUM(saldoDisponible), 0) FROM SaldoParticion WHERE idCuenta = :idCuenta",
+            nativeQuery = true)
+    BigDecimal sumarSaldoDisponible(@Param("idCuenta") UUID idCuenta);
+
+    @Query(value = "SELECT COALESCE(SUM(fondosBloqueados), 0) FROM SaldoParticion WHERE idCuenta = :idCuenta",
+            nativeQuery = true)
+    BigDecimal sumarFondosBloqueados(@Param("idCuenta") UUID idCuenta);
+
+    // Todas las particiones FOR UPDATE en orden de número (mismo orden en todos los caminos que esperan)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT p FROM SaldoParticion p WHERE p.cuenta.id = :idCuenta ORDER BY p.numeroParticion")
+    List<SaldoParticion> findParaActualizar(@Param("idCuenta") UUID idCuenta);
+
+    // FOR UPDATE SKIP LOCKED: si otra reserva tiene la partición, se pasa a la siguiente sin esperar
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT p FROM SaldoParticion p WHERE p.id = :id")
+    Optional<SaldoParticion> findByIdSinEspera(@Param("id") Long id);
+}
@@ -0,0 +1,14 @@
+package com.switchbank.mscontabilidad.repositorio;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.switchbank.mscontabilidad.modelo.SnapshotSaldo;
+
+import java.util.Optional;
+import java.util.UUID;
+
+public interface SnapshotSaldoRepository extends JpaRepository<SnapshotSaldo, Long> {
+
+    // Ancla de la conciliación: el snapshot más avanzado en la cadena (idx_snapshot_cuenta_secuencia)
+    Optional<SnapshotSaldo> findFirstByCuentaIdOrderBySecuenciaCadenaDescIdDesc(UUID idCuenta);
+}
@@ -0,0 +1,43 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Devuelve al disponible las retenciones que nadie capturó ni liberó antes de
+ * su expiración (p.ej. pagos que murieron a medio camino), en lotes.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BarridoRetencionesPlanificador {
+
+    private static final int MAX_LOTES_POR_PASADA = 20;
+
+    private final ContabilidadServicio contabilidadServicio;
+
+    @Value("${contabilidad.retenciones.lote-barrido:500}")
+    private int loteBarrido;
+
+    @Scheduled(fixedDelayString = "${contabilidad.retenciones.barrido-ms:5000}")
+    public void liberarExpiradas() {
+        try {
+            int total = 0;
+            for (int i = 0; i < MAX_LOTES_POR_PASADA; i++) {
+                int encontradas = contabilidadServicio.liberarRetencionesExpiradas(loteBarrido);
+                total += encontradas;
+                if (encontradas < loteBarrido) {
+                    break;
+                }
+            }
+            if (total > 0) {
+                log.info("Barrido de retenciones: {} retenciones expiradas liberadas", total);
+            }
+        } catch (Exception e) {
+            log.error("Error en el barrido de retenciones: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.dto.ConciliacionDTO;
+import com.switchbank.mscontabilidad.mapper.ContabilidadMapper;
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import com.switchbank.mscontabilidad.modelo.Movimiento;
+import com.switchbank.mscontabilidad.modelo.SnapshotSaldo;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+import com.switchbank.mscontabilidad.repositorio.MovimientoRepository;
+import com.switchbank.mscontabilidad.repositorio.SaldoParticionRepository;
+import com.switchbank.mscontabilidad.repositorio.SnapshotSaldoRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Snapshots de saldo y conciliación por reproducción de movimientos.
+ *
+ * Las retenciones mueven fondos entre disponible y bloqueados sin dejar
+ * movimiento, así que lo que se concilia es el saldo contable (disponible +
+ * bloqueados, particiones incluidas): sólo cambia con movimientos. Partiendo
+ * del último snapshot se recorren los movimientos posteriores en orden de
+ * cadena, comprobando cada eslabón HMAC y sumando su efecto contable; el
+ * resultado debe coincidir con lo registrado en la cuenta.
+ *
+ * La lectura se hace en una transacción REPEATABLE READ (una sola foto de
+ * PostgreSQL para cuenta, particiones y movimientos) sin bloquear la cuenta.
+ * Si cuadra, el snapshot nuevo y {@code ultimaConciliacion} se escriben a
+ * través del motor.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConciliacionSaldosServicio {
+
+    private static final int LOTE_REPRODUCCION = 1000;
+
+    private final CuentaTecnicaRepository cuentaRepo;
+    private final MovimientoRepository movimientoRepo;
+    private final SaldoParticionRepository particionRepo;
+    private final SnapshotSaldoRepository snapshotRepo;
+    private final IntegridadLedgerServicio integridad;
+    private final MotorLedger motor;
+    private final ContabilidadMapper mapper;
+    private final PlatformTransactionManager transactionManager;
+    private final EntityManager entityManager;
+
+    private TransactionTemplate lecturaConsistente;
+
+    // Estado de la cuenta en la foto leída; es lo que se guarda como snapshot
+    private record Estado(UUID idCuenta, Dinero saldoDisponible, Dinero fondosBloqueados, String cabeza,
+            long secuencia, Long ultimoMovimientoId) {
+    }
+
+    private record Reproduccion(ConciliacionDTO.ConciliacionDTOBuilder resultado, Estado estado, boolean inicial,
+            boolean conciliada) {
+    }
+
+    @PostConstruct
+    void iniciar() {
+        this.lecturaConsistente = new TransactionTemplate(transactionManager);
+        lecturaConsistente.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        lecturaConsistente.setReadOnly(true);
+    }
+
+    /**
+     * Concilia la cuenta desde su último snapshot. Con {@code registrar}, si
+     * cuadra (o si la cuenta aún no tenía snapshot) deja un snapshot nuevo como
+     * punto de partida de la próxima conciliación.
+     */
+    public ConciliacionDTO conciliar(String bic, boolean registrar) {
+        Reproduccion r = lecturaConsistente.execute(status -> reproducir(bic));
+        LocalDateTime fecha = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MICROS);
+
+        boolean registrado = false;
+        if (registrar && (r.conciliada() || r.inicial())) {
+            registrarSnapshot(bic, r.estado(), r.conciliada(), fecha);
+            registrado = true;
+        }
+        return r.resultado().snapshotRegistrado(registrado).fecha(fecha).build();
+    }
+
+    private Reproduccion reproducir(String bic) {
+        CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(bic)
+                .orElseThrow(() -> new RuntimeException("Cuenta no encontrada para BIC: " + bic));
+        UUID idCuenta = cuenta.getId();
+        long secuenciaActual = cuenta.getSecuenciaCadena() != null ? cuenta.getSecuenciaCadena() : 0;
+        String cabezaActual = cuenta.getFirmaIntegridad();
+        Dinero disponible = cuenta.getSaldoDisponible();
+        Dinero bloqueados = cuenta.getFondosBloqueados();
+        if (cuenta.isParticionada()) {
+            disponible = disponible.mas(Dinero.de(particionRepo.sumarSaldoDisponible(idCuenta)));
+            bloqueados = bloqueados.mas(Dinero.de(particionRepo.sumarFondosBloqueados(idCuenta)));
+        }
+        Dinero registrado = disponible.mas(bloqueados);
+
+        ConciliacionDTO.ConciliacionDTOBuilder resultado = ConciliacionDTO.builder()
+                .codigoBic(bic)
+                .secuenciaActual(secuenciaActual)
+                .saldoContableRegistrado(registrado);
+
+        Optional<SnapshotSaldo> ancla = snapshotRepo.findFirstByCuentaIdOrderBySecuenciaCadenaDescIdDesc(idCuenta);
+        if (ancla.isEmpty()) {
+            Estado estado = new Estado(idCuenta, disponible, bloqueados, cabezaActual, secuenciaActual,
+                    ultimoMovimiento(idCuenta, secuenciaActual));
+            resultado.detalle("Sin snapshot previo: se toma el inicial sin reproducir el historial");
+            return new Reproduccion(resultado, estado, true, false);
+        }
+
+        SnapshotSaldo snapshot = ancla.get();
+        long posicion = snapshot.getSecuenciaCadena();
+        String anterior = integridad.eslabonEn(idCuenta, posicion, snapshot.getFirmaCadena());
+        Dinero contable = snapshot.getSaldoContable();
+        Long ultimoMovimientoId = snapshot.getUltimoMovimientoId();
+        long reproducidos = 0;
+        String motivo = secuenciaActual < posicion ? "la cadena retrocedió por detrás del snapshot" : null;
+
+        resultado.secuenciaSnapshot(posicion).saldoContableSnapshot(contable);
+
+        while (motivo == null && posicion < secuenciaActual) {
+            List<Movimiento> lote = movimientoRepo.findByCuentaIdAndSecuenciaCuentaBetweenOrderBySecuenciaCuentaAsc(
+                    idCuenta, posicion + 1, secuenciaActual, PageRequest.of(0, LOTE_REPRODUCCION));
+            if (lote.isEmpty()) {
+                motivo = "faltan movimientos desde " + (posicion + 1);
+                break;
+            }
+            for (Movimiento m : lote) {
+                if (m.getSecuenciaCuenta() != posicion + 1) {
+                    motivo = "falta el eslabón " + (posicion + 1);
+                    break;
+                }
+                if (!integridad.eslabonValido(anterior, idCuenta, m)) {
+                    motivo = "movimiento " + m.getId() + " alterado";
+                    break;
+                }
+                Dinero efecto = efectoContable(m);
+                if (efecto == null) {
+                    motivo = "movimiento " + m.getId() + " con efecto contable incoherente con su tipo y monto";
+                    break;
+                }
+                contable = contable.mas(efecto);
+                anterior = m.getHashCadena();
+                posicion = m.getSecuenciaCuenta();
+                ultimoMovimientoId = m.getId();
+                reproducidos++;
+            }
+            // Los movimientos ya sumados no se vuelven a usar; la memoria queda acotada al lote
+            entityManager.clear();
+        }
+
+        boolean cadenaValida = motivo == null && (secuenciaActual == 0 || anterior.equals(cabezaActual));
+        if (motivo == null && !cadenaValida) {
+            motivo = "la cabeza de la cuenta no coincide con el último movimiento";
+        }
+        boolean conciliada = cadenaValida && contable.equals(registrado);
+        if (cadenaValida && !conciliada) {
+            motivo = "descuadre: calculado " + contable + ", registrado " + registrado;
+        }
+
+        if (!conciliada) {
+            log.error("CONCILIACIÓN FALLIDA en cuenta {}: {}", bic, motivo);
+        }
+        resultado.movimientosReproducidos(reproducidos)
+                .saldoContableCalculado(contable)
+                .cadenaValida(cadenaValida)
+                .conciliada(conciliada)
+                .detalle(motivo);
+        Estado estado = new Estado(idCuenta, disponible, bloqueados, cabezaActual, secuenciaActual,
+                ultimoMovimientoId);
+        return new Reproduccion(resultado, estado, false, conciliada);
+    }
+
+    /**
+     * Efecto del movimiento en disponible + bloqueados. Se contrasta el valor
+     * guardado con su tipo y monto (que sí están en la cadena HMAC); los
+     * movimientos anteriores a la columna se derivan del tipo cuando se puede.
+     */
+    private Dinero efectoContable(Movimiento m) {
+        Dinero efecto = m.getEfectoContable();
+        Dinero esperado;
+        switch (m.getTipo()) {
+            case CREDIT, RECHARGE -> esperado = m.getMonto();
+            case DEBIT -> esperado = m.getMonto().negado();
+            default -> {
+                // REVERSAL y SETTLEMENT: el signo depende del original / del neto, el valor absoluto es el monto
+                return efecto != null && efecto.abs().equals(m.getMonto()) ? efecto : null;
+            }
+        }
+        return efecto == null || efecto.equals(esperado) ? esperado : null;
+    }
+
+    private Long ultimoMovimiento(UUID idCuenta, long secuencia) {
+        if (secuencia == 0) {
+            return null;
+        }
+        List<Movimiento> cabeza = movimientoRepo.findByCuentaIdAndSecuenciaCuentaBetweenOrderBySecuenciaCuentaAsc(
+                idCuenta, secuencia, secuencia, PageRequest.of(0, 1));
+        return cabeza.isEmpty() ? null : cabeza.get(0).getId();
+    }
+
+    private void registrarSnapshot(String bic, Estado estado, boolean conciliada, LocalDateTime fecha) {
+        motor.ejecutar(bic, cuenta -> {
+            SnapshotSaldo snapshot = new SnapshotSaldo();
+            snapshot.setCuenta(cuenta);
+            snapshot.setSaldoDisponible(estado.saldoDisponible());
+            snapshot.setFondosBloqueados(estado.fondosBloqueados());
+            snapshot.setFirmaCadena(estado.cabeza());
+            snapshot.setSecuenciaCadena(estado.secuencia());
+            snapshot.setUltimoMovimientoId(estado.ultimoMovimientoId());
+            snapshot.setConciliado(conciliada);
+            snapshot.setFechaSnapshot(fecha);
+            snapshotRepo.save(snapshot);
+
+            if (conciliada) {
+                cuenta.setUltimaConciliacion(fecha);
+            }
+            return mapper.toDTO(cuenta);
+        });
+    }
+}
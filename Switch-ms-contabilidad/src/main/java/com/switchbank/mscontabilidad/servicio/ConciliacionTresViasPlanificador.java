@@ -0,0 +1,51 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.dto.ResumenConciliacionTresViasDTO;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concilia cada día el día anterior (UTC, como las fechas del núcleo) y deja
+ * las discrepancias en el log. Corre de madrugada para que el margen de la
+ * ventana ya esté cerrado.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConciliacionTresViasPlanificador {
+
+    private final ConciliacionTresViasServicio conciliacion;
+
+    // Tope de discrepancias detalladas en el log; el resumen las cuenta todas
+    @Value("${contabilidad.conciliacion.tres-vias.max-log:1000}")
+    private long maxLog;
+
+    @Scheduled(cron = "${contabilidad.conciliacion.tres-vias.cron:0 30 2 * * *}", zone = "UTC")
+    public void conciliarDiaAnterior() {
+        LocalDateTime hasta = LocalDate.now(ZoneOffset.UTC).atStartOfDay();
+        LocalDateTime desde = hasta.minusDays(1);
+        AtomicLong registradas = new AtomicLong();
+        try {
+            ResumenConciliacionTresViasDTO resumen = conciliacion.conciliar(desde, hasta, d -> {
+                if (registradas.incrementAndGet() <= maxLog) {
+                    log.warn("Discrepancia {} en {}: {}", d.getTipo(), d.getIdInstruccion(), d.getDetalle());
+                }
+            });
+            if (resumen.getDiscrepancias() > 0) {
+                log.error("Conciliación de tres vías del {}: {} discrepancias {}", desde.toLocalDate(),
+                        resumen.getDiscrepancias(), resumen.getPorTipo());
+            }
+        } catch (Exception e) {
+            log.error("Error en la conciliación de tres vías del {}: {}", desde.toLocalDate(), e.getMessage());
+        }
+    }
+}
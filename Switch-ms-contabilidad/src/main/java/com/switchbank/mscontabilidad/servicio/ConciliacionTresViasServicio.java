@@ -0,0 +1,421 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.switchbank.mscontabilidad.dto.DiscrepanciaDTO;
+import com.switchbank.mscontabilidad.dto.RegistroConciliacionDTO;
+import com.switchbank.mscontabilidad.dto.ResumenConciliacionTresViasDTO;
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import com.switchbank.mscontabilidad.modelo.EstadoRetencion;
+import com.switchbank.mscontabilidad.modelo.TipoMovimiento;
+import com.switchbank.mscontabilidad.repositorio.MovimientoRepository;
+import com.switchbank.mscontabilidad.repositorio.RetencionFondosRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Conciliación de tres vías entre Núcleo (transacciones), Contabilidad
+ * (retenciones y movimientos) y Compensación (detalles de clearing).
+ *
+ * Cada lado llega como un flujo ordenado por idInstruccion: los dos locales
+ * con cursor sobre la base y los remotos como extractos NDJSON leídos línea a
+ * línea. Se cruzan con un merge-join: se toma la menor instrucción entre las
+ * cabezas de los flujos, se consumen sus registros de cada lado y se evalúan.
+ * La memoria sólo guarda los registros de la instrucción en curso, así que el
+ * volumen de un día se recorre en una pasada sin acumular nada.
+ *
+ * Los flujos se piden con un margen alrededor de la ventana para que las
+ * piezas de una transacción del borde (retención, detalle, reverso) caigan
+ * dentro; las transacciones se informan sólo si se crearon en [desde, hasta)
+ * y los registros sin transacción sólo si su fecha está en la ventana.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConciliacionTresViasServicio {
+
+    // Orden de uuid de PostgreSQL: bytes sin signo, no el de UUID.compareTo
+    static final Comparator<UUID> ORDEN_UUID = Comparator
+            .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+            .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
+    private final RetencionFondosRepository retencionRepo;
+    private final MovimientoRepository movimientoRepo;
+    private final ObjectMapper objectMapper;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    @Value("${service.nucleo.url:http://ms-nucleo:8082}")
+    private String nucleoUrl;
+
+    @Value("${service.compensacion.url:http://ms-compensacion:8084}")
+    private String compensacionUrl;
+
+    // Holgura entre la creación de la transacción y sus registros en los otros servicios
+    @Value("${contabilidad.conciliacion.margen-minutos:30}")
+    private long margenMinutos;
+
+    public void validarRango(LocalDateTime desde, LocalDateTime hasta) {
+        if (desde == null || hasta == null || !desde.isBefore(hasta)) {
+            throw new RuntimeException("Rango de fechas inválido para la conciliación.");
+        }
+    }
+
+    /**
+     * Recorre la ventana [desde, hasta) entregando cada discrepancia a
+     * {@code salida} según aparece. La transacción de sólo lectura mantiene
+     * abiertos los cursores locales durante toda la pasada.
+     */
+    @Transactional(readOnly = true)
+    public ResumenConciliacionTresViasDTO conciliar(LocalDateTime desde, LocalDateTime hasta,
+            Consumer<DiscrepanciaDTO> salida) {
+        validarRango(desde, hasta);
+        long inicio = System.currentTimeMillis();
+        LocalDateTime desdeAmplio = desde.minusMinutes(margenMinutos);
+        LocalDateTime hastaAmplio = hasta.plusMinutes(margenMinutos);
+
+        try (Stream<RegistroConciliacionDTO> transacciones = extractoRemoto(nucleoUrl
+                + "/api/v1/transacciones/conciliacion", desdeAmplio, hastaAmplio);
+                Stream<RegistroConciliacionDTO> retenciones = retencionRepo.streamParaConciliacion(desdeAmplio,
+                        hastaAmplio);
+                Stream<RegistroConciliacionDTO> movimientos = movimientoRepo.streamParaConciliacion(desdeAmplio,
+                        hastaAmplio);
+                Stream<RegistroConciliacionDTO> detalles = extractoRemoto(compensacionUrl
+                        + "/api/v1/compensacion/conciliacion", desdeAmplio, hastaAmplio)) {
+
+            Fuente nucleo = new Fuente("núcleo", transacciones.iterator());
+            Fuente retencion = new Fuente("retenciones", retenciones.iterator());
+            Fuente movimiento = new Fuente("movimientos", movimientos.iterator());
+            Fuente compensacion = new Fuente("compensación", detalles.iterator());
+            List<Fuente> fuentes = List.of(nucleo, retencion, movimiento, compensacion);
+
+            Cruce cruce = new Cruce(desde, hasta, salida);
+            UUID clave;
+            while ((clave = menorClave(fuentes)) != null) {
+                cruce.evaluar(clave, nucleo.tomar(clave), retencion.tomar(clave), movimiento.tomar(clave),
+                        compensacion.tomar(clave));
+            }
+
+            ResumenConciliacionTresViasDTO resumen = ResumenConciliacionTresViasDTO.builder()
+                    .desde(desde)
+                    .hasta(hasta)
+                    .transaccionesNucleo(nucleo.leidos)
+                    .registrosContabilidad(retencion.leidos + movimiento.leidos)
+                    .registrosCompensacion(compensacion.leidos)
+                    .instrucciones(cruce.instrucciones)
+                    .discrepancias(cruce.discrepancias)
+                    .porTipo(cruce.porTipo)
+                    .duracionMs(System.currentTimeMillis() - inicio)
+                    .build();
+            log.info("Conciliación de tres vías [{} - {}): {} instrucciones, {} discrepancias en {} ms", desde, hasta,
+                    resumen.getInstrucciones(), resumen.getDiscrepancias(), resumen.getDuracionMs());
+            return resumen;
+        }
+    }
+
+    private Stream<RegistroConciliacionDTO> extractoRemoto(String base, LocalDateTime desde, LocalDateTime hasta) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "?desde=" + desde + "&hasta=" + hasta))
+                .timeout(Duration.ofSeconds(60))
+                .header("Accept", "application/x-ndjson")
+                .GET()
+                .build();
+        HttpResponse<Stream<String>> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo obtener el extracto de " + base + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Conciliación interrumpida obteniendo " + base);
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new RuntimeException("Extracto de " + base + " respondió HTTP " + response.statusCode());
+        }
+        return response.body().filter(linea -> !linea.isBlank()).map(this::leerLinea);
+    }
+
+    private RegistroConciliacionDTO leerLinea(String linea) {
+        try {
+            return objectMapper.readValue(linea, RegistroConciliacionDTO.class);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException("Línea de extracto ilegible: " + linea, e);
+        }
+    }
+
+    private static UUID menorClave(List<Fuente> fuentes) {
+        UUID menor = null;
+        for (Fuente f : fuentes) {
+            if (f.actual != null && (menor == null || ORDEN_UUID.compare(f.actual.getIdInstruccion(), menor) < 0)) {
+                menor = f.actual.getIdInstruccion();
+            }
+        }
+        return menor;
+    }
+
+    /**
+     * Un lado del merge-join. Comprueba que el flujo venga ordenado: un
+     * extracto desordenado haría pasar registros por faltantes.
+     */
+    private static final class Fuente {
+        private final String nombre;
+        private final Iterator<RegistroConciliacionDTO> it;
+        private RegistroConciliacionDTO actual;
+        private long leidos;
+
+        Fuente(String nombre, Iterator<RegistroConciliacionDTO> it) {
+            this.nombre = nombre;
+            this.it = it;
+            avanzar();
+        }
+
+        private void avanzar() {
+            UUID anterior = actual != null ? actual.getIdInstruccion() : null;
+            actual = it.hasNext() ? it.next() : null;
+            if (actual == null) {
+                return;
+            }
+            leidos++;
+            if (actual.getIdInstruccion() == null) {
+                throw new RuntimeException("Registro de " + nombre + " sin idInstruccion");
+            }
+            if (anterior != null && ORDEN_UUID.compare(actual.getIdInstruccion(), anterior) < 0) {
+                throw new RuntimeException("El extracto de " + nombre + " no está ordenado por idInstruccion");
+            }
+        }
+
+        // Consume todos los registros de la instrucción; casi siempre son cero o uno
+        List<RegistroConciliacionDTO> tomar(UUID clave) {
+            List<RegistroConciliacionDTO> registros = List.of();
+            while (actual != null && actual.getIdInstruccion().equals(clave)) {
+                if (registros.isEmpty()) {
+                    registros = new ArrayList<>(2);
+                }
+                registros.add(actual);
+                avanzar();
+            }
+            return registros;
+        }
+    }
+
+    /** Reglas de cruce de una instrucción y contadores de la pasada. */
+    private static final class Cruce {
+        private final LocalDateTime desde;
+        private final LocalDateTime hasta;
+        private final Consumer<DiscrepanciaDTO> salida;
+        private final Map<DiscrepanciaDTO.Tipo, Long> porTipo = new EnumMap<>(DiscrepanciaDTO.Tipo.class);
+        private long instrucciones;
+        private long discrepancias;
+
+        Cruce(LocalDateTime desde, LocalDateTime hasta, Consumer<DiscrepanciaDTO> salida) {
+            this.desde = desde;
+            this.hasta = hasta;
+            this.salida = salida;
+        }
+
+        private boolean enVentana(LocalDateTime fecha) {
+            return fecha != null && !fecha.isBefore(desde) && fecha.isBefore(hasta);
+        }
+
+        void evaluar(UUID clave, List<RegistroConciliacionDTO> transacciones, List<RegistroConciliacionDTO> retenciones,
+                List<RegistroConciliacionDTO> movimientos, List<RegistroConciliacionDTO> detalles) {
+            if (transacciones.isEmpty()) {
+                evaluarSinTransaccion(clave, retenciones, movimientos, detalles);
+                return;
+            }
+            RegistroConciliacionDTO tx = transacciones.get(0);
+            if (!enVentana(tx.getFecha())) {
+                // Transacción del margen: la concilia la pasada de su ventana
+                return;
+            }
+            instrucciones++;
+
+            RegistroConciliacionDTO retencion = retenciones.isEmpty() ? null : retenciones.get(0);
+            RegistroConciliacionDTO pago = primero(detalles, "PAGO");
+            RegistroConciliacionDTO reverso = primero(detalles, "REVERSO");
+            String estado = tx.getEstado() != null ? tx.getEstado() : "";
+
+            switch (estado) {
+                case "COMPLETED", "REVERSED" -> {
+                    if (retencion == null) {
+                        reportar(clave, DiscrepanciaDTO.Tipo.RETENCION_FALTANTE, "Transacción " + estado
+                                + " sin retención de fondos", tx, null, montoDe(pago));
+                    } else if (!EstadoRetencion.CAPTURADA.name().equals(retencion.getEstado())
+                            && !EstadoRetencion.LIQUIDADA.name().equals(retencion.getEstado())) {
+                        reportar(clave, DiscrepanciaDTO.Tipo.ESTADO_RETENCION_INCONSISTENTE, "Transacción " + estado
+                                + " con retención " + retencion.getEstado(), tx, retencion.getMonto(), montoDe(pago));
+                    }
+                    if (pago == null) {
+                        reportar(clave, DiscrepanciaDTO.Tipo.DETALLE_COMPENSACION_FALTANTE, "Transacción " + estado
+                                + " sin detalle PAGO en compensación", tx, montoDe(retencion), null);
+                    }
+                }
+                case "FAILED" -> {
+                    if (retencion != null && (EstadoRetencion.ACTIVA.name().equals(retencion.getEstado())
+                            || EstadoRetencion.CAPTURADA.name().equals(retencion.getEstado())
+                            || EstadoRetencion.LIQUIDADA.name().equals(retencion.getEstado()))) {
+                        reportar(clave, DiscrepanciaDTO.Tipo.ESTADO_RETENCION_INCONSISTENTE,
+                                "Transacción FAILED con retención " + retencion.getEstado(), tx, retencion.getMonto(),
+                                montoDe(pago));
+                    }
+                    // Si el PAGO llegó a compensación, la saga registra el REVERSO que anula la posición neta
+                    if (pago != null && reverso == null) {
+                        reportar(clave, DiscrepanciaDTO.Tipo.DETALLE_COMPENSACION_FALTANTE,
+                                "Transacción FAILED con PAGO pero sin REVERSO en compensación", tx,
+                                montoDe(retencion), pago.getMonto());
+                    }
+                }
+                default -> {
+                    // RECEIVED, PENDING, TIMEOUT...: todavía en curso, sólo se comparan montos
+                }
+            }
+
+            if (reverso != null && pago == null) {
+                reportar(clave, DiscrepanciaDTO.Tipo.REVERSO_HUERFANO, "REVERSO en compensación sin PAGO original",
+                        tx, montoDe(retencion), reverso.getMonto());
+            }
+            for (RegistroConciliacionDTO m : movimientos) {
+                if (TipoMovimiento.REVERSAL.name().equals(m.getTipo())
+                        && !"COMPLETED".equals(estado) && !"REVERSED".equals(estado)) {
+                    reportar(clave, DiscrepanciaDTO.Tipo.REVERSO_HUERFANO, "Reverso contable de una transacción "
+                            + estado, tx, m.getMonto(), montoDe(pago));
+                    break;
+                }
+            }
+            compararMontos(clave, tx, retencion, movimientos, detalles);
+        }
+
+        private void compararMontos(UUID clave, RegistroConciliacionDTO tx, RegistroConciliacionDTO retencion,
+                List<RegistroConciliacionDTO> movimientos, List<RegistroConciliacionDTO> detalles) {
+            Dinero monto = tx.getMonto();
+            if (retencion != null && distinto(monto, retencion.getMonto())) {
+                reportar(clave, DiscrepanciaDTO.Tipo.MONTO_DISTINTO, "Monto de la retención distinto al de la transacción",
+                        tx, retencion.getMonto(), null);
+            }
+            for (RegistroConciliacionDTO m : movimientos) {
+                // Una devolución puede ser parcial; lo que no puede es superar el original
+                boolean descuadre = TipoMovimiento.REVERSAL.name().equals(m.getTipo())
+                        ? m.getMonto() != null && monto != null && m.getMonto().mayorQue(monto)
+                        : distinto(monto, m.getMonto());
+                if (descuadre) {
+                    reportar(clave, DiscrepanciaDTO.Tipo.MONTO_DISTINTO, "Monto del movimiento " + m.getTipo()
+                            + " distinto al de la transacción", tx, m.getMonto(), null);
+                }
+            }
+            for (RegistroConciliacionDTO d : detalles) {
+                if (distinto(monto, d.getMonto())) {
+                    reportar(clave, DiscrepanciaDTO.Tipo.MONTO_DISTINTO, "Monto del detalle " + d.getTipo()
+                            + " en compensación distinto al de la transacción", tx, null, d.getMonto());
+                }
+            }
+        }
+
+        // Registros de Contabilidad o Compensación cuya instrucción no existe en Núcleo
+        private void evaluarSinTransaccion(UUID clave, List<RegistroConciliacionDTO> retenciones,
+                List<RegistroConciliacionDTO> movimientos, List<RegistroConciliacionDTO> detalles) {
+            Set<DiscrepanciaDTO.Tipo> reportadas = EnumSet.noneOf(DiscrepanciaDTO.Tipo.class);
+            boolean enVentana = huerfanos(clave, retenciones, true, reportadas);
+            enVentana |= huerfanos(clave, movimientos, true, reportadas);
+            enVentana |= huerfanos(clave, detalles, false, reportadas);
+            if (enVentana) {
+                instrucciones++;
+            }
+        }
+
+        private boolean huerfanos(UUID clave, List<RegistroConciliacionDTO> lado, boolean contable,
+                Set<DiscrepanciaDTO.Tipo> reportadas) {
+            boolean enVentana = false;
+            for (RegistroConciliacionDTO r : lado) {
+                if (!enVentana(r.getFecha())) {
+                    continue;
+                }
+                enVentana = true;
+                boolean esReverso = TipoMovimiento.REVERSAL.name().equals(r.getTipo()) || "REVERSO".equals(r.getTipo());
+                DiscrepanciaDTO.Tipo tipo = esReverso ? DiscrepanciaDTO.Tipo.REVERSO_HUERFANO
+                        : DiscrepanciaDTO.Tipo.TRANSACCION_FALTANTE;
+                // Una discrepancia de cada tipo por instrucción aunque haya varios registros
+                if (reportadas.add(tipo)) {
+                    String origen = contable ? "Contabilidad" : "Compensación";
+                    reportarSinTransaccion(clave, tipo, r.getTipo() + " en " + origen + " sin transacción en Núcleo",
+                            contable ? r.getMonto() : null, contable ? null : r.getMonto(), r.getFecha());
+                }
+            }
+            return enVentana;
+        }
+
+        private void reportar(UUID clave, DiscrepanciaDTO.Tipo tipo, String detalle, RegistroConciliacionDTO tx,
+                Dinero montoContabilidad, Dinero montoCompensacion) {
+            emitir(DiscrepanciaDTO.builder()
+                    .idInstruccion(clave)
+                    .tipo(tipo)
+                    .detalle(detalle)
+                    .estadoNucleo(tx.getEstado())
+                    .montoNucleo(tx.getMonto())
+                    .montoContabilidad(montoContabilidad)
+                    .montoCompensacion(montoCompensacion)
+                    .fecha(tx.getFecha())
+                    .build());
+        }
+
+        private void reportarSinTransaccion(UUID clave, DiscrepanciaDTO.Tipo tipo, String detalle,
+                Dinero montoContabilidad, Dinero montoCompensacion, LocalDateTime fecha) {
+            emitir(DiscrepanciaDTO.builder()
+                    .idInstruccion(clave)
+                    .tipo(tipo)
+                    .detalle(detalle)
+                    .montoContabilidad(montoContabilidad)
+                    .montoCompensacion(montoCompensacion)
+                    .fecha(fecha)
+                    .build());
+        }
+
+        private void emitir(DiscrepanciaDTO discrepancia) {
+            discrepancias++;
+            porTipo.merge(discrepancia.getTipo(), 1L, Long::sum);
+            salida.accept(discrepancia);
+        }
+
+        private static RegistroConciliacionDTO primero(List<RegistroConciliacionDTO> registros, String tipo) {
+            for (RegistroConciliacionDTO r : registros) {
+                if (tipo.equals(r.getTipo())) {
+                    return r;
+                }
+            }
+            return null;
+        }
+
+        private static Dinero montoDe(RegistroConciliacionDTO r) {
+            return r != null ? r.getMonto() : null;
+        }
+
+        private static boolean distinto(Dinero a, Dinero b) {
+            return a != null && b != null && !a.equals(b);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.switchbank.mscontabilidad.servicio;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -7,23 +9,38 @@ import com.switchbank.mscontabilidad.dto.CrearCuentaRequest;
 import com.switchbank.mscontabilidad.dto.CuentaDTO;
 import com.switchbank.mscontabilidad.dto.MovimientoDTO;
 import com.switchbank.mscontabilidad.dto.RegistroMovimientoRequest;
+import com.switchbank.mscontabilidad.dto.ResultadoMovimientoDTO;
 import com.switchbank.mscontabilidad.dto.ReturnRequestDTO;
 import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import com.switchbank.mscontabilidad.modelo.EstadoRetencion;
 import com.switchbank.mscontabilidad.modelo.Movimiento;
+import com.switchbank.mscontabilidad.modelo.RetencionFondos;
 import com.switchbank.mscontabilidad.modelo.TipoMovimiento;
 import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
 import com.switchbank.mscontabilidad.repositorio.MovimientoRepository;
+import com.switchbank.mscontabilidad.repositorio.RetencionFondosRepository;
 import com.switchbank.mscontabilidad.mapper.ContabilidadMapper;
 
 import lombok.RequiredArgsConstructor;
-import java.math.BigDecimal;
+import lombok.extern.slf4j.Slf4j;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.time.LocalDateTime;
-import java.util.Base64;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.UUID;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ContabilidadServicio {
@@ -31,6 +48,17 @@ public class ContabilidadServicio {
     private final CuentaTecnicaRepository cuentaRepo;
     private final MovimientoRepository movimientoRepo;
     private final ContabilidadMapper mapper;
+    private final IntegridadLedgerServicio integridad;
+    private final MotorLedger motor;
+    private final SaldoParticionadoServicio particiones;
+    private final RetencionFondosRepository retencionRepo;
+    private final ProyeccionSaldosServicio proyeccion;
+
+    @Value("${contabilidad.retenciones.ttl-segundos:120}")
+    private long ttlRetencionSegundos;
+
+    @Value("${contabilidad.movimientos.lote-maximo:1000}")
+    private int maxItemsLote;
 
     @Transactional
     public CuentaDTO crearCuenta(CrearCuentaRequest req) {
@@ -39,32 +67,72 @@ public class ContabilidadServicio {
         }
 
         CuentaTecnica cuenta = new CuentaTecnica(req.getCodigoBic());
-        cuenta.setFirmaIntegridad(calcularHash(cuenta));
 
         CuentaTecnica saved = cuentaRepo.save(cuenta);
         return mapper.toDTO(saved);
     }
 
-    @Transactional
     public CuentaDTO registrarMovimiento(RegistroMovimientoRequest req) {
-        CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(req.getCodigoBic())
-                .orElseThrow(() -> new RuntimeException("Cuenta no encontrada para BIC: " + req.getCodigoBic()));
+        TipoMovimiento tipo = TipoMovimiento.valueOf(req.getTipo());
+        return motor.ejecutar(req.getCodigoBic(), cuenta -> aplicarMovimiento(cuenta, req, tipo));
+    }
 
-        String hashActual = calcularHash(cuenta);
-        if (!hashActual.equals(cuenta.getFirmaIntegridad())) {
-            throw new RuntimeException(
-                    "ALERTA DE SEGURIDAD: La cuenta " + req.getCodigoBic() + " ha sido alterada manualmente.");
+    /**
+     * Registra una ráfaga de movimientos con un solo viaje. Los ítems se encolan
+     * ordenados por cuenta (respetando el orden de llegada dentro de cada una) y
+     * el motor los confirma en grupo: un commit por lote de partición en lugar
+     * de uno por movimiento. Cada ítem tiene su propio resultado; un rechazo no
+     * anula a los demás.
+     */
+    public List<ResultadoMovimientoDTO> registrarMovimientosLote(List<RegistroMovimientoRequest> items) {
+        if (items.size() > maxItemsLote) {
+            throw new RuntimeException("El lote excede el máximo de " + maxItemsLote + " movimientos.");
         }
 
-        TipoMovimiento tipo = TipoMovimiento.valueOf(req.getTipo());
+        List<Integer> orden = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            orden.add(i);
+        }
+        orden.sort(Comparator.comparing(i -> String.valueOf(items.get(i).getCodigoBic())));
+
+        List<CompletableFuture<CuentaDTO>> pendientes = new ArrayList<>(Collections.nCopies(items.size(), null));
+        for (Integer i : orden) {
+            RegistroMovimientoRequest req = items.get(i);
+            try {
+                if (req.getCodigoBic() == null || req.getMonto() == null || !req.getMonto().esPositivo()) {
+                    throw new RuntimeException("Movimiento inválido: se requiere codigoBic y monto positivo.");
+                }
+                TipoMovimiento tipo = TipoMovimiento.valueOf(String.valueOf(req.getTipo()));
+                pendientes.set(i, motor.encolar(req.getCodigoBic(), cuenta -> aplicarMovimiento(cuenta, req, tipo)));
+            } catch (RuntimeException e) {
+                pendientes.set(i, CompletableFuture.failedFuture(e));
+            }
+        }
 
-        if (tipo == TipoMovimiento.DEBIT) {
-            if (cuenta.getSaldoDisponible().compareTo(req.getMonto()) < 0) {
-                throw new RuntimeException("FONDOS INSUFICIENTES para el banco: " + req.getCodigoBic());
+        List<ResultadoMovimientoDTO> resultados = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            ResultadoMovimientoDTO.ResultadoMovimientoDTOBuilder resultado = ResultadoMovimientoDTO.builder()
+                    .indice(i)
+                    .idInstruccion(items.get(i).getIdInstruccion());
+            try {
+                resultados.add(resultado.exitoso(true).cuenta(pendientes.get(i).join()).build());
+            } catch (CompletionException e) {
+                Throwable causa = e.getCause() != null ? e.getCause() : e;
+                resultados.add(resultado.exitoso(false).error(causa.getMessage()).build());
             }
-            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().subtract(req.getMonto()));
+        }
+        return resultados;
+    }
+
+    // Corre dentro del motor con la cuenta bloqueada; valida antes de tocar saldos
+    private CuentaDTO aplicarMovimiento(CuentaTecnica cuenta, RegistroMovimientoRequest req, TipoMovimiento tipo) {
+        integridad.validarCuenta(cuenta);
+
+        if (tipo == TipoMovimiento.DEBIT) {
+            cubrir(cuenta, req.getMonto(), "FONDOS INSUFICIENTES para el banco: " + req.getCodigoBic());
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().menos(req.getMonto()));
         } else {
-            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().add(req.getMonto()));
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().mas(req.getMonto()));
         }
 
         Movimiento mov = new Movimiento();
@@ -72,60 +140,60 @@ public class ContabilidadServicio {
         mov.setIdInstruccion(req.getIdInstruccion());
         mov.setTipo(tipo);
         mov.setMonto(req.getMonto());
-        mov.setSaldoResultante(cuenta.getSaldoDisponible());
-        mov.setFechaRegistro(LocalDateTime.now());
+        mov.setEfectoContable(tipo == TipoMovimiento.DEBIT ? req.getMonto().negado() : req.getMonto());
+        mov.setSaldoResultante(particiones.saldoDisponibleTotal(cuenta));
+        mov.setFechaRegistro(ahora());
+        integridad.encadenar(cuenta, mov);
         movimientoRepo.save(mov);
 
-        cuenta.setFirmaIntegridad(calcularHash(cuenta));
-        CuentaTecnica saved = cuentaRepo.save(cuenta);
-
-        return mapper.toDTO(saved);
+        return aDTO(cuenta);
     }
 
     public CuentaDTO obtenerCuenta(String bic) {
+        Optional<ProyeccionSaldosServicio.SaldoProyectado> proyectado = proyeccion.obtener(bic);
+        if (proyectado.isPresent()) {
+            return proyectado.get().aDTO();
+        }
+        // Cuenta particionada (o inexistente): el saldo se suma con sus particiones
         CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(bic)
                 .orElseThrow(() -> new RuntimeException("Cuenta no encontrada"));
-        return mapper.toDTO(cuenta);
+        return aDTO(cuenta);
     }
 
-    @Transactional(readOnly = true)
-    public boolean verificarSaldo(String bic, BigDecimal monto) {
+    /**
+     * Decide si un pago puede seguir adelante, así que lee siempre la fila: la
+     * proyección de otra réplica puede ir por detrás hasta {@code max-edad-ms}
+     * si se perdió un NOTIFY.
+     */
+    public boolean verificarSaldo(String bic, Dinero monto) {
         return cuentaRepo.findByCodigoBic(bic)
-                .map(cuenta -> cuenta.getSaldoDisponible().compareTo(monto) >= 0)
+                .map(cuenta -> !particiones.saldoDisponibleTotal(cuenta).menorQue(monto))
                 .orElse(false);
     }
 
-    @Transactional
-    public CuentaDTO recargarSaldo(String bic, BigDecimal monto, UUID idInstruccion) {
-
-        if (!movimientoRepo.findByIdInstruccion(idInstruccion).isEmpty()) {
-
-            CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(bic)
-                    .orElseThrow(() -> new RuntimeException("Cuenta no encontrada"));
-            return mapper.toDTO(cuenta);
-        }
-
-        CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(bic)
-                .orElseThrow(() -> new RuntimeException("Cuenta no encontrada para BIC: " + bic));
-
-        String hashActual = calcularHash(cuenta);
-        if (!hashActual.equals(cuenta.getFirmaIntegridad())) {
-            throw new RuntimeException("ALERTA: Integridad comprometida en cuenta " + bic);
-        }
+    public CuentaDTO recargarSaldo(String bic, Dinero monto, UUID idInstruccion) {
+        return motor.ejecutar(bic, cuenta -> {
+            // Dentro del motor: dos recargas con la misma instrucción no pueden cruzarse
+            if (!movimientoRepo.findByIdInstruccion(idInstruccion).isEmpty()) {
+                return aDTO(cuenta);
+            }
+            integridad.validarCuenta(cuenta);
 
-        cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().add(monto));
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().mas(monto));
 
-        Movimiento mov = new Movimiento();
-        mov.setCuenta(cuenta);
-        mov.setIdInstruccion(idInstruccion);
-        mov.setTipo(TipoMovimiento.RECHARGE);
-        mov.setMonto(monto);
-        mov.setSaldoResultante(cuenta.getSaldoDisponible());
-        mov.setFechaRegistro(LocalDateTime.now());
-        movimientoRepo.save(mov);
+            Movimiento mov = new Movimiento();
+            mov.setCuenta(cuenta);
+            mov.setIdInstruccion(idInstruccion);
+            mov.setTipo(TipoMovimiento.RECHARGE);
+            mov.setMonto(monto);
+            mov.setEfectoContable(monto);
+            mov.setSaldoResultante(particiones.saldoDisponibleTotal(cuenta));
+            mov.setFechaRegistro(ahora());
+            integridad.encadenar(cuenta, mov);
+            movimientoRepo.save(mov);
 
-        cuenta.setFirmaIntegridad(calcularHash(cuenta));
-        return mapper.toDTO(cuentaRepo.save(cuenta));
+            return aDTO(cuenta);
+        });
     }
 
     @Transactional
@@ -142,26 +210,22 @@ public class ContabilidadServicio {
         }
         Movimiento original = encontrados.get(0);
 
-        if (original.getFechaRegistro().isBefore(LocalDateTime.now().minusHours(48))) {
+        if (original.getFechaRegistro().isBefore(LocalDateTime.now(ZoneOffset.UTC).minusHours(48))) {
             throw new RuntimeException("La transacción original es mayor a 48 horas, no se puede revertir.");
         }
         if (movimientoRepo.existsByTipoAndReferenciaId(TipoMovimiento.REVERSAL, originalInstructionId)) {
             throw new RuntimeException("DUPLICADO: Esta transacción ya ha sido revertida anteriormente.");
         }
 
-        BigDecimal montoSolicitado = req.getBody().getReturnAmount().getValue();
-        if (montoSolicitado.compareTo(original.getMonto()) != 0) {
+        Dinero montoSolicitado = req.getBody().getReturnAmount().getValue();
+        if (!montoSolicitado.equals(original.getMonto())) {
             throw new RuntimeException("El monto a revertir (" + montoSolicitado + ") no coincide con el original ("
                     + original.getMonto() + ")");
         }
 
-        CuentaTecnica cuenta = original.getCuenta();
-
-        String hashActual = calcularHash(cuenta);
-        if (!hashActual.equals(cuenta.getFirmaIntegridad())) {
-            throw new RuntimeException(
-                    "ALERTA DE SEGURIDAD: La cuenta " + cuenta.getCodigoBic() + " ha sido alterada.");
-        }
+        CuentaTecnica cuenta = cuentaRepo.findByCodigoBicParaActualizar(original.getCuenta().getCodigoBic())
+                .orElseThrow(() -> new RuntimeException("Cuenta no encontrada"));
+        integridad.validarCuenta(cuenta);
 
         TipoMovimiento tipoOriginal = original.getTipo();
         if (tipoOriginal == TipoMovimiento.REVERSAL) {
@@ -169,12 +233,10 @@ public class ContabilidadServicio {
         }
 
         if (tipoOriginal == TipoMovimiento.DEBIT) {
-            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().add(montoSolicitado));
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().mas(montoSolicitado));
         } else {
-            if (cuenta.getSaldoDisponible().compareTo(montoSolicitado) < 0) {
-                throw new RuntimeException("Fondos insuficientes para revertir el crédito.");
-            }
-            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().subtract(montoSolicitado));
+            cubrir(cuenta, montoSolicitado, "Fondos insuficientes para revertir el crédito.");
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().menos(montoSolicitado));
         }
 
         Movimiento reverso = new Movimiento();
@@ -191,13 +253,14 @@ public class ContabilidadServicio {
         reverso.setReferenciaId(originalInstructionId);
         reverso.setTipo(TipoMovimiento.REVERSAL);
         reverso.setMonto(montoSolicitado);
-        reverso.setSaldoResultante(cuenta.getSaldoDisponible());
-        reverso.setFechaRegistro(LocalDateTime.now());
+        reverso.setEfectoContable(tipoOriginal == TipoMovimiento.DEBIT ? montoSolicitado : montoSolicitado.negado());
+        reverso.setSaldoResultante(particiones.saldoDisponibleTotal(cuenta));
+        reverso.setFechaRegistro(ahora());
+        integridad.encadenar(cuenta, reverso);
 
         movimientoRepo.save(reverso);
 
-        cuenta.setFirmaIntegridad(calcularHash(cuenta));
-        return mapper.toDTO(cuentaRepo.save(cuenta));
+        return aDTO(cuentaRepo.save(cuenta));
     }
 
     @Transactional(readOnly = true)
@@ -206,81 +269,259 @@ public class ContabilidadServicio {
         return mapper.toDTOList(movimientos);
     }
 
-    @Transactional
+    /**
+     * Bloquea fondos para una instrucción. Con idInstruccion queda una retención
+     * que expira a los {@code contabilidad.retenciones.ttl-segundos} si no se
+     * captura o libera antes; reservar dos veces la misma instrucción no bloquea
+     * dos veces.
+     */
     public CuentaDTO reservarFondos(RegistroMovimientoRequest req) {
-        CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(req.getCodigoBic())
-                .orElseThrow(() -> new RuntimeException("Cuenta no encontrada para BIC: " + req.getCodigoBic()));
-
-        String hashActual = calcularHash(cuenta);
-        if (!hashActual.equals(cuenta.getFirmaIntegridad())) {
-            throw new RuntimeException(
-                    "ALERTA DE SEGURIDAD: La cuenta " + req.getCodigoBic() + " ha sido alterada manualmente.");
+        LocalDateTime ahora = ahora();
+        LocalDateTime expira = ahora.plusSeconds(ttlRetencionSegundos);
+
+        // Cuentas particionadas: la reserva bloquea particiones libres, no la fila principal; si no alcanzan, sigue abajo
+        if (particiones.esParticionada(req.getCodigoBic())) {
+            Optional<CuentaTecnica> reservada = particiones.reservar(req.getCodigoBic(), req.getIdInstruccion(),
+                    req.getMonto(), ahora, expira);
+            if (reservada.isPresent()) {
+                return aDTO(reservada.get());
+            }
         }
 
-        if (cuenta.getSaldoDisponible().compareTo(req.getMonto()) < 0) {
-            throw new RuntimeException("FONDOS INSUFICIENTES para reservar: " + req.getCodigoBic());
+        return motor.ejecutar(req.getCodigoBic(), cuenta -> {
+            integridad.validarCuenta(cuenta);
+            if (req.getIdInstruccion() != null && retencionRepo.existsById(req.getIdInstruccion())) {
+                return aDTO(cuenta);
+            }
+
+            cubrir(cuenta, req.getMonto(), "FONDOS INSUFICIENTES para reservar: " + req.getCodigoBic());
+
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().menos(req.getMonto()));
+            cuenta.setFondosBloqueados(cuenta.getFondosBloqueados().mas(req.getMonto()));
+            if (req.getIdInstruccion() != null) {
+                retencionRepo.save(RetencionFondos.activa(cuenta, req.getIdInstruccion(), req.getMonto(), ahora,
+                        expira));
+            }
+
+            return aDTO(cuenta);
+        });
+    }
+
+    /**
+     * El pago siguió adelante: los fondos quedan bloqueados hasta la liquidación
+     * del ciclo y la retención ya no expira. Una captura que llega después de que
+     * el barrido expirara la retención (una recuperación tardía del núcleo)
+     * vuelve a bloquear los fondos antes de capturarla.
+     */
+    public CuentaDTO capturarRetencion(UUID idInstruccion) {
+        RetencionFondos retencion = retencionRepo.findConCuenta(idInstruccion)
+                .orElseThrow(() -> new RuntimeException("Retención no encontrada: " + idInstruccion));
+
+        return motor.ejecutar(retencion.getCuenta().getCodigoBic(), cuenta -> {
+            RetencionFondos r = retencionRepo.findById(idInstruccion).orElseThrow();
+            if (r.getEstado() == EstadoRetencion.EXPIRADA) {
+                integridad.validarCuenta(cuenta);
+                cubrir(cuenta, r.getMonto(),
+                        "FONDOS INSUFICIENTES para capturar la retención expirada " + idInstruccion);
+                cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().menos(r.getMonto()));
+                cuenta.setFondosBloqueados(cuenta.getFondosBloqueados().mas(r.getMonto()));
+            }
+            if (r.getEstado() == EstadoRetencion.ACTIVA || r.getEstado() == EstadoRetencion.EXPIRADA) {
+                r.setEstado(EstadoRetencion.CAPTURADA);
+                r.setFechaResolucion(ahora());
+            } else if (r.getEstado() != EstadoRetencion.CAPTURADA && r.getEstado() != EstadoRetencion.LIQUIDADA) {
+                throw new RuntimeException("La retención " + idInstruccion + " ya fue " + r.getEstado()
+                        + ", no se puede capturar.");
+            }
+            return aDTO(cuenta);
+        });
+    }
+
+    /**
+     * El pago falló: los fondos vuelven al disponible en el acto.
+     */
+    public CuentaDTO liberarRetencion(UUID idInstruccion) {
+        RetencionFondos retencion = retencionRepo.findConCuenta(idInstruccion)
+                .orElseThrow(() -> new RuntimeException("Retención no encontrada: " + idInstruccion));
+        return motor.ejecutar(retencion.getCuenta().getCodigoBic(),
+                cuenta -> liberar(cuenta, idInstruccion, EstadoRetencion.LIBERADA));
+    }
+
+    /**
+     * Libera un lote de retenciones vencidas. Todas se encolan a la vez para que
+     * el motor las confirme en grupo.
+     *
+     * @return cuántas retenciones vencidas se encontraron.
+     */
+    public int liberarRetencionesExpiradas(int lote) {
+        List<RetencionFondos> expiradas = retencionRepo.findExpiradas(ahora(), PageRequest.of(0, lote));
+        List<CompletableFuture<CuentaDTO>> pendientes = new ArrayList<>(expiradas.size());
+        for (RetencionFondos r : expiradas) {
+            pendientes.add(motor.encolar(r.getCuenta().getCodigoBic(),
+                    cuenta -> liberar(cuenta, r.getIdInstruccion(), EstadoRetencion.EXPIRADA)));
         }
+        for (CompletableFuture<CuentaDTO> pendiente : pendientes) {
+            try {
+                pendiente.join();
+            } catch (Exception e) {
+                log.warn("No se pudo liberar una retención expirada: {}", e.getMessage());
+            }
+        }
+        return expiradas.size();
+    }
 
-        cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().subtract(req.getMonto()));
-        cuenta.setFondosBloqueados(cuenta.getFondosBloqueados().add(req.getMonto()));
+    // Corre dentro del motor con la cuenta bloqueada; liberar dos veces no devuelve fondos dos veces
+    private CuentaDTO liberar(CuentaTecnica cuenta, UUID idInstruccion, EstadoRetencion destino) {
+        RetencionFondos r = retencionRepo.findById(idInstruccion).orElseThrow();
+        if (r.getEstado() == EstadoRetencion.CAPTURADA || r.getEstado() == EstadoRetencion.LIQUIDADA) {
+            throw new RuntimeException("La retención " + idInstruccion + " ya fue " + r.getEstado()
+                    + ", no se puede liberar.");
+        }
+        if (r.getEstado() == EstadoRetencion.ACTIVA) {
+            // Una reserva particionada dejó los fondos bloqueados en las particiones, no en la fila principal
+            if (cuenta.isParticionada() && cuenta.getFondosBloqueados().menorQue(r.getMonto())) {
+                particiones.consolidarBloqueados(cuenta);
+            }
+            // Los bloqueados de la cuenta deben cubrir la retención; si no, otra vía ya los devolvió
+            if (cuenta.getFondosBloqueados().menorQue(r.getMonto())) {
+                throw new RuntimeException("Fondos bloqueados de " + cuenta.getCodigoBic() + " ("
+                        + cuenta.getFondosBloqueados() + ") no cubren la retención " + idInstruccion + " de "
+                        + r.getMonto());
+            }
+            cuenta.setFondosBloqueados(cuenta.getFondosBloqueados().menos(r.getMonto()));
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().mas(r.getMonto()));
+            r.setEstado(destino);
+            r.setFechaResolucion(ahora());
+        }
+        return aDTO(cuenta);
+    }
 
-        cuenta.setFirmaIntegridad(calcularHash(cuenta));
-        return mapper.toDTO(cuentaRepo.save(cuenta));
+    public CuentaDTO configurarParticiones(String bic, int cantidad) {
+        return aDTO(particiones.configurarParticiones(bic, cantidad));
     }
 
+    /**
+     * Liquida las posiciones netas de un ciclo de compensación.
+     *
+     * Todas las cuentas se bloquean con una sola consulta (en orden de BIC) y los
+     * movimientos SETTLEMENT se insertan en batch. De cada banco se desbloquean
+     * exactamente las retenciones capturadas de sus pagos en el ciclo, que quedan
+     * LIQUIDADAS. Es idempotente por cicloId: cada
+     * movimiento lleva como referenciaId el UUID derivado del ciclo, y un reintento
+     * que lo encuentra ya asentado no hace nada.
+     */
     @Transactional
     public void aplicarCompensacion(com.switchbank.mscontabilidad.dto.SolicitudCompensacionDTO req) {
-        for (com.switchbank.mscontabilidad.dto.SolicitudCompensacionDTO.PosicionBancariaDTO pos : req.getPosiciones()) {
-            CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(pos.getBic())
-                    .orElseThrow(() -> new RuntimeException("Cuenta no encontrada para BIC: " + pos.getBic()));
-
-            String hashActual = calcularHash(cuenta);
-            if (!hashActual.equals(cuenta.getFirmaIntegridad())) {
-                throw new RuntimeException(
-                        "ALERTA DE SEGURIDAD: La cuenta " + pos.getBic() + " ha sido alterada manualmente.");
+        if (req.getCicloId() == null) {
+            throw new RuntimeException("cicloId es obligatorio para aplicar la compensación");
+        }
+        List<com.switchbank.mscontabilidad.dto.SolicitudCompensacionDTO.PosicionBancariaDTO> posiciones = req
+                .getPosiciones() != null ? req.getPosiciones() : List.of();
+
+        Map<String, CuentaTecnica> cuentas = new HashMap<>();
+        for (CuentaTecnica c : cuentaRepo.findByCodigoBicInParaActualizar(
+                posiciones.stream().map(p -> p.getBic()).collect(Collectors.toSet()))) {
+            cuentas.put(c.getCodigoBic(), c);
+        }
+
+        // Con las cuentas bloqueadas, un reintento concurrente del mismo ciclo ve aquí el asiento ya confirmado
+        UUID referenciaCiclo = idLiquidacion(req.getCicloId(), null);
+        if (movimientoRepo.existsByTipoAndReferenciaId(TipoMovimiento.SETTLEMENT, referenciaCiclo)) {
+            log.info("Ciclo {} ya liquidado en contabilidad, se ignora el reintento", req.getCicloId());
+            return;
+        }
+
+        LocalDateTime ahora = ahora();
+        List<Movimiento> movimientos = new ArrayList<>(posiciones.size());
+        for (com.switchbank.mscontabilidad.dto.SolicitudCompensacionDTO.PosicionBancariaDTO pos : posiciones) {
+            CuentaTecnica cuenta = cuentas.get(pos.getBic());
+            if (cuenta == null) {
+                throw new RuntimeException("Cuenta no encontrada para BIC: " + pos.getBic());
             }
 
-            BigDecimal totalDebitos = pos.getTotalDebitos();
+            integridad.validarCuenta(cuenta);
+            if (cuenta.isParticionada()) {
+                // Las reservas viven en las particiones; se liberan desde la fila principal
+                particiones.consolidarBloqueados(cuenta);
+            }
+
+            // Por instrucción, no por totalDebitos: las retenciones liberadas o expiradas ya devolvieron sus
+            // fondos y las de pagos de otro ciclo siguen bloqueadas hasta el suyo
+            List<RetencionFondos> capturadas = retencionesDelCiclo(cuenta, pos.getInstrucciones());
+            Dinero desbloqueo = capturadas.stream().map(RetencionFondos::getMonto).reduce(Dinero.CERO, Dinero::mas);
+            if (cuenta.getFondosBloqueados().menorQue(desbloqueo)) {
+                throw new RuntimeException("Fondos bloqueados de " + pos.getBic() + " (" + cuenta.getFondosBloqueados()
+                        + ") no cubren las retenciones capturadas del ciclo (" + desbloqueo + ")");
+            }
 
             // Release blocks and add back to available (reverting the reservation)
-            cuenta.setFondosBloqueados(cuenta.getFondosBloqueados().subtract(totalDebitos));
-            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().add(totalDebitos));
+            cuenta.setFondosBloqueados(cuenta.getFondosBloqueados().menos(desbloqueo));
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().mas(desbloqueo));
+            for (RetencionFondos r : capturadas) {
+                r.setEstado(EstadoRetencion.LIQUIDADA);
+                r.setFechaResolucion(ahora);
+            }
 
             // Apply Net Position
-            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().add(pos.getPosicionNeta()));
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().mas(pos.getPosicionNeta()));
 
             Movimiento mov = new Movimiento();
             mov.setCuenta(cuenta);
+            mov.setIdInstruccion(idLiquidacion(req.getCicloId(), pos.getBic()));
+            mov.setReferenciaId(referenciaCiclo);
             mov.setTipo(TipoMovimiento.SETTLEMENT);
             mov.setMonto(pos.getPosicionNeta().abs());
-            mov.setSaldoResultante(cuenta.getSaldoDisponible());
-            mov.setFechaRegistro(LocalDateTime.now());
+            // El desbloqueo de los débitos no cambia disponible + bloqueados; sólo el neto
+            mov.setEfectoContable(pos.getPosicionNeta());
+            mov.setSaldoResultante(particiones.saldoDisponibleTotal(cuenta));
+            mov.setFechaRegistro(ahora);
+            integridad.encadenar(cuenta, mov);
+            movimientos.add(mov);
+        }
 
-            movimientoRepo.save(mov);
+        // Cuentas gestionadas: sus UPDATE salen en batch con el flush, junto a los INSERT
+        movimientoRepo.saveAll(movimientos);
+        log.info("Ciclo {} liquidado: {} posiciones asentadas", req.getCicloId(), movimientos.size());
+    }
+
+    private List<RetencionFondos> retencionesDelCiclo(CuentaTecnica cuenta, List<UUID> instrucciones) {
+        if (instrucciones == null) {
+            log.warn("Liquidación sin lista de instrucciones para {}: se liquida todo lo capturado de la cuenta",
+                    cuenta.getCodigoBic());
+            return retencionRepo.findCapturadasDeCuenta(cuenta.getId());
+        }
+        return instrucciones.isEmpty() ? List.of() : retencionRepo.findCapturadas(cuenta.getId(), instrucciones);
+    }
 
-            cuenta.setFirmaIntegridad(calcularHash(cuenta));
-            cuentaRepo.save(cuenta);
+    // UUID determinista por ciclo (y por banco): la misma liquidación siempre produce los mismos identificadores
+    private UUID idLiquidacion(Integer cicloId, String bic) {
+        String clave = "SETTLEMENT:" + cicloId + (bic != null ? ":" + bic : "");
+        return UUID.nameUUIDFromBytes(clave.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Exige el monto en la fila principal (bloqueada); en modo particionado trae lo que falte de las particiones
+    private void cubrir(CuentaTecnica cuenta, Dinero monto, String mensajeInsuficiente) {
+        if (!cuenta.getSaldoDisponible().menorQue(monto)) {
+            return;
+        }
+        if (!cuenta.isParticionada()) {
+            throw new RuntimeException(mensajeInsuficiente);
         }
+        particiones.cubrirDesdeParticiones(cuenta, monto, mensajeInsuficiente);
     }
 
-    private String calcularHash(CuentaTecnica c) {
-        try {
-            String secretKey = "SECRET_KEY_INTERNAL_LEDGER_V3";
-            String saldoFormateado = c.getSaldoDisponible()
-                    .setScale(2, java.math.RoundingMode.HALF_UP)
-                    .toString();
-            String bloqueadoFormateado = c.getFondosBloqueados()
-                    .setScale(2, java.math.RoundingMode.HALF_UP)
-                    .toString();
-
-            String data = saldoFormateado + bloqueadoFormateado + c.getCodigoBic() + secretKey;
-
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(data.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(hash);
-        } catch (Exception e) {
-            throw new RuntimeException("Error calculando hash", e);
+    private CuentaDTO aDTO(CuentaTecnica cuenta) {
+        CuentaDTO dto = mapper.toDTO(cuenta);
+        if (cuenta.isParticionada()) {
+            dto.setSaldoDisponible(particiones.saldoDisponibleTotal(cuenta));
         }
+        return dto;
+    }
+
+    // En UTC, como el núcleo y compensación, para que las ventanas de conciliación casen entre servicios.
+    // Precisión de TIMESTAMP en Postgres: el valor encadenado es el mismo que se relee de la base
+    private LocalDateTime ahora() {
+        return LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MICROS);
     }
 
 }
@@ -0,0 +1,175 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.switchbank.mscontabilidad.dto.MovimientoDTO;
+import com.switchbank.mscontabilidad.mapper.ContabilidadMapper;
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.modelo.Movimiento;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+import com.switchbank.mscontabilidad.repositorio.MovimientoRepository;
+
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Exportación de movimientos en streaming (NDJSON o CSV).
+ *
+ * Recorre el rango con un keyset sobre (fechaRegistro, id): cada página es una
+ * consulta corta que continúa donde terminó la anterior, se escribe en la
+ * respuesta y se descarta. La memoria queda acotada al tamaño de página sin
+ * importar cuántos meses abarque el rango, y no se mantiene una transacción
+ * abierta mientras el cliente descarga. Requiere {@code spring.jpa.open-in-view}
+ * desactivado: con él, el EntityManager de la petición retiene la conexión de
+ * la primera página hasta que termina la descarga.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ExportacionMovimientosServicio {
+
+    public static final String FORMATO_NDJSON = "ndjson";
+    public static final String FORMATO_CSV = "csv";
+
+    private static final String CABECERA_CSV =
+            "id,idInstruccion,tipo,monto,saldoResultante,fechaRegistro,referenciaId,codigoBicCuenta";
+
+    // Inicio del estado de cuenta cuando no se indica fecha
+    private static final LocalDateTime ORIGEN = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private final MovimientoRepository movimientoRepo;
+    private final CuentaTecnicaRepository cuentaRepo;
+    private final ContabilidadMapper mapper;
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+
+    @Value("${contabilidad.exportacion.tamano-pagina:1000}")
+    private int tamanoPagina;
+
+    public static String tipoContenido(String formato) {
+        return FORMATO_CSV.equalsIgnoreCase(formato) ? "text/csv" : "application/x-ndjson";
+    }
+
+    private static void validarFormato(String formato) {
+        if (!FORMATO_NDJSON.equalsIgnoreCase(formato) && !FORMATO_CSV.equalsIgnoreCase(formato)) {
+            throw new RuntimeException("Formato de exportación no soportado: " + formato + " (ndjson o csv)");
+        }
+    }
+
+    /**
+     * Movimientos de todas las cuentas en [inicio, fin]. Los parámetros se
+     * validan aquí; la escritura ocurre después, cuando el contenedor entrega
+     * el stream de la respuesta.
+     */
+    public Exportacion prepararRango(LocalDateTime inicio, LocalDateTime fin, String formato) {
+        validarFormato(formato);
+        if (inicio == null || fin == null || inicio.isAfter(fin)) {
+            throw new RuntimeException("Rango de fechas inválido para la exportación.");
+        }
+        return salida -> escribir(formato, salida, inicio, (desdeFecha, desdeId) -> movimientoRepo
+                .findPaginaPorRango(desdeFecha, desdeId, fin, PageRequest.of(0, tamanoPagina)));
+    }
+
+    /**
+     * Estado de cuenta de un banco. La cuenta se resuelve antes de empezar a
+     * escribir para que un BIC inexistente responda con error y no con un
+     * archivo vacío.
+     */
+    public Exportacion prepararEstadoCuenta(String bic, LocalDateTime desde, LocalDateTime hasta, String formato) {
+        validarFormato(formato);
+        CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(bic)
+                .orElseThrow(() -> new RuntimeException("Cuenta no encontrada para BIC: " + bic));
+        UUID idCuenta = cuenta.getId();
+        LocalDateTime inicio = desde != null ? desde : ORIGEN;
+        LocalDateTime fin = hasta != null ? hasta : LocalDateTime.now(ZoneOffset.UTC).plusDays(1);
+
+        return salida -> escribir(formato, salida, inicio, (desdeFecha, desdeId) -> movimientoRepo
+                .findPaginaPorCuenta(idCuenta, desdeFecha, desdeId, fin, PageRequest.of(0, tamanoPagina)));
+    }
+
+    @FunctionalInterface
+    public interface Exportacion {
+        void escribirEn(OutputStream salida) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Pagina {
+        List<Movimiento> siguiente(LocalDateTime desdeFecha, Long desdeId);
+    }
+
+    private void escribir(String formato, OutputStream salida, LocalDateTime inicio, Pagina paginas)
+            throws IOException {
+        boolean csv = FORMATO_CSV.equalsIgnoreCase(formato);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8));
+        if (csv) {
+            writer.write(CABECERA_CSV);
+            writer.write('\n');
+        }
+
+        LocalDateTime desdeFecha = inicio;
+        Long desdeId = Long.MIN_VALUE;
+        long total = 0;
+        while (true) {
+            List<Movimiento> pagina = paginas.siguiente(desdeFecha, desdeId);
+            for (Movimiento m : pagina) {
+                MovimientoDTO dto = mapper.toDTO(m);
+                if (csv) {
+                    escribirCsv(writer, dto);
+                } else {
+                    writer.write(objectMapper.writeValueAsString(dto));
+                    writer.write('\n');
+                }
+            }
+            total += pagina.size();
+            // Entrega la página al cliente y suelta las entidades antes de pedir la siguiente
+            writer.flush();
+            entityManager.clear();
+
+            if (pagina.size() < tamanoPagina) {
+                break;
+            }
+            Movimiento ultimo = pagina.get(pagina.size() - 1);
+            desdeFecha = ultimo.getFechaRegistro();
+            desdeId = ultimo.getId();
+        }
+        log.info("Exportación {} completada: {} movimientos", formato, total);
+    }
+
+    private void escribirCsv(Writer writer, MovimientoDTO dto) throws IOException {
+        // Ningún campo admite comas ni comillas (números, UUID, enums, BIC), no hace falta escapar
+        writer.write(String.valueOf(dto.getId()));
+        writer.write(',');
+        writer.write(texto(dto.getIdInstruccion()));
+        writer.write(',');
+        writer.write(dto.getTipo());
+        writer.write(',');
+        writer.write(dto.getMonto() != null ? dto.getMonto().toString() : "");
+        writer.write(',');
+        writer.write(dto.getSaldoResultante() != null ? dto.getSaldoResultante().toString() : "");
+        writer.write(',');
+        writer.write(texto(dto.getFechaRegistro()));
+        writer.write(',');
+        writer.write(texto(dto.getReferenciaId()));
+        writer.write(',');
+        writer.write(texto(dto.getCodigoBicCuenta()));
+        writer.write('\n');
+    }
+
+    private String texto(Object valor) {
+        return valor != null ? valor.toString() : "";
+    }
+}
@@ -0,0 +1,210 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import com.switchbank.mscontabilidad.modelo.Movimiento;
+import com.switchbank.mscontabilidad.modelo.SaldoParticion;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+import com.switchbank.mscontabilidad.repositorio.MovimientoRepository;
+
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Cadena HMAC-SHA256 sobre los movimientos de cada cuenta.
+ *
+ * Cada movimiento guarda su posición en la cadena de la cuenta
+ * (secuenciaCuenta) y el MAC de sus datos más el eslabón anterior. La cabeza
+ * de la cadena queda en {@code CuentaTecnica.firmaIntegridad}. Alterar,
+ * borrar o reordenar cualquier movimiento rompe todos los eslabones
+ * siguientes; la comprobación se hace en segundo plano
+ * ({@link VerificadorIntegridadPlanificador}), no en cada escritura.
+ *
+ * El último eslabón verificado y la marca de cuenta comprometida se guardan en
+ * la propia CuentaTecnica: un reinicio o una réplica nueva retoman la
+ * verificación donde quedó y siguen rechazando una cuenta ya marcada.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IntegridadLedgerServicio {
+
+    private static final String ALGORITMO = "HmacSHA256";
+    private static final int LOTE_VERIFICACION = 1000;
+
+    private final MovimientoRepository movimientoRepo;
+    private final CuentaTecnicaRepository cuentaRepo;
+    private final EntityManager entityManager;
+
+    @Value("${contabilidad.integridad.clave:SECRET_KEY_INTERNAL_LEDGER_V3}")
+    private String clave;
+
+    // Mac no es thread-safe; una instancia inicializada por hilo evita getInstance + init en cada movimiento
+    private final ThreadLocal<Mac> mac = ThreadLocal.withInitial(this::crearMac);
+
+    private record Eslabon(long secuencia, String hash) {
+    }
+
+    /**
+     * Añade el movimiento a la cadena de su cuenta y mueve la cabeza. La cuenta
+     * debe estar bloqueada (FOR UPDATE) para que dos escrituras no bifurquen la
+     * cadena.
+     */
+    public void encadenar(CuentaTecnica cuenta, Movimiento mov) {
+        long secuencia = cuenta.getSecuenciaCadena() != null ? cuenta.getSecuenciaCadena() + 1 : 1;
+        String anterior = secuencia == 1 ? genesis(cuenta.getId()) : cuenta.getFirmaIntegridad();
+
+        mov.setSecuenciaCuenta(secuencia);
+        mov.setHashCadena(calcularEslabon(anterior, cuenta.getId(), mov));
+
+        cuenta.setSecuenciaCadena(secuencia);
+        cuenta.setFirmaIntegridad(mov.getHashCadena());
+    }
+
+    /**
+     * Rechaza operar sobre una cuenta cuya cadena el verificador encontró rota.
+     */
+    public void validarCuenta(CuentaTecnica cuenta) {
+        if (cuenta.isIntegridadComprometida()) {
+            throw new RuntimeException(
+                    "ALERTA DE SEGURIDAD: La cuenta " + cuenta.getCodigoBic() + " ha sido alterada manualmente.");
+        }
+    }
+
+    /**
+     * Verifica los eslabones añadidos desde el checkpoint guardado en la cuenta,
+     * hasta la cabeza registrada, y avanza el checkpoint.
+     *
+     * @return false si la cadena está rota.
+     */
+    @Transactional
+    public boolean verificarCuenta(CuentaTecnica cuenta) {
+        if (cuenta.isIntegridadComprometida()) {
+            return false;
+        }
+        long hasta = cuenta.getSecuenciaCadena() != null ? cuenta.getSecuenciaCadena() : 0;
+        Eslabon ultimo = cuenta.getSecuenciaVerificada() != null && cuenta.getSecuenciaVerificada() > 0
+                ? new Eslabon(cuenta.getSecuenciaVerificada(), cuenta.getHashVerificado())
+                : new Eslabon(0, genesis(cuenta.getId()));
+        if (hasta < ultimo.secuencia()) {
+            return marcarComprometida(cuenta, "la cabeza retrocedió a " + hasta);
+        }
+        long desde = ultimo.secuencia();
+
+        while (ultimo.secuencia() < hasta) {
+            List<Movimiento> lote = movimientoRepo
+                    .findByCuentaIdAndSecuenciaCuentaBetweenOrderBySecuenciaCuentaAsc(cuenta.getId(),
+                            ultimo.secuencia() + 1, hasta, PageRequest.of(0, LOTE_VERIFICACION));
+            if (lote.isEmpty()) {
+                return marcarComprometida(cuenta, "faltan movimientos desde " + (ultimo.secuencia() + 1));
+            }
+            for (Movimiento m : lote) {
+                if (m.getSecuenciaCuenta() != ultimo.secuencia() + 1) {
+                    return marcarComprometida(cuenta, "falta el eslabón " + (ultimo.secuencia() + 1));
+                }
+                String esperado = calcularEslabon(ultimo.hash(), cuenta.getId(), m);
+                if (!esperado.equals(m.getHashCadena())) {
+                    return marcarComprometida(cuenta, "movimiento " + m.getId() + " alterado");
+                }
+                ultimo = new Eslabon(m.getSecuenciaCuenta(), m.getHashCadena());
+            }
+            // Los movimientos ya verificados no se vuelven a usar; la memoria queda acotada al lote
+            entityManager.clear();
+        }
+
+        if (hasta > 0 && !ultimo.hash().equals(cuenta.getFirmaIntegridad())) {
+            return marcarComprometida(cuenta, "la cabeza no coincide con el último movimiento");
+        }
+        if (ultimo.secuencia() > desde) {
+            cuentaRepo.guardarVerificacion(cuenta.getId(), ultimo.secuencia(), ultimo.hash());
+        }
+        return true;
+    }
+
+    /**
+     * Eslabón del que cuelga el movimiento siguiente a la posición indicada: el
+     * génesis de la cuenta si aún no tiene movimientos, o la cabeza guardada.
+     */
+    public String eslabonEn(UUID idCuenta, long secuencia, String cabeza) {
+        return secuencia == 0 ? genesis(idCuenta) : cabeza;
+    }
+
+    /**
+     * Comprueba un único eslabón contra el anterior; lo usa la conciliación para
+     * recorrer la cadena desde un snapshot.
+     */
+    public boolean eslabonValido(String anterior, UUID idCuenta, Movimiento m) {
+        return calcularEslabon(anterior, idCuenta, m).equals(m.getHashCadena());
+    }
+
+    public void firmarParticion(SaldoParticion p) {
+        p.setFirmaIntegridad(calcularFirmaParticion(p));
+    }
+
+    /**
+     * Comprueba la firma de una partición recién bloqueada; a diferencia de la
+     * cadena de movimientos, cada escritura de la partición la re-firma.
+     */
+    public void validarParticion(SaldoParticion p) {
+        if (!calcularFirmaParticion(p).equals(p.getFirmaIntegridad())) {
+            throw new RuntimeException("ALERTA DE SEGURIDAD: La partición " + p.getNumeroParticion()
+                    + " de la cuenta " + p.getCuenta().getCodigoBic() + " ha sido alterada manualmente.");
+        }
+    }
+
+    private String calcularFirmaParticion(SaldoParticion p) {
+        String datos = "PARTICION|" + p.getCuenta().getId() + "|" + p.getNumeroParticion() + "|"
+                + normalizar(p.getSaldoDisponible()) + "|" + normalizar(p.getFondosBloqueados());
+        return Base64.getEncoder().encodeToString(mac.get().doFinal(datos.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private boolean marcarComprometida(CuentaTecnica cuenta, String motivo) {
+        cuentaRepo.marcarComprometida(cuenta.getId());
+        cuenta.setIntegridadComprometida(true);
+        log.error("ALERTA DE SEGURIDAD: cadena de integridad rota en cuenta {}: {}", cuenta.getCodigoBic(), motivo);
+        return false;
+    }
+
+    // efectoContable entra en el MAC: en REVERSAL y SETTLEMENT su signo no se deduce del tipo ni del monto.
+    // Los movimientos anteriores a la columna lo tienen nulo y conservan el texto con el que se firmaron
+    private String calcularEslabon(String anterior, UUID idCuenta, Movimiento m) {
+        String datos = m.getSecuenciaCuenta() + "|" + idCuenta + "|" + m.getIdInstruccion() + "|" + m.getTipo()
+                + "|" + normalizar(m.getMonto()) + "|" + normalizar(m.getSaldoResultante()) + "|"
+                + m.getFechaRegistro() + "|" + m.getReferenciaId() + "|"
+                + (m.getEfectoContable() != null ? "EFECTO:" + normalizar(m.getEfectoContable()) + "|" : "")
+                + anterior;
+        byte[] firma = mac.get().doFinal(datos.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(firma);
+    }
+
+    private String genesis(UUID idCuenta) {
+        return "GENESIS|" + idCuenta;
+    }
+
+    // Mismo texto que el antiguo setScale(2).toPlainString(): las cadenas ya firmadas siguen validando
+    private String normalizar(Dinero valor) {
+        return valor.toString();
+    }
+
+    private Mac crearMac() {
+        try {
+            Mac nuevo = Mac.getInstance(ALGORITMO);
+            nuevo.init(new SecretKeySpec(clave.getBytes(StandardCharsets.UTF_8), ALGORITMO));
+            return nuevo;
+        } catch (Exception e) {
+            throw new RuntimeException("Error inicializando HMAC de integridad", e);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.dto.CuentaDTO;
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Motor de escritura del ledger: un único escritor por cuenta.
+ *
+ * Las cuentas se reparten por BIC entre particiones, cada una con su cola y un
+ * solo hilo. El hilo toma todas las operaciones pendientes (hasta
+ * {@code lote-maximo}), las aplica en orden de llegada dentro de una misma
+ * transacción y confirma el lote con un único commit (group commit). Las
+ * operaciones de una cuenta nunca corren en paralelo dentro de la réplica, y el
+ * FOR UPDATE del lote ordena las escrituras entre réplicas y con los caminos que
+ * no pasan por el motor (reversos, liquidación).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MotorLedger {
+
+    private final CuentaTecnicaRepository cuentaRepo;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${contabilidad.motor.particiones:8}")
+    private int numeroParticiones;
+
+    @Value("${contabilidad.motor.lote-maximo:256}")
+    private int loteMaximo;
+
+    // Espera máxima de ejecutar(): un hilo de partición atascado no debe colgar a quien llama
+    @Value("${contabilidad.motor.timeout-ms:30000}")
+    private long timeoutMs;
+
+    private final List<BlockingQueue<Operacion>> colas = new ArrayList<>();
+    private final List<Thread> hilos = new ArrayList<>();
+    private TransactionTemplate transaccion;
+    private volatile boolean activo = true;
+
+    private record Operacion(String bic, Function<CuentaTecnica, CuentaDTO> accion,
+            CompletableFuture<CuentaDTO> resultado) {
+    }
+
+    private record Resultado(CuentaDTO cuenta, RuntimeException error) {
+    }
+
+    @PostConstruct
+    void iniciar() {
+        this.transaccion = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < numeroParticiones; i++) {
+            BlockingQueue<Operacion> cola = new LinkedBlockingQueue<>();
+            Thread hilo = new Thread(() -> procesar(cola), "ledger-particion-" + i);
+            hilo.setDaemon(true);
+            colas.add(cola);
+            hilos.add(hilo);
+            hilo.start();
+        }
+        log.info("Motor de ledger iniciado: {} particiones, lotes de hasta {} operaciones", numeroParticiones,
+                loteMaximo);
+    }
+
+    @PreDestroy
+    void detener() {
+        activo = false;
+        hilos.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Encola la operación en la partición de la cuenta y espera a que su lote
+     * quede confirmado.
+     *
+     * La acción recibe la cuenta ya bloqueada. Debe validar antes de modificarla:
+     * si lanza una excepción sólo se descarta esa operación y el resto del lote
+     * sigue adelante.
+     *
+     * Si el lote no se confirma en {@code timeout-ms} se lanza un error, pero la
+     * operación sigue en la cola: el resultado queda indeterminado y quien llama
+     * debe tratarlo como tal (idempotencia por idInstruccion).
+     */
+    public CuentaDTO ejecutar(String bic, Function<CuentaTecnica, CuentaDTO> accion) {
+        CompletableFuture<CuentaDTO> resultado = encolar(bic, accion);
+        try {
+            return resultado.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Operación de ledger sin confirmar tras " + timeoutMs + " ms para BIC: " + bic);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException("Error en el motor de ledger", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Operación de ledger interrumpida para BIC: " + bic);
+        }
+    }
+
+    /**
+     * Como {@link #ejecutar} pero sin esperar: quien encola muchas operaciones
+     * deja que el motor las confirme en los mismos lotes.
+     */
+    public CompletableFuture<CuentaDTO> encolar(String bic, Function<CuentaTecnica, CuentaDTO> accion) {
+        Operacion op = new Operacion(bic, accion, new CompletableFuture<>());
+        if (!activo) {
+            op.resultado().completeExceptionally(new RuntimeException("Motor de ledger detenido"));
+            return op.resultado();
+        }
+        BlockingQueue<Operacion> cola = colas.get(Math.floorMod(bic.hashCode(), numeroParticiones));
+        cola.add(op);
+        // Encolada justo mientras se detenía: el hilo pudo vaciar la cola antes de que llegara
+        if (!activo && cola.remove(op)) {
+            op.resultado().completeExceptionally(new RuntimeException("Motor de ledger detenido"));
+        }
+        return op.resultado();
+    }
+
+    private void procesar(BlockingQueue<Operacion> cola) {
+        List<Operacion> lote = new ArrayList<>(loteMaximo);
+        while (activo) {
+            try {
+                lote.add(cola.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            cola.drainTo(lote, loteMaximo - 1);
+            try {
+                confirmarLote(lote);
+            } catch (Throwable t) {
+                // Un Error en una acción (o en el commit) no debe matar el hilo: la partición quedaría sin escritor
+                log.error("Lote de {} operaciones abortado en {}", lote.size(), Thread.currentThread().getName(), t);
+                RuntimeException error = new RuntimeException("Error en el motor de ledger", t);
+                lote.forEach(op -> op.resultado().completeExceptionally(error));
+            } finally {
+                lote.clear();
+            }
+        }
+        cola.drainTo(lote);
+        lote.forEach(op -> op.resultado()
+                .completeExceptionally(new RuntimeException("Motor de ledger detenido")));
+    }
+
+    private void confirmarLote(List<Operacion> lote) {
+        List<Resultado> resultados;
+        try {
+            resultados = transaccion.execute(status -> aplicar(lote));
+        } catch (RuntimeException e) {
+            if (lote.size() == 1) {
+                lote.get(0).resultado().completeExceptionally(e);
+                return;
+            }
+            // Fallo del commit (no de negocio): cada operación se reintenta sola para aislar la culpable
+            log.warn("Lote de {} operaciones rechazado al confirmar, se reintenta una a una: {}", lote.size(),
+                    e.getMessage());
+            lote.forEach(op -> confirmarLote(List.of(op)));
+            return;
+        }
+
+        for (int i = 0; i < lote.size(); i++) {
+            Resultado r = resultados.get(i);
+            if (r.error() != null) {
+                lote.get(i).resultado().completeExceptionally(r.error());
+            } else {
+                lote.get(i).resultado().complete(r.cuenta());
+            }
+        }
+    }
+
+    private List<Resultado> aplicar(List<Operacion> lote) {
+        Map<String, CuentaTecnica> cuentas = new HashMap<>();
+        for (CuentaTecnica c : cuentaRepo.findByCodigoBicInParaActualizar(
+                lote.stream().map(Operacion::bic).collect(Collectors.toSet()))) {
+            cuentas.put(c.getCodigoBic(), c);
+        }
+
+        List<Resultado> resultados = new ArrayList<>(lote.size());
+        for (Operacion op : lote) {
+            CuentaTecnica cuenta = cuentas.get(op.bic());
+            try {
+                if (cuenta == null) {
+                    throw new RuntimeException("Cuenta no encontrada para BIC: " + op.bic());
+                }
+                resultados.add(new Resultado(op.accion().apply(cuenta), null));
+            } catch (RuntimeException e) {
+                resultados.add(new Resultado(null, e));
+            }
+        }
+        return resultados;
+    }
+}
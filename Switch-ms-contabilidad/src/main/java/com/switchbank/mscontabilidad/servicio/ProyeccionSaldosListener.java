@@ -0,0 +1,30 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+/**
+ * Captura toda escritura de {@link CuentaTecnica}, venga del motor, de la
+ * liquidación, de un reverso o de las particiones, y la entrega a la
+ * proyección de saldos. La proyección se resuelve en el momento del evento
+ * porque Hibernate crea este listener antes que los repositorios.
+ */
+@Component
+public class ProyeccionSaldosListener {
+
+    private final ObjectProvider<ProyeccionSaldosServicio> proyeccion;
+
+    public ProyeccionSaldosListener(ObjectProvider<ProyeccionSaldosServicio> proyeccion) {
+        this.proyeccion = proyeccion;
+    }
+
+    @PostPersist
+    @PostUpdate
+    void cuentaEscrita(CuentaTecnica cuenta) {
+        proyeccion.getObject().registrarEscritura(cuenta);
+    }
+}
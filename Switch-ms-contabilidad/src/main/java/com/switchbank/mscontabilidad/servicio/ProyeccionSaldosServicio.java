@@ -0,0 +1,280 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.dto.CuentaDTO;
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Proyección en memoria de los saldos de las cuentas técnicas para las
+ * consultas de saldo. La verificación de disponibilidad de un pago no pasa por
+ * aquí: lee siempre la fila.
+ *
+ * Cada entrada lleva la versión de la fila ({@code @Version} de la cuenta).
+ * Las escrituras de esta réplica actualizan la proyección al confirmar su
+ * transacción y avisan al resto con un NOTIFY de PostgreSQL
+ * ({@code BIC:version}). Cada réplica guarda la última versión conocida por
+ * BIC y sólo responde desde memoria si su entrada la alcanza; si no, lee la
+ * fila. Mientras el LISTEN no está activo (arranque o reconexión) no se sirve
+ * nada desde memoria, porque podrían haberse perdido avisos.
+ *
+ * Las cuentas particionadas no se proyectan: sus reservas cambian filas
+ * {@code SaldoParticion} sin tocar la versión de la cuenta.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProyeccionSaldosServicio {
+
+    // Límite de NOTIFY en PostgreSQL: 8000 bytes por payload
+    private static final int MAX_PAYLOAD = 7000;
+
+    private final CuentaTecnicaRepository cuentaRepo;
+    private final DataSource dataSource;
+
+    @Value("${contabilidad.saldos.proyeccion.habilitada:true}")
+    private boolean habilitada;
+
+    // Cota de antigüedad: una entrada se relee aunque no haya llegado aviso (por si se perdió un NOTIFY)
+    @Value("${contabilidad.saldos.proyeccion.max-edad-ms:30000}")
+    private long maxEdadMs;
+
+    @Value("${contabilidad.saldos.proyeccion.canal:saldos_contabilidad}")
+    private String canal;
+
+    @Value("${spring.datasource.url}")
+    private String url;
+
+    @Value("${spring.datasource.username}")
+    private String usuario;
+
+    @Value("${spring.datasource.password}")
+    private String clave;
+
+    public record SaldoProyectado(UUID id, String codigoBic, Dinero saldoDisponible, String firmaIntegridad,
+            LocalDateTime ultimaConciliacion, long version, boolean particionada, long instante) {
+
+        static SaldoProyectado de(CuentaTecnica cuenta) {
+            return new SaldoProyectado(cuenta.getId(), cuenta.getCodigoBic(), cuenta.getSaldoDisponible(),
+                    cuenta.getFirmaIntegridad(), cuenta.getUltimaConciliacion(), cuenta.getVersion() != null ? cuenta.getVersion() : 0L,
+                    cuenta.isParticionada(), System.currentTimeMillis());
+        }
+
+        public CuentaDTO aDTO() {
+            return CuentaDTO.builder()
+                    .id(id)
+                    .codigoBic(codigoBic)
+                    .saldoDisponible(saldoDisponible)
+                    .firmaIntegridad(firmaIntegridad)
+                    .ultimaConciliacion(ultimaConciliacion)
+                    .build();
+        }
+    }
+
+    private final Map<String, SaldoProyectado> saldos = new ConcurrentHashMap<>();
+    private final Map<String, Long> versionesConocidas = new ConcurrentHashMap<>();
+
+    // Cambia cada vez que el canal se activa o se cae; una lectura de otra época no se guarda
+    private final AtomicLong epoca = new AtomicLong();
+    private volatile boolean canalActivo;
+    private volatile boolean activo = true;
+    private Thread escucha;
+
+    @PostConstruct
+    void iniciar() {
+        if (!habilitada) {
+            log.info("Proyección de saldos deshabilitada: las consultas leen siempre la base");
+            return;
+        }
+        escucha = new Thread(this::escuchar, "proyeccion-saldos-listen");
+        escucha.setDaemon(true);
+        escucha.start();
+    }
+
+    @PreDestroy
+    void detener() {
+        activo = false;
+        if (escucha != null) {
+            escucha.interrupt();
+        }
+    }
+
+    /**
+     * Saldo vigente de la cuenta, desde memoria si la entrada está al día.
+     * Vacío si la cuenta no existe o es particionada (el llamador calcula su
+     * saldo con las particiones).
+     */
+    public Optional<SaldoProyectado> obtener(String bic) {
+        if (canalActivo) {
+            SaldoProyectado p = saldos.get(bic);
+            if (p != null && p.version() >= versionesConocidas.getOrDefault(bic, 0L)
+                    && System.currentTimeMillis() - p.instante() < maxEdadMs) {
+                return p.particionada() ? Optional.empty() : Optional.of(p);
+            }
+        }
+
+        long epocaLectura = epoca.get();
+        Optional<SaldoProyectado> leido = cuentaRepo.findByCodigoBic(bic).map(SaldoProyectado::de);
+        if (canalActivo && epoca.get() == epocaLectura) {
+            leido.ifPresent(this::aplicar);
+        }
+        return leido.filter(p -> !p.particionada());
+    }
+
+    /**
+     * Llamado por {@link ProyeccionSaldosListener} en el flush. La proyección se
+     * actualiza y se avisa a las demás réplicas sólo tras el commit, una vez por
+     * transacción aunque el lote haya escrito muchas cuentas.
+     */
+    void registrarEscritura(CuentaTecnica cuenta) {
+        if (!habilitada) {
+            return;
+        }
+        SaldoProyectado escrito = SaldoProyectado.de(cuenta);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            saldos.remove(escrito.codigoBic());
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, SaldoProyectado> pendientes = (Map<String, SaldoProyectado>) TransactionSynchronizationManager
+                .getResource(this);
+        if (pendientes == null) {
+            Map<String, SaldoProyectado> nuevos = new LinkedHashMap<>();
+            TransactionSynchronizationManager.bindResource(this, nuevos);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publicar(nuevos.values());
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ProyeccionSaldosServicio.this);
+                }
+            });
+            pendientes = nuevos;
+        }
+        pendientes.put(escrito.codigoBic(), escrito);
+    }
+
+    private void publicar(Collection<SaldoProyectado> escritos) {
+        StringBuilder payload = new StringBuilder();
+        for (SaldoProyectado p : escritos) {
+            versionesConocidas.merge(p.codigoBic(), p.version(), Math::max);
+            aplicar(p);
+
+            if (payload.length() > MAX_PAYLOAD) {
+                notificar(payload.toString());
+                payload.setLength(0);
+            }
+            if (payload.length() > 0) {
+                payload.append(',');
+            }
+            payload.append(p.codigoBic()).append(':').append(p.version());
+        }
+        if (payload.length() > 0) {
+            notificar(payload.toString());
+        }
+    }
+
+    private void aplicar(SaldoProyectado p) {
+        saldos.merge(p.codigoBic(), p, (actual, nuevo) -> nuevo.version() >= actual.version() ? nuevo : actual);
+    }
+
+    // Conexión propia en autocommit: en afterCommit la del ledger sigue ligada al hilo pero ya confirmó
+    private void notificar(String payload) {
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(true);
+            try (PreparedStatement ps = con.prepareStatement("SELECT pg_notify(?, ?)")) {
+                ps.setString(1, canal);
+                ps.setString(2, payload);
+                ps.execute();
+            }
+        } catch (SQLException e) {
+            // Las otras réplicas releen la cuenta al vencer max-edad-ms
+            log.error("No se pudo notificar la escritura de saldos ({}): {}", payload, e.getMessage());
+        }
+    }
+
+    private void recibir(String payload) {
+        for (String item : payload.split(",")) {
+            int sep = item.lastIndexOf(':');
+            if (sep <= 0) {
+                continue;
+            }
+            String bic = item.substring(0, sep);
+            long version = Long.parseLong(item.substring(sep + 1));
+            versionesConocidas.merge(bic, version, Math::max);
+        }
+    }
+
+    private void escuchar() {
+        while (activo) {
+            try (Connection con = DriverManager.getConnection(url, usuario, clave)) {
+                try (Statement st = con.createStatement()) {
+                    st.execute("LISTEN " + canal);
+                }
+                PGConnection pg = con.unwrap(PGConnection.class);
+                reiniciar(true);
+                log.info("Proyección de saldos escuchando el canal {}", canal);
+
+                while (activo) {
+                    PGNotification[] avisos = pg.getNotifications(1000);
+                    if (avisos != null) {
+                        for (PGNotification aviso : avisos) {
+                            recibir(aviso.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (activo) {
+                    log.warn("Canal de saldos caído, se sirve desde la base hasta reconectar: {}", e.getMessage());
+                }
+            } finally {
+                reiniciar(false);
+            }
+
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    // Al activar o perder el canal se descarta todo: pudo haber avisos que no llegaron
+    private void reiniciar(boolean activar) {
+        canalActivo = false;
+        epoca.incrementAndGet();
+        saldos.clear();
+        versionesConocidas.clear();
+        canalActivo = activar;
+    }
+}
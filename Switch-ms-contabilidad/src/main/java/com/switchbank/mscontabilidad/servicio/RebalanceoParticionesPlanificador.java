@@ -0,0 +1,35 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebalancea periódicamente las cuentas con saldo particionado y refresca qué
+ * BICs usan ese modo.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RebalanceoParticionesPlanificador {
+
+    private final SaldoParticionadoServicio particiones;
+
+    @Scheduled(fixedDelayString = "${contabilidad.particiones.rebalanceo-ms:5000}")
+    public void rebalancear() {
+        try {
+            particiones.refrescarParticionados();
+        } catch (Exception e) {
+            log.warn("No se pudo refrescar las cuentas particionadas: {}", e.getMessage());
+            return;
+        }
+        for (String bic : particiones.bicsParticionados()) {
+            try {
+                particiones.rebalancear(bic);
+            } catch (Exception e) {
+                log.error("Error rebalanceando particiones de {}: {}", bic, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import com.switchbank.mscontabilidad.modelo.RetencionFondos;
+import com.switchbank.mscontabilidad.modelo.SaldoParticion;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+import com.switchbank.mscontabilidad.repositorio.RetencionFondosRepository;
+import com.switchbank.mscontabilidad.repositorio.SaldoParticionRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Saldo particionado para cuentas de alto volumen.
+ *
+ * El disponible de la cuenta se reparte en N filas {@link SaldoParticion}. Una
+ * reserva empieza por la partición que le toca según el hash de su
+ * instrucción y, si no alcanza o está ocupada, sigue con las hermanas. Los
+ * créditos caen en la fila principal y el rebalanceo periódico los reparte.
+ * El saldo de la cuenta es siempre la fila principal más la suma de las
+ * particiones.
+ *
+ * Orden de bloqueo: fila principal y luego particiones por número. Una
+ * reserva particionada sólo toma particiones con SKIP LOCKED y nunca espera:
+ * si lo libre no alcanza, deshace su transacción (soltando lo que tomó) y la
+ * reserva sigue por la fila principal, que sí respeta ese orden. Así ninguna
+ * transacción espera una partición mientras retiene otra fuera de orden.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SaldoParticionadoServicio {
+
+    private static final int MAX_PARTICIONES = 64;
+
+    private final CuentaTecnicaRepository cuentaRepo;
+    private final SaldoParticionRepository particionRepo;
+    private final IntegridadLedgerServicio integridad;
+    private final RetencionFondosRepository retencionRepo;
+
+    // BICs en modo particionado según la última lectura; sólo decide el camino rápido de las reservas
+    private final Set<String> bicsParticionados = ConcurrentHashMap.newKeySet();
+
+    public boolean esParticionada(String bic) {
+        return bicsParticionados.contains(bic);
+    }
+
+    public List<String> bicsParticionados() {
+        return List.copyOf(bicsParticionados);
+    }
+
+    public void refrescarParticionados() {
+        List<String> actuales = cuentaRepo.findBicsParticionados();
+        bicsParticionados.retainAll(actuales);
+        bicsParticionados.addAll(actuales);
+    }
+
+    /**
+     * Cambia el número de particiones de la cuenta (1 desactiva el modo). Todo el
+     * saldo vuelve primero a la fila principal y luego se reparte.
+     */
+    @Transactional
+    public CuentaTecnica configurarParticiones(String bic, int cantidad) {
+        if (cantidad < 1 || cantidad > MAX_PARTICIONES) {
+            throw new RuntimeException("El número de particiones debe estar entre 1 y " + MAX_PARTICIONES);
+        }
+        CuentaTecnica cuenta = cuentaRepo.findByCodigoBicParaActualizar(bic)
+                .orElseThrow(() -> new RuntimeException("Cuenta no encontrada para BIC: " + bic));
+        integridad.validarCuenta(cuenta);
+
+        List<SaldoParticion> actuales = particionRepo.findParaActualizar(cuenta.getId());
+        for (SaldoParticion p : actuales) {
+            integridad.validarParticion(p);
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().mas(p.getSaldoDisponible()));
+            cuenta.setFondosBloqueados(cuenta.getFondosBloqueados().mas(p.getFondosBloqueados()));
+        }
+        particionRepo.deleteAll(actuales);
+        // Hibernate ordena los INSERT antes que los DELETE: sin este flush chocaría uk_saldo_particion
+        particionRepo.flush();
+
+        if (cantidad == 1) {
+            cuenta.setParticionesSaldo(null);
+            bicsParticionados.remove(bic);
+            log.info("Saldo particionado desactivado para {}", bic);
+            return cuenta;
+        }
+
+        List<SaldoParticion> nuevas = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            SaldoParticion p = new SaldoParticion();
+            p.setCuenta(cuenta);
+            p.setNumeroParticion(i);
+            nuevas.add(p);
+        }
+        cuenta.setParticionesSaldo(cantidad);
+        distribuir(cuenta, nuevas);
+        particionRepo.saveAll(nuevas);
+        bicsParticionados.add(bic);
+        log.info("Saldo de {} particionado en {} filas", bic, cantidad);
+        return cuenta;
+    }
+
+    /**
+     * Reserva repartida entre particiones, sin tocar la fila principal. Deja la
+     * retención de la instrucción en la misma transacción.
+     *
+     * @return la cuenta (sin bloquear), o vacío si la reserva debe ir por el
+     *         camino normal: la cuenta ya no está particionada o las particiones
+     *         libres no alcanzaron. En el segundo caso la transacción se deshace
+     *         y no queda nada tomado ni bloqueado.
+     */
+    @Transactional
+    public Optional<CuentaTecnica> reservar(String bic, UUID idInstruccion, Dinero monto, LocalDateTime ahora,
+            LocalDateTime expira) {
+        CuentaTecnica cuenta = cuentaRepo.findByCodigoBic(bic)
+                .orElseThrow(() -> new RuntimeException("Cuenta no encontrada para BIC: " + bic));
+        List<Long> ids = particionRepo.findIdsByCuenta(cuenta.getId());
+        if (!cuenta.isParticionada() || ids.isEmpty()) {
+            bicsParticionados.remove(bic);
+            return Optional.empty();
+        }
+        integridad.validarCuenta(cuenta);
+        if (idInstruccion != null && retencionRepo.existsById(idInstruccion)) {
+            return Optional.of(cuenta);
+        }
+
+        int n = ids.size();
+        int inicio = idInstruccion != null ? Math.floorMod(idInstruccion.hashCode(), n) : 0;
+        Dinero pendiente = monto;
+
+        for (int i = 0; i < n && pendiente.esPositivo(); i++) {
+            Optional<SaldoParticion> libre = particionRepo.findByIdSinEspera(ids.get((inicio + i) % n));
+            if (libre.isPresent()) {
+                pendiente = tomar(libre.get(), pendiente);
+            }
+        }
+
+        if (pendiente.esPositivo()) {
+            // Esperar aquí una partición ocupada, reteniendo las ya tomadas, puede cruzarse con otra reserva
+            // o con el rebalanceo. El camino normal bloquea la fila principal y las particiones en orden
+            // y también ve los créditos que aún no se repartieron.
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            log.debug("Particiones libres de {} sin saldo para {}; se reserva por la fila principal", bic, monto);
+            return Optional.empty();
+        }
+        if (idInstruccion != null) {
+            retencionRepo.save(RetencionFondos.activa(cuenta, idInstruccion, monto, ahora, expira));
+        }
+        return Optional.of(cuenta);
+    }
+
+    /**
+     * Trae a la fila principal (ya bloqueada) el disponible de las particiones
+     * que falte para cubrir {@code monto}. Valida antes de mover nada.
+     */
+    public void cubrirDesdeParticiones(CuentaTecnica cuenta, Dinero monto, String mensajeInsuficiente) {
+        Dinero faltante = monto.menos(cuenta.getSaldoDisponible());
+        if (!faltante.esPositivo()) {
+            return;
+        }
+        List<SaldoParticion> particiones = particionRepo.findParaActualizar(cuenta.getId());
+        Dinero disponible = Dinero.CERO;
+        for (SaldoParticion p : particiones) {
+            integridad.validarParticion(p);
+            disponible = disponible.mas(p.getSaldoDisponible());
+        }
+        if (disponible.menorQue(faltante)) {
+            throw new RuntimeException(mensajeInsuficiente);
+        }
+
+        for (SaldoParticion p : particiones) {
+            if (!faltante.esPositivo()) {
+                break;
+            }
+            Dinero tomado = p.getSaldoDisponible().min(faltante);
+            p.setSaldoDisponible(p.getSaldoDisponible().menos(tomado));
+            cuenta.setSaldoDisponible(cuenta.getSaldoDisponible().mas(tomado));
+            faltante = faltante.menos(tomado);
+            integridad.firmarParticion(p);
+        }
+    }
+
+    /**
+     * Pasa a la fila principal (ya bloqueada) todos los fondos bloqueados de las
+     * particiones, para que la liquidación los libere de un solo sitio.
+     */
+    public void consolidarBloqueados(CuentaTecnica cuenta) {
+        for (SaldoParticion p : particionRepo.findParaActualizar(cuenta.getId())) {
+            integridad.validarParticion(p);
+            if (!p.getFondosBloqueados().esCero()) {
+                cuenta.setFondosBloqueados(cuenta.getFondosBloqueados().mas(p.getFondosBloqueados()));
+                p.setFondosBloqueados(Dinero.CERO);
+                integridad.firmarParticion(p);
+            }
+        }
+    }
+
+    /**
+     * Saldo visible de la cuenta: fila principal más particiones.
+     */
+    public Dinero saldoDisponibleTotal(CuentaTecnica cuenta) {
+        if (!cuenta.isParticionada()) {
+            return cuenta.getSaldoDisponible();
+        }
+        return cuenta.getSaldoDisponible().mas(Dinero.de(particionRepo.sumarSaldoDisponible(cuenta.getId())));
+    }
+
+    /**
+     * Reparte de nuevo el disponible si la fila principal acumuló créditos (o quedó
+     * negativa tras una liquidación) o alguna
+     * partición quedó por debajo de la mitad de su cuota.
+     */
+    @Transactional
+    public void rebalancear(String bic) {
+        CuentaTecnica cuenta = cuentaRepo.findByCodigoBicParaActualizar(bic).orElse(null);
+        if (cuenta == null || !cuenta.isParticionada()) {
+            return;
+        }
+        List<SaldoParticion> particiones = particionRepo.findParaActualizar(cuenta.getId());
+        if (particiones.isEmpty()) {
+            return;
+        }
+
+        Dinero total = cuenta.getSaldoDisponible();
+        for (SaldoParticion p : particiones) {
+            integridad.validarParticion(p);
+            total = total.mas(p.getSaldoDisponible());
+        }
+        Dinero mitadCuota = Dinero.deCentavos(total.centavos() / (2L * particiones.size()));
+        boolean desbalanceada = !cuenta.getSaldoDisponible().esCero()
+                || particiones.stream().anyMatch(p -> p.getSaldoDisponible().menorQue(mitadCuota));
+        if (desbalanceada) {
+            distribuir(cuenta, particiones);
+        }
+    }
+
+    private Dinero tomar(SaldoParticion p, Dinero pendiente) {
+        integridad.validarParticion(p);
+        Dinero tomado = p.getSaldoDisponible().min(pendiente);
+        if (!tomado.esPositivo()) {
+            return pendiente;
+        }
+        p.setSaldoDisponible(p.getSaldoDisponible().menos(tomado));
+        p.setFondosBloqueados(p.getFondosBloqueados().mas(tomado));
+        integridad.firmarParticion(p);
+        return pendiente.menos(tomado);
+    }
+
+    // Disponible de la fila principal y las particiones a partes iguales; el resto de centavos a la partición 0
+    private void distribuir(CuentaTecnica cuenta, List<SaldoParticion> particiones) {
+        Dinero total = cuenta.getSaldoDisponible();
+        for (SaldoParticion p : particiones) {
+            total = total.mas(p.getSaldoDisponible());
+        }
+        // División entera de centavos: trunca hacia cero, como el RoundingMode.DOWN anterior
+        Dinero cuota = Dinero.deCentavos(total.centavos() / particiones.size());
+        Dinero resto = Dinero.deCentavos(total.centavos() - cuota.centavos() * particiones.size());
+
+        for (SaldoParticion p : particiones) {
+            p.setSaldoDisponible(p.getNumeroParticion() == 0 ? cuota.mas(resto) : cuota);
+            integridad.firmarParticion(p);
+        }
+        cuenta.setSaldoDisponible(Dinero.CERO);
+    }
+}
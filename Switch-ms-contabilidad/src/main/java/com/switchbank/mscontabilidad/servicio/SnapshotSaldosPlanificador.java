@@ -0,0 +1,41 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.dto.ConciliacionDTO;
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Concilia periódicamente todas las cuentas y deja un snapshot nuevo en las
+ * que cuadran, para que la siguiente pasada sólo reproduzca lo ocurrido desde
+ * ésta.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SnapshotSaldosPlanificador {
+
+    private final CuentaTecnicaRepository cuentaRepo;
+    private final ConciliacionSaldosServicio conciliacion;
+
+    @Scheduled(fixedDelayString = "${contabilidad.snapshots.intervalo-ms:900000}",
+            initialDelayString = "${contabilidad.snapshots.retardo-inicial-ms:60000}")
+    public void conciliarCuentas() {
+        int conciliadas = 0;
+        for (CuentaTecnica cuenta : cuentaRepo.findAll()) {
+            try {
+                ConciliacionDTO r = conciliacion.conciliar(cuenta.getCodigoBic(), true);
+                if (r.isConciliada()) {
+                    conciliadas++;
+                }
+            } catch (Exception e) {
+                log.error("Error conciliando la cuenta {}: {}", cuenta.getCodigoBic(), e.getMessage());
+            }
+        }
+        log.info("Snapshots de saldo: {} cuentas conciliadas", conciliadas);
+    }
+}
@@ -0,0 +1,33 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Recorre periódicamente la cadena de integridad de todas las cuentas. Cada
+ * pasada sólo verifica los movimientos nuevos desde la anterior.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VerificadorIntegridadPlanificador {
+
+    private final CuentaTecnicaRepository cuentaRepo;
+    private final IntegridadLedgerServicio integridad;
+
+    @Scheduled(fixedDelayString = "${contabilidad.integridad.verificacion-ms:60000}")
+    public void verificarCadenas() {
+        for (CuentaTecnica cuenta : cuentaRepo.findAll()) {
+            try {
+                integridad.verificarCuenta(cuenta);
+            } catch (Exception e) {
+                log.error("Error verificando integridad de la cuenta {}: {}", cuenta.getCodigoBic(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.dto.CuentaDTO;
+import com.switchbank.mscontabilidad.dto.RegistroMovimientoRequest;
+import com.switchbank.mscontabilidad.dto.SolicitudCompensacionDTO;
+import com.switchbank.mscontabilidad.mapper.ContabilidadMapper;
+import com.switchbank.mscontabilidad.modelo.*;
+import com.switchbank.mscontabilidad.repositorio.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ContabilidadServicioTest {
+
+    private static final String BIC = "BANKA";
+
+    @Mock
+    private CuentaTecnicaRepository cuentaRepo;
+    @Mock
+    private MovimientoRepository movimientoRepo;
+    @Mock
+    private IntegridadLedgerServicio integridad;
+    @Mock
+    private MotorLedger motor;
+    @Mock
+    private SaldoParticionRepository particionRepo;
+    @Mock
+    private RetencionFondosRepository retencionRepo;
+    @Mock
+    private ProyeccionSaldosServicio proyeccion;
+
+    private ContabilidadServicio servicio;
+    private CuentaTecnica cuenta;
+    private SaldoParticion p0;
+    private SaldoParticion p1;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        SaldoParticionadoServicio particiones = new SaldoParticionadoServicio(cuentaRepo, particionRepo, integridad,
+                retencionRepo);
+        servicio = new ContabilidadServicio(cuentaRepo, movimientoRepo, new ContabilidadMapper(), integridad, motor,
+                particiones, retencionRepo, proyeccion);
+
+        cuenta = new CuentaTecnica(BIC);
+        cuenta.setId(UUID.randomUUID());
+        cuenta.setParticionesSaldo(2);
+        p0 = particion(0, "100.00", 10L);
+        p1 = particion(1, "100.00", 11L);
+
+        when(cuentaRepo.findBicsParticionados()).thenReturn(List.of(BIC));
+        when(cuentaRepo.findByCodigoBic(BIC)).thenReturn(Optional.of(cuenta));
+        when(particionRepo.findIdsByCuenta(cuenta.getId())).thenReturn(List.of(10L, 11L));
+        when(particionRepo.findByIdSinEspera(10L)).thenReturn(Optional.of(p0));
+        when(particionRepo.findByIdSinEspera(11L)).thenReturn(Optional.of(p1));
+        when(particionRepo.findParaActualizar(cuenta.getId())).thenReturn(List.of(p0, p1));
+        when(particionRepo.sumarSaldoDisponible(cuenta.getId()))
+                .thenAnswer(i -> p0.getSaldoDisponible().mas(p1.getSaldoDisponible()).aBigDecimal());
+        // El motor ejecuta la acción en el hilo del test con la cuenta "bloqueada"
+        when(motor.ejecutar(anyString(), any())).thenAnswer(
+                i -> ((Function<CuentaTecnica, CuentaDTO>) i.getArgument(1)).apply(cuenta));
+        particiones.refrescarParticionados();
+    }
+
+    @Test
+    void liberarReservaParticionada_DevuelveLosFondosSinDejarNegativaLaFilaPrincipal() {
+        UUID idInstruccion = UUID.randomUUID();
+        RetencionFondos[] guardada = new RetencionFondos[1];
+        when(retencionRepo.existsById(idInstruccion)).thenReturn(false);
+        when(retencionRepo.save(any(RetencionFondos.class))).thenAnswer(i -> guardada[0] = i.getArgument(0));
+
+        RegistroMovimientoRequest req = new RegistroMovimientoRequest();
+        req.setCodigoBic(BIC);
+        req.setIdInstruccion(idInstruccion);
+        req.setMonto(Dinero.valueOf("150.00"));
+        servicio.reservarFondos(req);
+
+        // La reserva bloqueó en las particiones, no en la fila principal
+        assertNotNull(guardada[0]);
+        assertEquals(Dinero.CERO, cuenta.getFondosBloqueados());
+        assertEquals(Dinero.valueOf("150.00"), p0.getFondosBloqueados().mas(p1.getFondosBloqueados()));
+        assertEquals(Dinero.valueOf("50.00"), p0.getSaldoDisponible().mas(p1.getSaldoDisponible()));
+
+        when(retencionRepo.findConCuenta(idInstruccion)).thenReturn(Optional.of(guardada[0]));
+        when(retencionRepo.findById(idInstruccion)).thenReturn(Optional.of(guardada[0]));
+        CuentaDTO resultado = servicio.liberarRetencion(idInstruccion);
+
+        assertEquals(EstadoRetencion.LIBERADA, guardada[0].getEstado());
+        assertEquals(Dinero.CERO, cuenta.getFondosBloqueados());
+        assertEquals(Dinero.CERO, p0.getFondosBloqueados());
+        assertEquals(Dinero.CERO, p1.getFondosBloqueados());
+        assertEquals(Dinero.valueOf("200.00"), resultado.getSaldoDisponible());
+    }
+
+    @Test
+    void liberarDosVeces_NoDevuelveFondosDosVeces() {
+        UUID idInstruccion = UUID.randomUUID();
+        RetencionFondos retencion = RetencionFondos.activa(cuenta, idInstruccion, Dinero.valueOf("30.00"), null,
+                null);
+        p0.setSaldoDisponible(Dinero.valueOf("70.00"));
+        p0.setFondosBloqueados(Dinero.valueOf("30.00"));
+        when(retencionRepo.findConCuenta(idInstruccion)).thenReturn(Optional.of(retencion));
+        when(retencionRepo.findById(idInstruccion)).thenReturn(Optional.of(retencion));
+
+        servicio.liberarRetencion(idInstruccion);
+        CuentaDTO segunda = servicio.liberarRetencion(idInstruccion);
+
+        assertEquals(Dinero.CERO, cuenta.getFondosBloqueados());
+        assertEquals(Dinero.CERO, p0.getFondosBloqueados());
+        assertEquals(Dinero.valueOf("200.00"), segunda.getSaldoDisponible());
+    }
+
+    @Test
+    void reservarFallarYCerrar_ElCierreNoDesbloqueaOtrasRetenciones() {
+        Map<UUID, RetencionFondos> retenciones = usarCuentaSinParticiones("200.00");
+        UUID fallida = UUID.randomUUID();
+        UUID otra = UUID.randomUUID();
+
+        servicio.reservarFondos(reserva(fallida, "50.00"));
+        servicio.liberarRetencion(fallida);
+        servicio.reservarFondos(reserva(otra, "30.00"));
+
+        // La posición aún cuenta el PAGO fallido en totalDebitos; su retención ya devolvió los fondos
+        servicio.aplicarCompensacion(compensacion(7, "50.00", "0.00", fallida));
+
+        assertEquals(Dinero.valueOf("170.00"), cuenta.getSaldoDisponible());
+        assertEquals(Dinero.valueOf("30.00"), cuenta.getFondosBloqueados());
+        assertEquals(EstadoRetencion.LIBERADA, retenciones.get(fallida).getEstado());
+        assertEquals(EstadoRetencion.ACTIVA, retenciones.get(otra).getEstado());
+    }
+
+    @Test
+    void reservarCerrarYLiberar_SoloLiquidaLoCapturadoYNuncaDejaBloqueadosNegativos() {
+        Map<UUID, RetencionFondos> retenciones = usarCuentaSinParticiones("200.00");
+        UUID capturada = UUID.randomUUID();
+        UUID pendiente = UUID.randomUUID();
+
+        servicio.reservarFondos(reserva(capturada, "60.00"));
+        servicio.capturarRetencion(capturada);
+        servicio.reservarFondos(reserva(pendiente, "50.00"));
+
+        servicio.aplicarCompensacion(compensacion(8, "110.00", "-60.00", capturada, pendiente));
+
+        // Sólo la capturada se desbloquea y se asienta; la pendiente sigue bloqueada
+        assertEquals(EstadoRetencion.LIQUIDADA, retenciones.get(capturada).getEstado());
+        assertEquals(Dinero.valueOf("50.00"), cuenta.getFondosBloqueados());
+        assertEquals(Dinero.valueOf("90.00"), cuenta.getSaldoDisponible());
+
+        servicio.liberarRetencion(pendiente);
+        assertThrows(RuntimeException.class, () -> servicio.liberarRetencion(capturada));
+
+        assertEquals(Dinero.CERO, cuenta.getFondosBloqueados());
+        assertEquals(Dinero.valueOf("140.00"), cuenta.getSaldoDisponible());
+    }
+
+    @Test
+    void liberarSinFondosBloqueadosQueLaCubran_SeRechaza() {
+        Map<UUID, RetencionFondos> retenciones = usarCuentaSinParticiones("200.00");
+        UUID idInstruccion = UUID.randomUUID();
+        servicio.reservarFondos(reserva(idInstruccion, "50.00"));
+        cuenta.setFondosBloqueados(Dinero.valueOf("20.00"));
+
+        assertThrows(RuntimeException.class, () -> servicio.liberarRetencion(idInstruccion));
+        assertEquals(Dinero.valueOf("20.00"), cuenta.getFondosBloqueados());
+        assertEquals(EstadoRetencion.ACTIVA, retenciones.get(idInstruccion).getEstado());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void capturarTrasExpirar_VuelveABloquearLosFondos() {
+        Map<UUID, RetencionFondos> retenciones = usarCuentaSinParticiones("200.00");
+        UUID idInstruccion = UUID.randomUUID();
+        servicio.reservarFondos(reserva(idInstruccion, "50.00"));
+        when(retencionRepo.findExpiradas(any(), any())).thenReturn(List.of(retenciones.get(idInstruccion)));
+        when(motor.encolar(anyString(), any())).thenAnswer(i -> CompletableFuture.completedFuture(
+                ((Function<CuentaTecnica, CuentaDTO>) i.getArgument(1)).apply(cuenta)));
+        servicio.liberarRetencionesExpiradas(10);
+        assertEquals(Dinero.CERO, cuenta.getFondosBloqueados());
+
+        // Recuperación tardía del núcleo: el pago sí se completó
+        servicio.capturarRetencion(idInstruccion);
+
+        assertEquals(EstadoRetencion.CAPTURADA, retenciones.get(idInstruccion).getEstado());
+        assertEquals(Dinero.valueOf("50.00"), cuenta.getFondosBloqueados());
+        assertEquals(Dinero.valueOf("150.00"), cuenta.getSaldoDisponible());
+
+        servicio.aplicarCompensacion(compensacion(9, "50.00", "-50.00", idInstruccion));
+        assertEquals(Dinero.CERO, cuenta.getFondosBloqueados());
+        assertEquals(Dinero.valueOf("150.00"), cuenta.getSaldoDisponible());
+    }
+
+    @Test
+    void verificarSaldo_LeeLaFilaAunqueLaProyeccionDigaOtraCosa() {
+        usarCuentaSinParticiones("40.00");
+        when(cuentaRepo.findByCodigoBic("BANKB")).thenReturn(Optional.of(cuenta));
+        // Entrada de otra réplica que no recibió el NOTIFY del último débito
+        when(proyeccion.obtener("BANKB")).thenReturn(Optional.of(new ProyeccionSaldosServicio.SaldoProyectado(
+                cuenta.getId(), "BANKB", Dinero.valueOf("500.00"), null, null, 2L, false, System.currentTimeMillis())));
+
+        assertFalse(servicio.verificarSaldo("BANKB", Dinero.valueOf("100.00")));
+        assertTrue(servicio.verificarSaldo("BANKB", Dinero.valueOf("40.00")));
+    }
+
+    // Cuenta en modo normal (sin particiones) con las retenciones guardadas en memoria
+    private Map<UUID, RetencionFondos> usarCuentaSinParticiones(String disponible) {
+        cuenta = new CuentaTecnica("BANKB");
+        cuenta.setId(UUID.randomUUID());
+        cuenta.setSaldoDisponible(Dinero.valueOf(disponible));
+        when(cuentaRepo.findByCodigoBicInParaActualizar(anyCollection())).thenReturn(List.of(cuenta));
+
+        Map<UUID, RetencionFondos> retenciones = new HashMap<>();
+        when(retencionRepo.save(any(RetencionFondos.class))).thenAnswer(i -> {
+            RetencionFondos r = i.getArgument(0);
+            retenciones.put(r.getIdInstruccion(), r);
+            return r;
+        });
+        when(retencionRepo.existsById(any())).thenAnswer(i -> retenciones.containsKey(i.getArgument(0)));
+        when(retencionRepo.findById(any())).thenAnswer(i -> Optional.ofNullable(retenciones.get(i.getArgument(0))));
+        when(retencionRepo.findConCuenta(any()))
+                .thenAnswer(i -> Optional.ofNullable(retenciones.get(i.getArgument(0))));
+        when(retencionRepo.findCapturadas(any(), anyCollection())).thenAnswer(i -> {
+            Collection<UUID> ids = i.getArgument(1);
+            return retenciones.values().stream()
+                    .filter(r -> ids.contains(r.getIdInstruccion()) && r.getEstado() == EstadoRetencion.CAPTURADA)
+                    .toList();
+        });
+        return retenciones;
+    }
+
+    private RegistroMovimientoRequest reserva(UUID idInstruccion, String monto) {
+        RegistroMovimientoRequest req = new RegistroMovimientoRequest();
+        req.setCodigoBic(cuenta.getCodigoBic());
+        req.setIdInstruccion(idInstruccion);
+        req.setMonto(Dinero.valueOf(monto));
+        return req;
+    }
+
+    private SolicitudCompensacionDTO compensacion(int cicloId, String debitos, String neta, UUID... instrucciones) {
+        SolicitudCompensacionDTO.PosicionBancariaDTO pos = new SolicitudCompensacionDTO.PosicionBancariaDTO();
+        pos.setBic(cuenta.getCodigoBic());
+        pos.setTotalDebitos(Dinero.valueOf(debitos));
+        pos.setTotalCreditos(Dinero.valueOf(debitos).mas(Dinero.valueOf(neta)));
+        pos.setPosicionNeta(Dinero.valueOf(neta));
+        pos.setInstrucciones(List.of(instrucciones));
+        SolicitudCompensacionDTO req = new SolicitudCompensacionDTO();
+        req.setCicloId(cicloId);
+        req.setPosiciones(List.of(pos));
+        return req;
+    }
+
+    private SaldoParticion particion(int numero, String disponible, Long id) {
+        SaldoParticion p = new SaldoParticion();
+        p.setId(id);
+        p.setCuenta(cuenta);
+        p.setNumeroParticion(numero);
+        p.setSaldoDisponible(Dinero.valueOf(disponible));
+        return p;
+    }
+}
@@ -0,0 +1,70 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.modelo.Dinero;
+import com.switchbank.mscontabilidad.modelo.Movimiento;
+import com.switchbank.mscontabilidad.modelo.TipoMovimiento;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+import com.switchbank.mscontabilidad.repositorio.MovimientoRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class IntegridadLedgerServicioTest {
+
+    private IntegridadLedgerServicio integridad;
+    private CuentaTecnica cuenta;
+
+    @BeforeEach
+    void setUp() {
+        integridad = new IntegridadLedgerServicio(mock(MovimientoRepository.class),
+                mock(CuentaTecnicaRepository.class), mock(EntityManager.class));
+        ReflectionTestUtils.setField(integridad, "clave", "CLAVE_TEST");
+        cuenta = new CuentaTecnica("BANKA");
+        cuenta.setId(UUID.randomUUID());
+    }
+
+    @Test
+    void invertirElSignoDelEfectoRompeElEslabon() {
+        Movimiento liquidacion = movimiento(TipoMovimiento.SETTLEMENT, "75.00", Dinero.valueOf("-75.00"));
+        String anterior = integridad.eslabonEn(cuenta.getId(), 0, null);
+        integridad.encadenar(cuenta, liquidacion);
+        assertTrue(integridad.eslabonValido(anterior, cuenta.getId(), liquidacion));
+
+        // Mismo monto y tipo: sólo el signo delata la alteración
+        liquidacion.setEfectoContable(Dinero.valueOf("75.00"));
+
+        assertFalse(integridad.eslabonValido(anterior, cuenta.getId(), liquidacion));
+    }
+
+    @Test
+    void movimientoSinEfectoContableSigueValidando() {
+        Movimiento antiguo = movimiento(TipoMovimiento.CREDIT, "10.00", null);
+        String anterior = integridad.eslabonEn(cuenta.getId(), 0, null);
+        integridad.encadenar(cuenta, antiguo);
+
+        assertTrue(integridad.eslabonValido(anterior, cuenta.getId(), antiguo));
+
+        antiguo.setEfectoContable(Dinero.valueOf("10.00"));
+        assertFalse(integridad.eslabonValido(anterior, cuenta.getId(), antiguo));
+    }
+
+    private Movimiento movimiento(TipoMovimiento tipo, String monto, Dinero efecto) {
+        Movimiento m = new Movimiento();
+        m.setCuenta(cuenta);
+        m.setIdInstruccion(UUID.randomUUID());
+        m.setTipo(tipo);
+        m.setMonto(Dinero.valueOf(monto));
+        m.setEfectoContable(efecto);
+        m.setSaldoResultante(Dinero.valueOf("100.00"));
+        m.setFechaRegistro(LocalDateTime.of(2026, 1, 5, 10, 0));
+        return m;
+    }
+}
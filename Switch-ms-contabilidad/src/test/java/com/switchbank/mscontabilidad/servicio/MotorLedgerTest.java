@@ -0,0 +1,158 @@
+package com.switchbank.mscontabilidad.servicio;
+
+import com.switchbank.mscontabilidad.dto.CuentaDTO;
+import com.switchbank.mscontabilidad.modelo.CuentaTecnica;
+import com.switchbank.mscontabilidad.repositorio.CuentaTecnicaRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class MotorLedgerTest {
+
+    private static final String BIC = "BANKA";
+
+    private CuentaTecnicaRepository cuentaRepo;
+    private PlatformTransactionManager transactionManager;
+    private MotorLedger motor;
+    private final CountDownLatch ocupado = new CountDownLatch(1);
+    private final CountDownLatch liberar = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        cuentaRepo = mock(CuentaTecnicaRepository.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(i -> new SimpleTransactionStatus());
+        when(cuentaRepo.findByCodigoBicInParaActualizar(anyCollection()))
+                .thenAnswer(i -> List.of(new CuentaTecnica(BIC)));
+
+        motor = new MotorLedger(cuentaRepo, transactionManager);
+        ReflectionTestUtils.setField(motor, "numeroParticiones", 1);
+        ReflectionTestUtils.setField(motor, "loteMaximo", 256);
+        ReflectionTestUtils.setField(motor, "timeoutMs", 5000L);
+        motor.iniciar();
+    }
+
+    @AfterEach
+    void tearDown() {
+        liberar.countDown();
+        motor.detener();
+    }
+
+    @Test
+    void errorDeUnaOperacionNoDescartaElRestoDelLote() throws Exception {
+        CompletableFuture<CuentaDTO> bloqueo = motor.encolar(BIC, esperarLiberacion());
+        assertTrue(ocupado.await(5, TimeUnit.SECONDS));
+        CompletableFuture<CuentaDTO> fallida = motor.encolar(BIC, c -> {
+            throw new RuntimeException("Saldo insuficiente");
+        });
+        CompletableFuture<CuentaDTO> correcta = motor.encolar(BIC, devolver("OK"));
+        liberar.countDown();
+
+        bloqueo.get(5, TimeUnit.SECONDS);
+        assertEquals("OK", correcta.get(5, TimeUnit.SECONDS).getCodigoBic());
+        assertEquals("Saldo insuficiente", causa(fallida).getMessage());
+        // Dos lotes: el del bloqueo y el de las dos operaciones encoladas detrás
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    @Test
+    void commitRechazadoSeReintentaUnaAUnaYAislaLaCulpable() throws Exception {
+        doNothing()
+                .doThrow(new TransactionSystemException("lote rechazado"))
+                .doNothing()
+                .doThrow(new TransactionSystemException("culpable"))
+                .when(transactionManager).commit(any());
+
+        CompletableFuture<CuentaDTO> bloqueo = motor.encolar(BIC, esperarLiberacion());
+        assertTrue(ocupado.await(5, TimeUnit.SECONDS));
+        CompletableFuture<CuentaDTO> primera = motor.encolar(BIC, devolver("PRIMERA"));
+        CompletableFuture<CuentaDTO> segunda = motor.encolar(BIC, devolver("SEGUNDA"));
+        liberar.countDown();
+
+        bloqueo.get(5, TimeUnit.SECONDS);
+        assertEquals("PRIMERA", primera.get(5, TimeUnit.SECONDS).getCodigoBic());
+        assertEquals("culpable", causa(segunda).getMessage());
+        verify(transactionManager, times(4)).commit(any());
+    }
+
+    @Test
+    void errorGraveFallaElLoteSinMatarLaParticion() throws Exception {
+        CompletableFuture<CuentaDTO> fallida = motor.encolar(BIC, c -> {
+            throw new StackOverflowError("simulado");
+        });
+
+        assertInstanceOf(StackOverflowError.class, causa(fallida).getCause());
+        assertEquals("DESPUES", motor.ejecutar(BIC, devolver("DESPUES")).getCodigoBic());
+    }
+
+    @Test
+    void ejecutarNoEsperaIndefinidamente() throws Exception {
+        ReflectionTestUtils.setField(motor, "timeoutMs", 50L);
+        motor.encolar(BIC, esperarLiberacion());
+        assertTrue(ocupado.await(5, TimeUnit.SECONDS));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> motor.ejecutar(BIC, devolver("TARDE")));
+        assertTrue(e.getMessage().contains("sin confirmar"));
+    }
+
+    @Test
+    void detenerFallaLoPendienteYRechazaLoNuevo() throws Exception {
+        CompletableFuture<CuentaDTO> bloqueo = motor.encolar(BIC, esperarLiberacion());
+        assertTrue(ocupado.await(5, TimeUnit.SECONDS));
+        CompletableFuture<CuentaDTO> pendiente = motor.encolar(BIC, devolver("PENDIENTE"));
+
+        motor.detener();
+        liberar.countDown();
+
+        bloqueo.get(5, TimeUnit.SECONDS);
+        assertEquals("Motor de ledger detenido", causa(pendiente).getMessage());
+        RuntimeException e = assertThrows(RuntimeException.class, () -> motor.ejecutar(BIC, devolver("NUEVA")));
+        assertEquals("Motor de ledger detenido", e.getMessage());
+    }
+
+    // Ocupa el hilo de la partición hasta liberar, sin ceder a la interrupción de detener(); lo que se
+    // encole mientras tanto forma el lote siguiente
+    private Function<CuentaTecnica, CuentaDTO> esperarLiberacion() {
+        return c -> {
+            ocupado.countDown();
+            boolean interrumpido = false;
+            while (true) {
+                try {
+                    liberar.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+            if (interrumpido) {
+                Thread.currentThread().interrupt();
+            }
+            return devolver("BLOQUEO").apply(c);
+        };
+    }
+
+    private static Function<CuentaTecnica, CuentaDTO> devolver(String marca) {
+        return c -> CuentaDTO.builder().codigoBic(marca).build();
+    }
+
+    private static Throwable causa(CompletableFuture<CuentaDTO> futuro) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> futuro.get(5, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+}
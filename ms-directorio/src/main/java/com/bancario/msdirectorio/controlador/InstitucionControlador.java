@@ -1,13 +1,22 @@
 package com.bancario.msdirectorio.controlador;
 
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import com.bancario.msdirectorio.dto.CambiosDirectorioDTO;
 import com.bancario.msdirectorio.dto.InstitucionDTO;
+import com.bancario.msdirectorio.dto.MetricaLookupDTO;
+import com.bancario.msdirectorio.dto.ResolucionDTO;
+import com.bancario.msdirectorio.dto.SnapshotDirectorioDTO;
+import com.bancario.msdirectorio.servicio.CambiosDirectorioServicio;
 import com.bancario.msdirectorio.servicio.DirectorioServicio;
+import com.bancario.msdirectorio.servicio.MetricasLookupServicio;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -21,6 +30,8 @@ import lombok.RequiredArgsConstructor;
 public class InstitucionControlador {
 
     private final DirectorioServicio directorioServicio;
+    private final CambiosDirectorioServicio cambiosServicio;
+    private final MetricasLookupServicio metricasLookup;
 
     @Operation(summary = "Registrar o actualizar un participante (Incluye Datos Técnicos e Interruptor)")
     @PostMapping("/instituciones")
@@ -35,6 +46,34 @@ public class InstitucionControlador {
         return ResponseEntity.ok(directorioServicio.listarTodas());
     }
 
+    @Operation(summary = "SNAPSHOT: Directorio completo versionado (ETag = versión, 304 si no cambió)")
+    @GetMapping("/directorio/snapshot")
+    public ResponseEntity<SnapshotDirectorioDTO> snapshot(WebRequest request) {
+        String etag = "\"" + cambiosServicio.versionAsentada() + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        SnapshotDirectorioDTO snapshot = cambiosServicio.snapshot();
+        return ResponseEntity.ok().eTag("\"" + snapshot.getVersion() + "\"").body(snapshot);
+    }
+
+    @Operation(summary = "CAMBIOS: Feed de cambios desde una versión (long-poll con esperaMs, 304 si no hay)")
+    @GetMapping("/directorio/cambios")
+    public DeferredResult<ResponseEntity<CambiosDirectorioDTO>> cambios(
+            @RequestParam long desde,
+            @RequestParam(defaultValue = "500") int limite,
+            @RequestParam(defaultValue = "0") long esperaMs) {
+        if (esperaMs > 0) {
+            return cambiosServicio.esperarCambios(desde, limite, esperaMs);
+        }
+        CambiosDirectorioDTO cambios = cambiosServicio.cambios(desde, limite);
+        DeferredResult<ResponseEntity<CambiosDirectorioDTO>> resultado = new DeferredResult<>();
+        resultado.setResult(cambios.getCambios().isEmpty()
+                ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).build()
+                : ResponseEntity.ok(cambios));
+        return resultado;
+    }
+
     @Operation(summary = "Obtener detalle de un banco por su BIC (_id)")
     @GetMapping("/instituciones/{bic}")
     public ResponseEntity<InstitucionDTO> obtenerPorBic(@PathVariable String bic) {
@@ -53,8 +92,9 @@ public class InstitucionControlador {
 
     @Operation(summary = "LOOKUP: Descubrir destino por BIN (Lógica central del Switch)")
     @GetMapping("/lookup/{bin}")
-    public ResponseEntity<InstitucionDTO> lookup(@PathVariable String bin) {
-        return directorioServicio.descubrirBancoPorBin(bin)
+    public ResponseEntity<InstitucionDTO> lookup(@PathVariable String bin,
+            @RequestHeader(value = "X-Banco-Origen", required = false) String bancoOrigen) {
+        return directorioServicio.descubrirBancoPorBin(bin, bancoOrigen)
                 .map(inst -> {
                     if (inst.getInterruptorCircuito() != null && inst.getInterruptorCircuito().isEstaAbierto()) {
                         return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(inst);
@@ -64,6 +104,18 @@ public class InstitucionControlador {
                 .orElse(ResponseEntity.notFound().build());
     }
 
+    @Operation(summary = "METRICS: Lookups y tasa de respuestas negativas por banco solicitante")
+    @GetMapping("/metricas/lookup")
+    public ResponseEntity<Map<String, MetricaLookupDTO>> metricasLookup() {
+        return ResponseEntity.ok(metricasLookup.resumen());
+    }
+
+    @Operation(summary = "RESOLVE: Resolver en bloque BICs y BINs con estado por clave")
+    @PostMapping("/resolve")
+    public ResponseEntity<ResolucionDTO.Respuesta> resolver(@RequestBody ResolucionDTO.Peticion peticion) {
+        return ResponseEntity.ok(directorioServicio.resolver(peticion));
+    }
+
     @Operation(summary = "REPORT: Registrar fallo técnico para control de Circuit Breaker")
     @PostMapping("/instituciones/{bic}/reportar-fallo")
     public ResponseEntity<Void> reportarFallo(@PathVariable String bic) {
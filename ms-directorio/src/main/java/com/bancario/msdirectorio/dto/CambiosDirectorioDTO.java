@@ -0,0 +1,23 @@
+package com.bancario.msdirectorio.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CambiosDirectorioDTO {
+    private long desde;
+    // Versión hasta la que la réplica queda al día tras aplicar los cambios
+    private long version;
+    // Estado actual completo de cada institución modificada (upsert por codigoBic)
+    private List<InstitucionDTO> cambios;
+    private boolean hayMas;
+    // El feed puede omitir una escritura que tardó más que directorio.cambios.pendiente-max-ms en guardarse:
+    // el cliente debe volver a pedir el snapshot completo al menos con esta frecuencia
+    private long resincronizacionMs;
+}
@@ -19,6 +19,7 @@ public class InstitucionDTO {
     private String estadoOperativo;
     private List<ReglaDTO> reglasEnrutamiento;
     private CircuitBreakerDTO interruptorCircuito;
+    private Long version;
 
     @Data
     @NoArgsConstructor
@@ -0,0 +1,20 @@
+package com.bancario.msdirectorio.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MetricaLookupDTO {
+    private long consultas;
+    private long negativas;
+    // Desglose de las negativas
+    private long binInvalido;
+    private long binSinRegla;
+    private long noDisponible;
+    private double tasaNegativa;
+}
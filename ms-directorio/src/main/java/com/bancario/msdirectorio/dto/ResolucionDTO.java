@@ -0,0 +1,50 @@
+package com.bancario.msdirectorio.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+import java.util.Map;
+
+public final class ResolucionDTO {
+
+    private ResolucionDTO() {
+    }
+
+    public enum Estado {
+        OK,
+        NO_ENCONTRADO,
+        NO_DISPONIBLE,
+        INVALIDO
+    }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Peticion {
+        private List<String> bics;
+        private List<String> bins;
+    }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Respuesta {
+        // Una entrada por clave pedida, en el orden de la petición
+        private Map<String, Resultado> bics;
+        private Map<String, Resultado> bins;
+    }
+
+    @Data
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Resultado {
+        private Estado estado;
+        private InstitucionDTO institucion;
+        private String detalle;
+    }
+}
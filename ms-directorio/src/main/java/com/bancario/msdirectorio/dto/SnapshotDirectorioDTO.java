@@ -0,0 +1,19 @@
+package com.bancario.msdirectorio.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SnapshotDirectorioDTO {
+    // Los cambios posteriores se piden con desde=version
+    private long version;
+    private List<InstitucionDTO> instituciones;
+    // Cada cuánto volver a pedir el snapshot aunque el feed no traiga cambios (ver CambiosDirectorioDTO)
+    private long resincronizacionMs;
+}
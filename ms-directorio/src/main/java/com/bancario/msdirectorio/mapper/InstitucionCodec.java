@@ -0,0 +1,150 @@
+package com.bancario.msdirectorio.mapper;
+
+import com.bancario.msdirectorio.dto.InstitucionDTO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codificación binaria de {@link InstitucionDTO} para la caché en Redis.
+ *
+ * Campos en orden fijo, sin nombres ni tipos: un byte de formato y después
+ * cada texto como longitud (varint, 0 = nulo) más UTF-8. Un valor con otro
+ * formato, o ilegible, se trata como fallo de caché. Las longitudes leídas se
+ * acotan por los bytes que quedan, así que un valor corrupto no reserva más
+ * memoria que la de su propio tamaño.
+ */
+public final class InstitucionCodec {
+
+    private static final byte FORMATO = 1;
+
+    private InstitucionCodec() {
+    }
+
+    public static byte[] codificar(InstitucionDTO dto) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMATO);
+            texto(out, dto.getId());
+            texto(out, dto.getCodigoBic());
+            texto(out, dto.getNombre());
+            texto(out, dto.getUrlDestino());
+            texto(out, dto.getLlavePublica());
+            texto(out, dto.getEstadoOperativo());
+            List<InstitucionDTO.ReglaDTO> reglas = dto.getReglasEnrutamiento();
+            if (reglas == null) {
+                varint(out, 0);
+            } else {
+                varint(out, reglas.size() + 1);
+                for (InstitucionDTO.ReglaDTO regla : reglas) {
+                    texto(out, regla.getPrefijoBin());
+                    texto(out, regla.getAgente());
+                }
+            }
+            InstitucionDTO.CircuitBreakerDTO cb = dto.getInterruptorCircuito();
+            out.writeBoolean(cb != null);
+            if (cb != null) {
+                out.writeBoolean(cb.isEstaAbierto());
+                varint(out, cb.getFallosConsecutivos());
+                texto(out, cb.getUltimoFallo());
+            }
+            out.writeBoolean(dto.getVersion() != null);
+            if (dto.getVersion() != null) {
+                out.writeLong(dto.getVersion());
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo codificar la institución " + dto.getCodigoBic(), e);
+        }
+    }
+
+    /**
+     * Devuelve {@code null} si los bytes no son de este formato.
+     */
+    public static InstitucionDTO decodificar(byte[] datos) {
+        if (datos == null || datos.length == 0 || datos[0] != FORMATO) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(datos, 1, datos.length - 1));
+            InstitucionDTO.InstitucionDTOBuilder dto = InstitucionDTO.builder()
+                    .id(texto(in))
+                    .codigoBic(texto(in))
+                    .nombre(texto(in))
+                    .urlDestino(texto(in))
+                    .llavePublica(texto(in))
+                    .estadoOperativo(texto(in));
+            int reglas = varint(in);
+            // Cada regla ocupa al menos dos bytes (las longitudes de sus dos textos)
+            if (reglas < 0 || reglas - 1 > in.available() / 2) {
+                throw new IOException("número de reglas fuera de rango: " + reglas);
+            }
+            if (reglas > 0) {
+                List<InstitucionDTO.ReglaDTO> lista = new ArrayList<>(reglas - 1);
+                for (int i = 1; i < reglas; i++) {
+                    lista.add(new InstitucionDTO.ReglaDTO(texto(in), texto(in)));
+                }
+                dto.reglasEnrutamiento(lista);
+            }
+            if (in.readBoolean()) {
+                dto.interruptorCircuito(new InstitucionDTO.CircuitBreakerDTO(in.readBoolean(), varint(in), texto(in)));
+            }
+            if (in.readBoolean()) {
+                dto.version(in.readLong());
+            }
+            return dto.build();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void texto(DataOutputStream out, String valor) throws IOException {
+        if (valor == null) {
+            varint(out, 0);
+            return;
+        }
+        byte[] utf8 = valor.getBytes(StandardCharsets.UTF_8);
+        varint(out, utf8.length + 1);
+        out.write(utf8);
+    }
+
+    private static String texto(DataInputStream in) throws IOException {
+        int largo = varint(in);
+        if (largo == 0) {
+            return null;
+        }
+        if (largo < 0 || largo - 1 > in.available()) {
+            throw new IOException("longitud de texto fuera de rango: " + largo);
+        }
+        byte[] utf8 = new byte[largo - 1];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static void varint(DataOutputStream out, int valor) throws IOException {
+        while ((valor & ~0x7F) != 0) {
+            out.writeByte((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        out.writeByte(valor);
+    }
+
+    private static int varint(DataInputStream in) throws IOException {
+        int valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 32; desplazamiento += 7) {
+            int b = in.readUnsignedByte();
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IOException("varint demasiado largo");
+    }
+}
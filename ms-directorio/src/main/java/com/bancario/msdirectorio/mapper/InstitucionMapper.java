@@ -25,6 +25,7 @@ public class InstitucionMapper {
                 .estadoOperativo(entity.getEstadoOperativo())
                 .reglasEnrutamiento(mapReglasToDTO(entity.getReglasEnrutamiento()))
                 .interruptorCircuito(mapCBToDTO(entity.getInterruptorCircuito()))
+                .version(entity.getVersion())
                 .build();
     }
 
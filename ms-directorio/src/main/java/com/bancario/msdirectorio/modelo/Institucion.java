@@ -1,5 +1,6 @@
 package com.bancario.msdirectorio.modelo;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 import org.springframework.data.annotation.Id;
@@ -36,6 +37,12 @@ public class Institucion {
 
     private InterruptorCircuito interruptorCircuito;
 
+    // Versión del directorio en la última escritura del documento (la asigna VersionadoInstitucionListener)
+    @Indexed
+    private Long version;
+
+    private LocalDateTime fechaVersion;
+
     public enum Estado {
         ONLINE,
         OFFLINE,
@@ -0,0 +1,26 @@
+package com.bancario.msdirectorio.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Contador monótono de versiones del directorio. Un único documento que se
+ * incrementa con {@code $inc} en cada escritura de una institución.
+ */
+@Document(collection = "secuencias")
+@Getter
+@Setter
+@NoArgsConstructor
+public class SecuenciaDirectorio {
+
+    public static final String ID_DIRECTORIO = "directorio";
+
+    @Id
+    private String id;
+
+    private long valor;
+}
@@ -0,0 +1,28 @@
+package com.bancario.msdirectorio.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Versión del directorio ya tomada del contador cuyo documento aún no se ha
+ * guardado. Se borra al confirmar la escritura; mientras exista, ninguna
+ * versión igual o mayor se da por asentada.
+ */
+@Document(collection = "versionesPendientes")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class VersionPendiente {
+
+    @Id
+    private Long version;
+
+    // Epoch en ms en que se tomó la versión
+    private long instante;
+}
@@ -1,8 +1,10 @@
 package com.bancario.msdirectorio.repositorio;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
@@ -12,12 +14,16 @@ import com.bancario.msdirectorio.modelo.Institucion;
 @Repository
 public interface InstitucionRepositorio extends MongoRepository<Institucion, String> {
 
-    Optional<Institucion> findByReglasEnrutamientoPrefijoBin(String prefijoBin);
-
     Optional<Institucion> findByCodigoBic(String codigoBic);
 
+    List<Institucion> findByCodigoBicIn(Collection<String> codigosBic);
+
     List<Institucion> findByEstadoOperativo(String estadoOperativo);
 
     @Query("{ 'interruptorCircuito.estaAbierto' : true }")
     List<Institucion> findBancosConCircuitoAbierto();
+
+    // Feed de cambios: escrituras con versión en (desde, hasta]; el orden va en el Pageable
+    @Query("{ 'version' : { $gt: ?0, $lte: ?1 } }")
+    List<Institucion> findCambiosEntre(long desde, long hasta, Pageable pagina);
 }
@@ -0,0 +1,239 @@
+package com.bancario.msdirectorio.servicio;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.bancario.msdirectorio.dto.InstitucionDTO;
+import com.bancario.msdirectorio.mapper.InstitucionCodec;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caché de instituciones disponibles en dos niveles.
+ *
+ * L1 es un mapa en memoria de cada réplica, acotado en tamaño y con TTL corto.
+ * L2 es Redis, compartido, con los valores codificados por
+ * {@link InstitucionCodec}. Invalidar borra L2 y publica el BIC en
+ * {@code directorio:invalidacion}; cada réplica, incluida la que publica, lo
+ * quita de su L1. El TTL de L1 acota lo que puede durar una entrada si se
+ * pierde un mensaje.
+ *
+ * Los fallos simultáneos para el mismo BIC comparten una sola carga: el
+ * primero consulta y el resto espera su resultado. Si la carga no encuentra
+ * una institución disponible se guarda una entrada negativa en los dos
+ * niveles durante {@code directorio.cache.negativo-ttl-ms}, para que los
+ * reintentos no vuelvan a Mongo.
+ *
+ * La suscripción al canal se abre en segundo plano y se reintenta mientras
+ * Redis no responda; hasta entonces las invalidaciones de otras réplicas no
+ * llegan y L1 sólo se renueva por TTL.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CacheInstitucionServicio {
+
+    private static final String PREFIJO_CLAVE = "directorio:inst:";
+    private static final String CANAL_INVALIDACION = "directorio:invalidacion";
+    private static final Duration TTL_L2 = Duration.ofHours(1);
+    // Valor de una entrada negativa en L2; no es un formato válido de InstitucionCodec
+    private static final byte[] NEGATIVO = { 0 };
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    @Value("${directorio.cache.l1-max:10000}")
+    private int maximoL1;
+
+    @Value("${directorio.cache.l1-ttl-ms:5000}")
+    private long ttlL1Ms;
+
+    @Value("${directorio.cache.negativo-ttl-ms:2000}")
+    private long ttlNegativoMs;
+
+    // institucion nula: entrada negativa
+    private record Entrada(InstitucionDTO institucion, long expira) {
+    }
+
+    private final Map<String, Entrada> l1 = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Optional<InstitucionDTO>>> enVuelo = new ConcurrentHashMap<>();
+    // Cambia con cada invalidación vista: una carga que empezó antes no se guarda
+    private final AtomicLong invalidaciones = new AtomicLong();
+
+    @PostConstruct
+    void suscribir() {
+        listenerContainer.addMessageListener(
+                (mensaje, patron) -> {
+                    invalidaciones.incrementAndGet();
+                    l1.remove(new String(mensaje.getBody(), StandardCharsets.UTF_8));
+                },
+                new ChannelTopic(CANAL_INVALIDACION));
+    }
+
+    // El contenedor sólo se recupera solo de caídas posteriores a una suscripción correcta: la primera se
+    // reintenta aquí
+    @Scheduled(fixedDelayString = "${directorio.cache.suscripcion-reintento-ms:5000}")
+    public void asegurarSuscripcion() {
+        if (listenerContainer.isRunning()) {
+            return;
+        }
+        try {
+            listenerContainer.start();
+            log.info("Suscrito a {}", CANAL_INVALIDACION);
+        } catch (RuntimeException e) {
+            // start() deja el contenedor marcado como iniciado aunque falle
+            listenerContainer.stop();
+            log.warn("Sin suscripción a {}, L1 expira sólo por TTL: {}", CANAL_INVALIDACION, e.getMessage());
+        }
+    }
+
+    /**
+     * Institución en caché o, si falta, la que devuelva {@code cargador}. Sólo
+     * se guarda un resultado presente.
+     */
+    public Optional<InstitucionDTO> obtener(String bic, Function<String, Optional<InstitucionDTO>> cargador) {
+        Entrada enL1 = leerL1(bic);
+        if (enL1 != null) {
+            return Optional.ofNullable(enL1.institucion());
+        }
+        CompletableFuture<Optional<InstitucionDTO>> propia = new CompletableFuture<>();
+        CompletableFuture<Optional<InstitucionDTO>> carga = enVuelo.putIfAbsent(bic, propia);
+        if (carga != null) {
+            return carga.join();
+        }
+        try {
+            long marca = invalidaciones.get();
+            byte[] enL2 = redisTemplate.opsForValue().get(clave(bic));
+            Optional<InstitucionDTO> resultado;
+            if (Arrays.equals(enL2, NEGATIVO)) {
+                resultado = Optional.empty();
+                guardarL1(bic, null, ttlNegativoMs);
+            } else {
+                resultado = Optional.ofNullable(InstitucionCodec.decodificar(enL2));
+                if (resultado.isPresent()) {
+                    guardarL1(bic, resultado.get(), ttlL1Ms);
+                } else {
+                    resultado = cargador.apply(bic);
+                    if (invalidaciones.get() == marca) {
+                        resultado.ifPresentOrElse(dto -> guardar(bic, dto), () -> guardarNegativo(bic));
+                    }
+                }
+            }
+            propia.complete(resultado);
+            return resultado;
+        } catch (RuntimeException e) {
+            propia.completeExceptionally(e);
+            throw e;
+        } finally {
+            enVuelo.remove(bic, propia);
+        }
+    }
+
+    /**
+     * Las que estén en L1 o L2 (un único MGET para las que no están en L1). Las
+     * que falten no aparecen en el resultado.
+     */
+    public Map<String, InstitucionDTO> obtenerVarias(Collection<String> bics) {
+        Map<String, InstitucionDTO> encontradas = new HashMap<>();
+        List<String> pendientes = new ArrayList<>();
+        for (String bic : bics) {
+            // Las negativas no sirven aquí: el llamante distingue inexistente de no disponible
+            Entrada enL1 = leerL1(bic);
+            if (enL1 != null && enL1.institucion() != null) {
+                encontradas.put(bic, enL1.institucion());
+            } else {
+                pendientes.add(bic);
+            }
+        }
+        if (pendientes.isEmpty()) {
+            return encontradas;
+        }
+        List<byte[]> valores = redisTemplate.opsForValue()
+                .multiGet(pendientes.stream().map(CacheInstitucionServicio::clave).toList());
+        for (int i = 0; valores != null && i < pendientes.size(); i++) {
+            InstitucionDTO dto = InstitucionCodec.decodificar(valores.get(i));
+            if (dto != null) {
+                guardarL1(pendientes.get(i), dto, ttlL1Ms);
+                encontradas.put(pendientes.get(i), dto);
+            }
+        }
+        return encontradas;
+    }
+
+    public void guardar(String bic, InstitucionDTO dto) {
+        redisTemplate.opsForValue().set(clave(bic), InstitucionCodec.codificar(dto), TTL_L2);
+        guardarL1(bic, dto, ttlL1Ms);
+    }
+
+    private void guardarNegativo(String bic) {
+        redisTemplate.opsForValue().set(clave(bic), NEGATIVO, Duration.ofMillis(ttlNegativoMs));
+        guardarL1(bic, null, ttlNegativoMs);
+    }
+
+    public void invalidar(String bic) {
+        invalidaciones.incrementAndGet();
+        l1.remove(bic);
+        redisTemplate.delete(clave(bic));
+        redisTemplate.convertAndSend(CANAL_INVALIDACION, bic.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Entrada leerL1(String bic) {
+        Entrada entrada = l1.get(bic);
+        if (entrada == null) {
+            return null;
+        }
+        if (entrada.expira() < System.currentTimeMillis()) {
+            l1.remove(bic, entrada);
+            return null;
+        }
+        return entrada;
+    }
+
+    private void guardarL1(String bic, InstitucionDTO dto, long ttlMs) {
+        if (l1.size() >= maximoL1) {
+            podarL1();
+        }
+        l1.put(bic, new Entrada(dto, System.currentTimeMillis() + ttlMs));
+    }
+
+    /**
+     * Quita las caducadas y, si no basta, entradas cualquiera hasta dejar L1 al
+     * 90 %. Sólo corre al llenarse, así que el coste lineal no pesa en cada
+     * lectura.
+     */
+    private void podarL1() {
+        long ahora = System.currentTimeMillis();
+        l1.values().removeIf(entrada -> entrada.expira() < ahora);
+        Iterator<String> it = l1.keySet().iterator();
+        int objetivo = maximoL1 * 9 / 10;
+        while (l1.size() > objetivo && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String clave(String bic) {
+        return PREFIJO_CLAVE + bic;
+    }
+}
@@ -0,0 +1,164 @@
+package com.bancario.msdirectorio.servicio;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import com.bancario.msdirectorio.dto.CambiosDirectorioDTO;
+import com.bancario.msdirectorio.dto.InstitucionDTO;
+import com.bancario.msdirectorio.dto.SnapshotDirectorioDTO;
+import com.bancario.msdirectorio.mapper.InstitucionMapper;
+import com.bancario.msdirectorio.modelo.Institucion;
+import com.bancario.msdirectorio.repositorio.InstitucionRepositorio;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Snapshot versionado del directorio y feed de cambios para las réplicas
+ * locales (ms-nucleo).
+ *
+ * Un cliente descarga el snapshot una vez y a partir de ahí pide los cambios
+ * desde la versión que ya tiene. Cada cambio es el documento completo de la
+ * institución, así que aplicarlo dos veces no tiene efecto. Las peticiones con
+ * espera quedan aparcadas hasta que se asienta una versión nueva o vence el
+ * plazo, sin ocupar un hilo del servidor.
+ *
+ * El feed es exacto mientras cada escritura confirme su versión antes de
+ * {@code directorio.cambios.pendiente-max-ms} (ver
+ * {@link VersionDirectorioServicio}). Una que tarde más puede quedar por
+ * debajo de una versión ya entregada, así que cada respuesta lleva
+ * {@code resincronizacionMs}: el cliente vuelve a pedir el snapshot completo
+ * con esa frecuencia.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CambiosDirectorioServicio {
+
+    private static final int LIMITE_MAXIMO = 1000;
+
+    private final InstitucionRepositorio institucionRepositorio;
+    private final VersionDirectorioServicio versionDirectorio;
+    private final InstitucionMapper mapper;
+
+    @Value("${directorio.cambios.espera-maxima-ms:30000}")
+    private long esperaMaximaMs;
+
+    @Value("${directorio.cambios.resincronizacion-ms:300000}")
+    private long resincronizacionMs;
+
+    private record Espera(long desde, int limite, DeferredResult<ResponseEntity<CambiosDirectorioDTO>> resultado) {
+    }
+
+    private final Queue<Espera> esperas = new ConcurrentLinkedQueue<>();
+
+    @PostConstruct
+    void iniciar() {
+        versionDirectorio.alAsentar(this::despertar);
+    }
+
+    /**
+     * Directorio completo. La versión se toma antes de leer: todo lo asentado
+     * hasta ella está en la lectura, y lo que entre después llega por el feed.
+     */
+    public SnapshotDirectorioDTO snapshot() {
+        long version = versionDirectorio.versionAsentada();
+        return SnapshotDirectorioDTO.builder()
+                .version(version)
+                .instituciones(mapper.toDTOList(institucionRepositorio.findAll()))
+                .resincronizacionMs(resincronizacionMs)
+                .build();
+    }
+
+    public long versionAsentada() {
+        return versionDirectorio.versionAsentada();
+    }
+
+    /**
+     * Cambios asentados posteriores a {@code desde}, como mucho {@code limite}.
+     * Si la respuesta se corta, {@code version} es la del último cambio devuelto
+     * y {@code hayMas} indica que hay que volver a pedir desde ahí.
+     */
+    public CambiosDirectorioDTO cambios(long desde, int limite) {
+        if (desde < 0) {
+            throw new IllegalArgumentException("La versión 'desde' no puede ser negativa: " + desde);
+        }
+        if (limite < 1 || limite > LIMITE_MAXIMO) {
+            throw new IllegalArgumentException("El límite debe estar entre 1 y " + LIMITE_MAXIMO + ": " + limite);
+        }
+        long asentada = versionDirectorio.versionAsentada();
+        if (desde >= asentada) {
+            return CambiosDirectorioDTO.builder().desde(desde).version(desde).cambios(List.of())
+                    .resincronizacionMs(resincronizacionMs).build();
+        }
+        // Se pide uno de más para saber si hay continuación
+        List<Institucion> lote = institucionRepositorio.findCambiosEntre(desde, asentada,
+                PageRequest.of(0, limite + 1, Sort.by("version")));
+        boolean hayMas = lote.size() > limite;
+        if (hayMas) {
+            lote = lote.subList(0, limite);
+        }
+        long version = hayMas ? lote.get(lote.size() - 1).getVersion() : asentada;
+        List<InstitucionDTO> cambios = mapper.toDTOList(lote);
+        return CambiosDirectorioDTO.builder()
+                .desde(desde)
+                .version(version)
+                .cambios(cambios)
+                .hayMas(hayMas)
+                .resincronizacionMs(resincronizacionMs)
+                .build();
+    }
+
+    /**
+     * Long-poll: responde en cuanto haya cambios posteriores a {@code desde} o,
+     * vencida la espera, con 304.
+     */
+    public DeferredResult<ResponseEntity<CambiosDirectorioDTO>> esperarCambios(long desde, int limite,
+            long esperaMs) {
+        long espera = Math.min(esperaMs, esperaMaximaMs);
+        DeferredResult<ResponseEntity<CambiosDirectorioDTO>> resultado = new DeferredResult<>(espera,
+                () -> ResponseEntity.status(HttpStatus.NOT_MODIFIED).build());
+
+        CambiosDirectorioDTO inmediato = cambios(desde, limite);
+        if (!inmediato.getCambios().isEmpty()) {
+            resultado.setResult(ResponseEntity.ok(inmediato));
+            return resultado;
+        }
+        Espera registro = new Espera(desde, limite, resultado);
+        resultado.onCompletion(() -> esperas.remove(registro));
+        esperas.add(registro);
+        // La versión pudo asentarse entre la consulta y el registro
+        if (versionDirectorio.versionAsentada() > desde) {
+            despertar(versionDirectorio.versionAsentada());
+        }
+        return resultado;
+    }
+
+    private void despertar(long asentada) {
+        for (Espera espera : esperas) {
+            if (espera.desde() >= asentada || espera.resultado().isSetOrExpired()) {
+                continue;
+            }
+            esperas.remove(espera);
+            try {
+                CambiosDirectorioDTO cambios = cambios(espera.desde(), espera.limite());
+                espera.resultado().setResult(cambios.getCambios().isEmpty()
+                        ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).build()
+                        : ResponseEntity.ok(cambios));
+            } catch (RuntimeException e) {
+                log.warn("No se pudieron entregar los cambios desde {}: {}", espera.desde(), e.getMessage());
+                espera.resultado().setErrorResult(e);
+            }
+        }
+    }
+}
@@ -1,18 +1,20 @@
 package com.bancario.msdirectorio.servicio;
 
-import java.time.Duration;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Service;
 
 import com.bancario.msdirectorio.dto.InstitucionDTO;
+import com.bancario.msdirectorio.dto.ResolucionDTO;
 import com.bancario.msdirectorio.modelo.DatosTecnicos;
 import com.bancario.msdirectorio.modelo.Institucion;
 import com.bancario.msdirectorio.modelo.InterruptorCircuito;
@@ -29,10 +31,13 @@ import lombok.RequiredArgsConstructor;
 public class DirectorioServicio {
 
     private final InstitucionRepositorio institucionRepositorio;
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final CacheInstitucionServicio cache;
     private final InstitucionMapper mapper;
+    private final EnrutamientoBinServicio enrutamiento;
+    private final InterruptorCircuitoServicio interruptores;
+    private final MetricasLookupServicio metricas;
 
-    private static final String CACHE_KEY_PREFIX = "lookup:bin:";
+    private static final int MAX_CLAVES_RESOLUCION = 1000;
 
     public InstitucionDTO registrarInstitucion(@NonNull InstitucionDTO dto) {
 
@@ -54,8 +59,13 @@ public class DirectorioServicio {
         if (institucion.getReglasEnrutamiento() == null) {
             institucion.setReglasEnrutamiento(new ArrayList<>());
         }
+        for (ReglaEnrutamiento regla : institucion.getReglasEnrutamiento()) {
+            validarPrefijoLibre(regla.getPrefijoBin(), institucion.getCodigoBic());
+        }
 
         Institucion saved = institucionRepositorio.save(institucion);
+        invalidarCacheDelBanco(saved);
+        saved.getReglasEnrutamiento().forEach(r -> enrutamiento.registrar(r.getPrefijoBin(), saved.getCodigoBic()));
         return mapper.toDTO(saved);
     }
 
@@ -81,87 +91,168 @@ public class DirectorioServicio {
             inst.setReglasEnrutamiento(new ArrayList<>());
         }
 
+        validarPrefijoLibre(nuevaReglaDTO.getPrefijoBin(), bic);
         ReglaEnrutamiento nuevaRegla = new ReglaEnrutamiento(nuevaReglaDTO.getPrefijoBin(), nuevaReglaDTO.getAgente());
         inst.getReglasEnrutamiento().add(nuevaRegla);
-        redisTemplate.delete(CACHE_KEY_PREFIX + nuevaRegla.getPrefijoBin());
 
-        return mapper.toDTO(institucionRepositorio.save(inst));
+        interruptores.aplicarResumen(inst);
+        Institucion saved = institucionRepositorio.save(inst);
+        enrutamiento.registrar(nuevaRegla.getPrefijoBin(), saved.getCodigoBic());
+        invalidarCacheDelBanco(saved);
+        return mapper.toDTO(saved);
+    }
+
+    private void validarPrefijoLibre(String prefijo, String bic) {
+        if (!EnrutamientoBinServicio.esPrefijoValido(prefijo)) {
+            throw new IllegalArgumentException("El prefijo BIN debe tener entre 1 y "
+                    + EnrutamientoBinServicio.LONGITUD_MAXIMA_PREFIJO + " dígitos: " + prefijo);
+        }
+        enrutamiento.propietario(prefijo)
+                .filter(propietario -> !propietario.equals(bic))
+                .ifPresent(propietario -> {
+                    throw new RuntimeException("El prefijo BIN " + prefijo + " ya pertenece a " + propietario);
+                });
     }
 
     public Optional<InstitucionDTO> descubrirBancoPorBin(String bin) {
+        return descubrirBancoPorBin(bin, null);
+    }
+
+    /**
+     * Resuelve el banco dueño de la cuenta por el prefijo BIN más largo que
+     * encaja con sus primeros 6 a 11 dígitos. El resultado se cuenta para
+     * {@code bancoOrigen} en las métricas de lookup.
+     */
+    public Optional<InstitucionDTO> descubrirBancoPorBin(String bin, String bancoOrigen) {
         log.info("Resolviendo BIN: {}", bin);
         if (bin == null)
             return Optional.empty();
-        String cacheKey = CACHE_KEY_PREFIX + bin;
-
-        Object cacheData = redisTemplate.opsForValue().get(cacheKey);
-
-        if (cacheData instanceof InstitucionDTO) {
-            return Optional.of((InstitucionDTO) cacheData);
+        Optional<String> bic;
+        try {
+            bic = enrutamiento.resolver(bin);
+        } catch (IllegalArgumentException e) {
+            metricas.registrar(bancoOrigen, MetricasLookupServicio.Resultado.BIN_INVALIDO);
+            throw e;
         }
-
-        return institucionRepositorio.findByReglasEnrutamientoPrefijoBin(bin)
-                .filter(this::validarDisponibilidad)
-                .map(inst -> {
-                    InstitucionDTO dto = mapper.toDTO(inst);
-                    redisTemplate.opsForValue().set(cacheKey, dto, Duration.ofHours(1));
-                    return dto;
-                });
+        if (bic.isEmpty()) {
+            metricas.registrar(bancoOrigen, MetricasLookupServicio.Resultado.BIN_SIN_REGLA);
+            return Optional.empty();
+        }
+        // Una entrada por banco: el BIN se resuelve en memoria y sólo la institución pasa por la caché.
+        // Un banco no disponible queda en caché como negativo unos segundos
+        Optional<InstitucionDTO> inst = cache.obtener(bic.get(),
+                codigo -> institucionRepositorio.findByCodigoBic(codigo)
+                        .filter(this::validarDisponibilidad)
+                        .map(mapper::toDTO));
+        metricas.registrar(bancoOrigen, inst.isPresent() ? MetricasLookupServicio.Resultado.ENCONTRADO
+                : MetricasLookupServicio.Resultado.NO_DISPONIBLE);
+        return inst;
     }
 
-    public void registrarFallo(String bic) {
-        log.warn("Registrando fallo operativo para: {}", bic);
-        if (bic == null)
-            return;
+    /**
+     * Resuelve en bloque BICs y BINs. Los BINs pasan por la tabla en memoria;
+     * los BICs resultantes se buscan primero en caché (L1 y un MGET) y los que faltan
+     * en una sola consulta {@code $in} a Mongo.
+     */
+    public ResolucionDTO.Respuesta resolver(ResolucionDTO.Peticion peticion) {
+        List<String> bics = peticion.getBics() != null ? peticion.getBics() : List.of();
+        List<String> bins = peticion.getBins() != null ? peticion.getBins() : List.of();
+        if (bics.size() + bins.size() > MAX_CLAVES_RESOLUCION) {
+            throw new IllegalArgumentException("Como máximo " + MAX_CLAVES_RESOLUCION + " claves por petición");
+        }
+        log.info("Resolución en bloque: {} BICs, {} BINs", bics.size(), bins.size());
 
-        institucionRepositorio.findByCodigoBic(bic).ifPresent(inst -> {
-            InterruptorCircuito interruptor = inst.getInterruptorCircuito();
-            if (interruptor == null) {
-                interruptor = new InterruptorCircuito(false, 0, null);
-                inst.setInterruptorCircuito(interruptor);
+        Map<String, String> bicPorBin = new LinkedHashMap<>();
+        Map<String, ResolucionDTO.Resultado> resultadoBins = new LinkedHashMap<>();
+        for (String bin : bins) {
+            if (bin == null || resultadoBins.containsKey(bin) || bicPorBin.containsKey(bin)) {
+                continue;
             }
+            try {
+                Optional<String> bic = enrutamiento.resolver(bin);
+                if (bic.isPresent()) {
+                    bicPorBin.put(bin, bic.get());
+                } else {
+                    resultadoBins.put(bin, resultado(ResolucionDTO.Estado.NO_ENCONTRADO, null, "Sin regla para el BIN"));
+                }
+            } catch (IllegalArgumentException e) {
+                resultadoBins.put(bin, resultado(ResolucionDTO.Estado.INVALIDO, null, e.getMessage()));
+            }
+        }
 
-            interruptor.setFallosConsecutivos(interruptor.getFallosConsecutivos() + 1);
-            interruptor.setUltimoFallo(LocalDateTime.now(ZoneOffset.UTC));
-
-            if (interruptor.getFallosConsecutivos() >= 5) {
-                interruptor.setEstaAbierto(true);
-                log.error(">>> CIRCUIT BREAKER ACTIVADO para banco: {}", bic);
+        Set<String> pedidos = new LinkedHashSet<>();
+        bics.stream().filter(Objects::nonNull).forEach(pedidos::add);
+        pedidos.addAll(bicPorBin.values());
+        Map<String, ResolucionDTO.Resultado> porBic = resolverBics(pedidos);
+
+        Map<String, ResolucionDTO.Resultado> resultadoBics = new LinkedHashMap<>();
+        bics.stream().filter(Objects::nonNull).forEach(bic -> resultadoBics.put(bic, porBic.get(bic)));
+        Map<String, ResolucionDTO.Resultado> ordenBins = new LinkedHashMap<>();
+        for (String bin : bins) {
+            if (bin != null && !ordenBins.containsKey(bin)) {
+                String bic = bicPorBin.get(bin);
+                ordenBins.put(bin, bic != null ? porBic.get(bic) : resultadoBins.get(bin));
+            }
+        }
+        return ResolucionDTO.Respuesta.builder().bics(resultadoBics).bins(ordenBins).build();
+    }
 
-                invalidarCacheDelBanco(inst);
+    private Map<String, ResolucionDTO.Resultado> resolverBics(Set<String> bics) {
+        Map<String, ResolucionDTO.Resultado> resultados = new HashMap<>();
+        if (bics.isEmpty()) {
+            return resultados;
+        }
+        Map<String, InstitucionDTO> enCache = cache.obtenerVarias(bics);
+        List<String> faltan = new ArrayList<>();
+        for (String bic : bics) {
+            InstitucionDTO dto = enCache.get(bic);
+            if (dto != null) {
+                resultados.put(bic, resultado(ResolucionDTO.Estado.OK, dto, null));
+            } else {
+                faltan.add(bic);
             }
+        }
+        if (faltan.isEmpty()) {
+            return resultados;
+        }
 
-            institucionRepositorio.save(inst);
-        });
+        for (Institucion inst : institucionRepositorio.findByCodigoBicIn(faltan)) {
+            if (validarDisponibilidad(inst)) {
+                InstitucionDTO dto = mapper.toDTO(inst);
+                cache.guardar(inst.getCodigoBic(), dto);
+                resultados.put(inst.getCodigoBic(), resultado(ResolucionDTO.Estado.OK, dto, null));
+            } else {
+                resultados.put(inst.getCodigoBic(),
+                        resultado(ResolucionDTO.Estado.NO_DISPONIBLE, null, "Circuit breaker abierto"));
+            }
+        }
+        for (String bic : faltan) {
+            resultados.putIfAbsent(bic, resultado(ResolucionDTO.Estado.NO_ENCONTRADO, null, "BIC no registrado"));
+        }
+        return resultados;
     }
 
-    private void invalidarCacheDelBanco(Institucion inst) {
-        if (inst.getReglasEnrutamiento() != null) {
-            inst.getReglasEnrutamiento().forEach(r -> redisTemplate.delete(CACHE_KEY_PREFIX + r.getPrefijoBin()));
-        }
+    private static ResolucionDTO.Resultado resultado(ResolucionDTO.Estado estado, InstitucionDTO institucion,
+            String detalle) {
+        return ResolucionDTO.Resultado.builder().estado(estado).institucion(institucion).detalle(detalle).build();
     }
 
-    private boolean validarDisponibilidad(@NonNull Institucion inst) {
-        InterruptorCircuito interruptor = inst.getInterruptorCircuito();
+    public void registrarFallo(String bic) {
+        log.warn("Registrando fallo operativo para: {}", bic);
+        if (bic == null)
+            return;
 
-        if (interruptor == null || !interruptor.isEstaAbierto()) {
-            return true;
+        if (interruptores.registrarFallo(bic)) {
+            cache.invalidar(bic);
         }
+    }
 
-        if (interruptor.getUltimoFallo() != null) {
-            long segundos = ChronoUnit.SECONDS.between(interruptor.getUltimoFallo(), LocalDateTime.now(ZoneOffset.UTC));
-
-            if (segundos > 30) {
-                interruptor.setEstaAbierto(false);
-                interruptor.setFallosConsecutivos(0);
-                institucionRepositorio.save(inst);
-                log.info(">>> CIRCUIT BREAKER CERRADO (Auto-recuperación) para banco: {}", inst.getCodigoBic());
-                return true;
-            }
-            return false;
-        }
+    private void invalidarCacheDelBanco(Institucion inst) {
+        cache.invalidar(inst.getCodigoBic());
+    }
 
-        return false;
+    private boolean validarDisponibilidad(@NonNull Institucion inst) {
+        return interruptores.disponible(inst.getCodigoBic());
     }
 
     public InstitucionDTO actualizarParametrosRestringidos(String bic, String nuevoEstado, String nuevaUrl) {
@@ -185,6 +276,7 @@ public class DirectorioServicio {
 
         invalidarCacheDelBanco(inst);
 
+        interruptores.aplicarResumen(inst);
         return mapper.toDTO(institucionRepositorio.save(inst));
     }
 }
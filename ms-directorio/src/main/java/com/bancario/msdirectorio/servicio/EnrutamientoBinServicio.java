@@ -0,0 +1,245 @@
+package com.bancario.msdirectorio.servicio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.bancario.msdirectorio.modelo.Institucion;
+import com.bancario.msdirectorio.modelo.ReglaEnrutamiento;
+import com.bancario.msdirectorio.repositorio.InstitucionRepositorio;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tabla de enrutamiento por BIN en memoria: un árbol de prefijos comprimido
+ * (radix) con todas las {@link ReglaEnrutamiento} del directorio, que resuelve
+ * por prefijo más largo sin ir a Mongo.
+ *
+ * El árbol es inmutable. Cada cambio construye uno nuevo y lo publica con una
+ * sola escritura volátil, así que las consultas nunca bloquean ni ven un árbol
+ * a medio construir. Las reglas añadidas en esta réplica se aplican al momento;
+ * las de otras réplicas (o las editadas a mano en Mongo) entran con la recarga
+ * periódica.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class EnrutamientoBinServicio {
+
+    public static final int LONGITUD_MINIMA_CONSULTA = 6;
+    public static final int LONGITUD_MAXIMA_PREFIJO = 11;
+
+    private final InstitucionRepositorio institucionRepositorio;
+    private final VersionDirectorioServicio versionDirectorio;
+
+    private volatile Arbol arbol = Arbol.VACIO;
+    private volatile boolean cargado;
+    // Versión asentada del directorio cuando se leyó la última carga completa
+    private volatile long versionCargada = -1;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargarAlIniciar() {
+        try {
+            recargar();
+        } catch (RuntimeException e) {
+            // Se reintenta en la próxima recarga o en la primera consulta
+            log.error("No se pudo cargar la tabla de enrutamiento BIN: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${directorio.enrutamiento.recarga-ms:60000}",
+            initialDelayString = "${directorio.enrutamiento.recarga-ms:60000}")
+    public void recargaPeriodica() {
+        if (cargado && versionDirectorio.versionAsentada() == versionCargada) {
+            // Nada escrito en el directorio desde la última carga
+            return;
+        }
+        try {
+            recargar();
+        } catch (RuntimeException e) {
+            log.warn("Recarga de la tabla de enrutamiento BIN fallida, se mantiene la anterior: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reconstruye el árbol desde todas las instituciones. Sincronizado con
+     * {@link #registrar}: una regla aplicada después de guardarse no se pierde
+     * por una recarga que leyó Mongo antes.
+     */
+    public synchronized void recargar() {
+        long version = versionDirectorio.versionAsentada();
+        TreeMap<String, String> reglas = new TreeMap<>();
+        for (Institucion inst : institucionRepositorio.findAll()) {
+            if (inst.getReglasEnrutamiento() == null) {
+                continue;
+            }
+            for (ReglaEnrutamiento regla : inst.getReglasEnrutamiento()) {
+                String prefijo = regla.getPrefijoBin();
+                if (!esPrefijoValido(prefijo)) {
+                    log.warn("Regla BIN ignorada en {}: prefijo inválido '{}'", inst.getCodigoBic(), prefijo);
+                    continue;
+                }
+                anadir(reglas, prefijo, inst.getCodigoBic());
+            }
+        }
+        Arbol nuevo = Arbol.construir(reglas);
+        arbol = nuevo;
+        versionCargada = version;
+        cargado = true;
+        log.info("Tabla de enrutamiento BIN cargada: {} prefijos", nuevo.reglas.size());
+    }
+
+    /**
+     * Aplica en esta réplica una regla recién guardada (copy-on-write). Si el
+     * prefijo ya tiene otro dueño se conserva ese, igual que en la recarga.
+     */
+    public synchronized void registrar(String prefijo, String codigoBic) {
+        TreeMap<String, String> reglas = new TreeMap<>(arbol.reglas);
+        anadir(reglas, prefijo, codigoBic);
+        arbol = Arbol.construir(reglas);
+    }
+
+    // Un prefijo duplicado entre bancos conserva el primer dueño visto, en la recarga y al registrar
+    private static void anadir(Map<String, String> reglas, String prefijo, String codigoBic) {
+        String previo = reglas.putIfAbsent(prefijo, codigoBic);
+        if (previo != null && !previo.equals(codigoBic)) {
+            log.error("Prefijo BIN {} duplicado en {} y {}: se conserva {}", prefijo, previo, codigoBic, previo);
+        }
+    }
+
+    /**
+     * BIC dueño del prefijo más largo que encaja con los primeros dígitos de la
+     * cuenta. Acepta de 6 a 11 dígitos.
+     */
+    public Optional<String> resolver(String digitos) {
+        if (digitos == null || digitos.length() < LONGITUD_MINIMA_CONSULTA
+                || digitos.length() > LONGITUD_MAXIMA_PREFIJO || !sonDigitos(digitos)) {
+            throw new IllegalArgumentException("El BIN debe tener entre " + LONGITUD_MINIMA_CONSULTA + " y "
+                    + LONGITUD_MAXIMA_PREFIJO + " dígitos: " + digitos);
+        }
+        if (!cargado) {
+            recargar();
+        }
+        return Optional.ofNullable(arbol.buscar(digitos));
+    }
+
+    /**
+     * BIC que ya tiene registrado exactamente ese prefijo, si lo hay.
+     */
+    public Optional<String> propietario(String prefijo) {
+        if (!cargado) {
+            recargar();
+        }
+        return Optional.ofNullable(arbol.reglas.get(prefijo));
+    }
+
+    public static boolean esPrefijoValido(String prefijo) {
+        return prefijo != null && !prefijo.isEmpty() && prefijo.length() <= LONGITUD_MAXIMA_PREFIJO
+                && sonDigitos(prefijo);
+    }
+
+    private static boolean sonDigitos(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Árbol radix sobre dígitos. Cada nodo guarda la etiqueta del tramo que lo
+     * une a su padre, el BIC si un prefijo termina en él y un hijo por dígito
+     * siguiente. Los nodos con un solo hijo y sin BIC se fusionan con ese hijo.
+     */
+    private static final class Arbol {
+
+        static final Arbol VACIO = new Arbol(new Nodo("", null, new Nodo[10]), Collections.emptyMap());
+
+        final Nodo raiz;
+        final Map<String, String> reglas;
+
+        private Arbol(Nodo raiz, Map<String, String> reglas) {
+            this.raiz = raiz;
+            this.reglas = reglas;
+        }
+
+        static Arbol construir(TreeMap<String, String> reglas) {
+            List<Map.Entry<String, String>> ordenadas = new ArrayList<>(reglas.entrySet());
+            Nodo raiz = construir("", null, ordenadas, 0, ordenadas.size(), 0);
+            return new Arbol(raiz, Collections.unmodifiableMap(reglas));
+        }
+
+        /**
+         * Construye el subárbol de las reglas [desde, hasta), ordenadas y que
+         * comparten los primeros {@code profundidad} dígitos.
+         */
+        private static Nodo construir(String etiqueta, String valor, List<Map.Entry<String, String>> reglas,
+                int desde, int hasta, int profundidad) {
+            Nodo[] hijos = new Nodo[10];
+            int i = desde;
+            while (i < hasta) {
+                String clave = reglas.get(i).getKey();
+                char digito = clave.charAt(profundidad);
+                int fin = i + 1;
+                while (fin < hasta && reglas.get(fin).getKey().charAt(profundidad) == digito) {
+                    fin++;
+                }
+                // Tramo común del grupo: hasta donde el primero y el último dejan de coincidir o uno termina
+                String primera = reglas.get(i).getKey();
+                String ultima = reglas.get(fin - 1).getKey();
+                int comun = profundidad + 1;
+                while (comun < primera.length() && comun < ultima.length()
+                        && primera.charAt(comun) == ultima.charAt(comun)) {
+                    comun++;
+                }
+                String valorHijo = null;
+                int inicioHijos = i;
+                if (primera.length() == comun) {
+                    // El orden deja primero la clave más corta: termina justo en este nodo
+                    valorHijo = reglas.get(i).getValue();
+                    inicioHijos = i + 1;
+                }
+                hijos[digito - '0'] = construir(primera.substring(profundidad, comun), valorHijo, reglas,
+                        inicioHijos, fin, comun);
+                i = fin;
+            }
+            return new Nodo(etiqueta, valor, hijos);
+        }
+
+        String buscar(String digitos) {
+            String mejor = null;
+            Nodo nodo = raiz;
+            int pos = 0;
+            while (pos < digitos.length()) {
+                Nodo hijo = nodo.hijos[digitos.charAt(pos) - '0'];
+                if (hijo == null) {
+                    break;
+                }
+                int largo = hijo.etiqueta.length();
+                if (pos + largo > digitos.length() || !digitos.regionMatches(pos, hijo.etiqueta, 0, largo)) {
+                    break;
+                }
+                pos += largo;
+                if (hijo.valor != null) {
+                    mejor = hijo.valor;
+                }
+                nodo = hijo;
+            }
+            return mejor;
+        }
+    }
+
+    private record Nodo(String etiqueta, String valor, Nodo[] hijos) {
+    }
+}
@@ -0,0 +1,279 @@
+package com.bancario.msdirectorio.servicio;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.bancario.msdirectorio.modelo.Institucion;
+import com.bancario.msdirectorio.modelo.InterruptorCircuito;
+import com.bancario.msdirectorio.repositorio.InstitucionRepositorio;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Estado del circuit breaker de cada banco, guardado en Redis.
+ *
+ * Cada banco tiene un hash {@code circuito:<bic>} con {@code fallos},
+ * {@code ultimoFallo} y {@code abiertoDesde} (epoch en ms). Registrar un fallo
+ * es un único script Lua: incrementa, abre si se llega al umbral y marca el
+ * banco como pendiente de persistir, sin leer ni reescribir el documento. El
+ * resumen se copia a {@code interruptorCircuito} en Mongo cada
+ * {@code directorio.circuito.persistencia-ms}; el documento sólo informa, la
+ * fuente de verdad es Redis.
+ *
+ * Las consultas de disponibilidad sólo leen: el estado se deduce de las
+ * marcas de tiempo. Un circuito abierto pasa a semiabierto cuando el último
+ * fallo tiene más de {@code directorio.circuito.enfriamiento-s}, y sigue sin
+ * aceptar tráfico hasta que {@link SondeoCircuitoServicio} lo sondea y lo
+ * cierra.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class InterruptorCircuitoServicio {
+
+    private static final String PREFIJO_CLAVE = "circuito:";
+    private static final String CLAVE_PENDIENTES = "circuito:pendientes";
+    private static final String CLAVE_ABIERTOS = "circuito:abiertos";
+    private static final int LOTE_PERSISTENCIA = 100;
+
+    // KEYS: hash, pendientes, abiertos. ARGV: ahora, umbral, bic. Devuelve {fallos, 1 si se abrió ahora}
+    private static final RedisScript<List> SCRIPT_FALLO = new DefaultRedisScript<>("""
+            local fallos = redis.call('HINCRBY', KEYS[1], 'fallos', 1)
+            redis.call('HSET', KEYS[1], 'ultimoFallo', ARGV[1])
+            local abierto = 0
+            if fallos >= tonumber(ARGV[2]) and redis.call('HSETNX', KEYS[1], 'abiertoDesde', ARGV[1]) == 1 then
+              redis.call('SADD', KEYS[3], ARGV[3])
+              abierto = 1
+            end
+            redis.call('SADD', KEYS[2], ARGV[3])
+            return {fallos, abierto}
+            """, List.class);
+
+    // KEYS: hash, pendientes, abiertos. ARGV: ultimoFallo visto al sondear, bic.
+    // No cierra si entró un fallo durante el sondeo
+    private static final RedisScript<Long> SCRIPT_CERRAR = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'ultimoFallo') ~= ARGV[1] then
+              return 0
+            end
+            redis.call('HDEL', KEYS[1], 'abiertoDesde')
+            redis.call('HSET', KEYS[1], 'fallos', 0)
+            redis.call('SREM', KEYS[3], ARGV[2])
+            redis.call('SADD', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
+
+    public enum Estado {
+        CERRADO, ABIERTO, SEMIABIERTO
+    }
+
+    /** Circuito semiabierto pendiente de sondeo y el último fallo con el que se vio. */
+    public record Semiabierto(String bic, String ultimoFallo) {
+    }
+
+    private final StringRedisTemplate redis;
+    private final MongoTemplate mongoTemplate;
+    private final InstitucionRepositorio institucionRepositorio;
+    private final VersionDirectorioServicio versionDirectorio;
+
+    @Value("${directorio.circuito.umbral-fallos:5}")
+    private int umbralFallos;
+
+    @Value("${directorio.circuito.enfriamiento-s:30}")
+    private long enfriamientoS;
+
+    /**
+     * Suma un fallo de forma atómica. Devuelve {@code true} si este fallo abrió
+     * el circuito.
+     */
+    public boolean registrarFallo(String bic) {
+        List<?> resultado = redis.execute(SCRIPT_FALLO, List.of(clave(bic), CLAVE_PENDIENTES, CLAVE_ABIERTOS),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(umbralFallos), bic);
+        long fallos = ((Number) resultado.get(0)).longValue();
+        boolean abierto = ((Number) resultado.get(1)).longValue() == 1;
+        if (abierto) {
+            log.error(">>> CIRCUIT BREAKER ACTIVADO para banco: {} ({} fallos)", bic, fallos);
+        }
+        return abierto;
+    }
+
+    /**
+     * Indica si el banco acepta tráfico. Sólo lee: ni cierra ni reabre.
+     */
+    public boolean disponible(String bic) {
+        return estadoActual(bic) == Estado.CERRADO;
+    }
+
+    public Estado estadoActual(String bic) {
+        List<Object> campos = redis.opsForHash().multiGet(clave(bic), List.of("abiertoDesde", "ultimoFallo"));
+        return deducir(campos.get(0), campos.get(1), System.currentTimeMillis());
+    }
+
+    private Estado deducir(Object abiertoDesde, Object ultimoFallo, long ahora) {
+        if (abiertoDesde == null) {
+            return Estado.CERRADO;
+        }
+        long ultimo = ultimoFallo != null ? Long.parseLong(ultimoFallo.toString()) : 0L;
+        return ahora - ultimo > enfriamientoS * 1000 ? Estado.SEMIABIERTO : Estado.ABIERTO;
+    }
+
+    /**
+     * Circuitos abiertos cuyo enfriamiento ya pasó.
+     */
+    public List<Semiabierto> semiabiertos() {
+        long ahora = System.currentTimeMillis();
+        List<Semiabierto> resultado = new ArrayList<>();
+        Set<String> abiertos = redis.opsForSet().members(CLAVE_ABIERTOS);
+        if (abiertos == null) {
+            return resultado;
+        }
+        for (String bic : abiertos) {
+            List<Object> campos = redis.opsForHash().multiGet(clave(bic), List.of("abiertoDesde", "ultimoFallo"));
+            Object ultimoFallo = campos.get(1);
+            Estado estado = deducir(campos.get(0), ultimoFallo, ahora);
+            if (estado == Estado.CERRADO) {
+                // Hash borrado a mano o caducado: el índice de abiertos se queda sin él
+                redis.opsForSet().remove(CLAVE_ABIERTOS, bic);
+            } else if (estado == Estado.SEMIABIERTO) {
+                resultado.add(new Semiabierto(bic, ultimoFallo != null ? ultimoFallo.toString() : null));
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Cierra un circuito semiabierto tras un sondeo correcto. Devuelve
+     * {@code false} si mientras tanto se registró otro fallo.
+     */
+    public boolean cerrar(Semiabierto circuito) {
+        Long cerrado = redis.execute(SCRIPT_CERRAR, List.of(clave(circuito.bic()), CLAVE_PENDIENTES, CLAVE_ABIERTOS),
+                String.valueOf(circuito.ultimoFallo()), circuito.bic());
+        if (cerrado != null && cerrado == 1) {
+            log.info(">>> CIRCUIT BREAKER CERRADO (sondeo correcto) para banco: {}", circuito.bic());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Estado actual en Redis, con la misma forma que el resumen de Mongo.
+     */
+    public InterruptorCircuito estado(String bic) {
+        Map<Object, Object> hash = redis.opsForHash().entries(clave(bic));
+        return resumen(hash);
+    }
+
+    /**
+     * Copia el estado de Redis al documento antes de un guardado completo, para
+     * que éste no pise el resumen con una copia vieja.
+     */
+    public void aplicarResumen(Institucion inst) {
+        inst.setInterruptorCircuito(estado(inst.getCodigoBic()));
+    }
+
+    /**
+     * Si Redis arranca vacío, los circuitos que Mongo tenía abiertos se
+     * restauran desde el último resumen.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restaurarAbiertos() {
+        try {
+            for (Institucion inst : institucionRepositorio.findBancosConCircuitoAbierto()) {
+                InterruptorCircuito ic = inst.getInterruptorCircuito();
+                if (Boolean.TRUE.equals(redis.hasKey(clave(inst.getCodigoBic())))) {
+                    continue;
+                }
+                long ultimo = ic.getUltimoFallo() != null
+                        ? ic.getUltimoFallo().toInstant(ZoneOffset.UTC).toEpochMilli()
+                        : System.currentTimeMillis();
+                redis.opsForHash().putAll(clave(inst.getCodigoBic()), Map.of(
+                        "fallos", String.valueOf(ic.getFallosConsecutivos()),
+                        "ultimoFallo", String.valueOf(ultimo),
+                        "abiertoDesde", String.valueOf(ultimo)));
+                redis.opsForSet().add(CLAVE_ABIERTOS, inst.getCodigoBic());
+                log.info("Circuito de {} restaurado como abierto desde Mongo", inst.getCodigoBic());
+            }
+        } catch (RuntimeException e) {
+            log.error("No se pudieron restaurar los circuitos abiertos: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Vuelca a Mongo el resumen de los bancos cuyo circuito cambió. Una
+     * actualización con {@code $set} por banco, sea cual sea el número de
+     * fallos reportados en el intervalo.
+     */
+    @Scheduled(fixedDelayString = "${directorio.circuito.persistencia-ms:5000}")
+    public void persistirResumen() {
+        try {
+            List<String> pendientes;
+            while (!(pendientes = redis.opsForSet().pop(CLAVE_PENDIENTES, LOTE_PERSISTENCIA)).isEmpty()) {
+                pendientes.forEach(this::persistir);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Persistencia del circuit breaker fallida, se reintenta en el próximo ciclo: {}", e.getMessage());
+        }
+    }
+
+    private void persistir(String bic) {
+        try {
+            InterruptorCircuito ic = estado(bic);
+            long version = versionDirectorio.siguiente();
+            long filas;
+            try {
+                filas = mongoTemplate.updateFirst(
+                        Query.query(Criteria.where("codigoBic").is(bic)),
+                        new Update()
+                                .set("interruptorCircuito", ic)
+                                .set("version", version)
+                                .set("fechaVersion", LocalDateTime.now(ZoneOffset.UTC)),
+                        Institucion.class).getMatchedCount();
+            } finally {
+                // updateFirst no pasa por VersionadoInstitucionListener
+                versionDirectorio.confirmar(version);
+            }
+            if (filas == 0) {
+                // Fallos reportados para un BIC que no está en el directorio
+                redis.delete(clave(bic));
+                redis.opsForSet().remove(CLAVE_ABIERTOS, bic);
+            }
+        } catch (RuntimeException e) {
+            redis.opsForSet().add(CLAVE_PENDIENTES, bic);
+            throw e;
+        }
+    }
+
+    private static InterruptorCircuito resumen(Map<Object, Object> hash) {
+        Object fallos = hash.get("fallos");
+        Object ultimoFallo = hash.get("ultimoFallo");
+        return new InterruptorCircuito(
+                hash.containsKey("abiertoDesde"),
+                fallos != null ? Integer.parseInt(fallos.toString()) : 0,
+                ultimoFallo != null
+                        ? LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(ultimoFallo.toString())),
+                                ZoneOffset.UTC)
+                        : null);
+    }
+
+    private static String clave(String bic) {
+        return PREFIJO_CLAVE + bic;
+    }
+}
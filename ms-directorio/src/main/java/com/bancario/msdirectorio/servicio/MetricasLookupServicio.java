@@ -0,0 +1,75 @@
+package com.bancario.msdirectorio.servicio;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Service;
+
+import com.bancario.msdirectorio.dto.MetricaLookupDTO;
+
+/**
+ * Contadores de lookups por banco solicitante (cabecera
+ * {@code X-Banco-Origen}), para ver qué participante genera consultas
+ * negativas. Son de esta réplica y desde su arranque.
+ */
+@Service
+public class MetricasLookupServicio {
+
+    public enum Resultado {
+        ENCONTRADO, BIN_INVALIDO, BIN_SIN_REGLA, NO_DISPONIBLE
+    }
+
+    static final String SIN_ORIGEN = "DESCONOCIDO";
+    static final String OTROS = "OTROS";
+    // La cabecera la pone el cliente: se acota el número de claves distintas
+    private static final int MAX_BANCOS = 500;
+
+    private static final class Contadores {
+        final LongAdder[] porResultado = new LongAdder[Resultado.values().length];
+
+        Contadores() {
+            for (int i = 0; i < porResultado.length; i++) {
+                porResultado[i] = new LongAdder();
+            }
+        }
+
+        long get(Resultado r) {
+            return porResultado[r.ordinal()].sum();
+        }
+    }
+
+    private final Map<String, Contadores> porBanco = new ConcurrentHashMap<>();
+
+    public void registrar(String bancoOrigen, Resultado resultado) {
+        String banco = bancoOrigen == null || bancoOrigen.isBlank() ? SIN_ORIGEN : bancoOrigen;
+        Contadores contadores = porBanco.get(banco);
+        if (contadores == null) {
+            if (porBanco.size() >= MAX_BANCOS) {
+                banco = OTROS;
+            }
+            contadores = porBanco.computeIfAbsent(banco, k -> new Contadores());
+        }
+        contadores.porResultado[resultado.ordinal()].increment();
+    }
+
+    public Map<String, MetricaLookupDTO> resumen() {
+        Map<String, MetricaLookupDTO> resumen = new TreeMap<>();
+        porBanco.forEach((banco, c) -> {
+            long encontradas = c.get(Resultado.ENCONTRADO);
+            long negativas = c.get(Resultado.BIN_INVALIDO) + c.get(Resultado.BIN_SIN_REGLA)
+                    + c.get(Resultado.NO_DISPONIBLE);
+            long consultas = encontradas + negativas;
+            resumen.put(banco, MetricaLookupDTO.builder()
+                    .consultas(consultas)
+                    .negativas(negativas)
+                    .binInvalido(c.get(Resultado.BIN_INVALIDO))
+                    .binSinRegla(c.get(Resultado.BIN_SIN_REGLA))
+                    .noDisponible(c.get(Resultado.NO_DISPONIBLE))
+                    .tasaNegativa(consultas == 0 ? 0.0 : (double) negativas / consultas)
+                    .build());
+        });
+        return resumen;
+    }
+}
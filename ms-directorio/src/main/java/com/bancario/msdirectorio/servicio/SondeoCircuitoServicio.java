@@ -0,0 +1,116 @@
+package com.bancario.msdirectorio.servicio;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+
+import com.bancario.msdirectorio.modelo.Institucion;
+import com.bancario.msdirectorio.repositorio.InstitucionRepositorio;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Único actor que saca a los bancos del estado semiabierto.
+ *
+ * Corre en todas las réplicas, pero sólo actúa la que tiene el lease
+ * {@code circuito:sondeo} en Redis. Para cada circuito semiabierto hace una
+ * petición HEAD a su {@code urlDestino}: cualquier respuesta por debajo de 500
+ * indica que el banco vuelve a atender y el circuito se cierra; un error de
+ * conexión, un timeout o un 5xx cuentan como fallo, lo que reinicia el
+ * enfriamiento. Un banco sin URL se cierra en cuanto pasa el enfriamiento.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SondeoCircuitoServicio {
+
+    private static final String CLAVE_LEASE = "circuito:sondeo";
+
+    // KEYS: lease. ARGV: dueño, duración en ms. Adquiere el lease libre o renueva el propio
+    private static final RedisScript<Long> SCRIPT_LEASE = new DefaultRedisScript<>("""
+            if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then
+              return 1
+            end
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+              redis.call('PEXPIRE', KEYS[1], ARGV[2])
+              return 1
+            end
+            return 0
+            """, Long.class);
+
+    private final InterruptorCircuitoServicio interruptores;
+    private final InstitucionRepositorio institucionRepositorio;
+    private final CacheInstitucionServicio cache;
+    private final StringRedisTemplate redis;
+
+    @Value("${directorio.circuito.sondeo-ms:5000}")
+    private long sondeoMs;
+
+    @Value("${directorio.circuito.sondeo-timeout-ms:2000}")
+    private int timeoutMs;
+
+    private final String instancia = UUID.randomUUID().toString();
+    private RestClient cliente;
+
+    @PostConstruct
+    void iniciar() {
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(timeoutMs);
+        factory.setReadTimeout(timeoutMs);
+        this.cliente = RestClient.builder().requestFactory(factory).build();
+    }
+
+    @Scheduled(fixedDelayString = "${directorio.circuito.sondeo-ms:5000}")
+    public void sondear() {
+        try {
+            // El lease dura tres ciclos: si esta réplica cae, otra lo toma enseguida
+            Long lider = redis.execute(SCRIPT_LEASE, List.of(CLAVE_LEASE), instancia, String.valueOf(sondeoMs * 3));
+            if (lider == null || lider != 1) {
+                return;
+            }
+            for (InterruptorCircuitoServicio.Semiabierto circuito : interruptores.semiabiertos()) {
+                sondear(circuito);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Ciclo de sondeo del circuit breaker fallido: {}", e.getMessage());
+        }
+    }
+
+    private void sondear(InterruptorCircuitoServicio.Semiabierto circuito) {
+        String url = institucionRepositorio.findByCodigoBic(circuito.bic())
+                .map(Institucion::getUrlDestino)
+                .orElse(null);
+        if (url == null || url.isBlank() || responde(circuito.bic(), url)) {
+            if (interruptores.cerrar(circuito)) {
+                // Fuera la entrada negativa: el banco vuelve a resolverse ya
+                cache.invalidar(circuito.bic());
+            }
+        } else {
+            interruptores.registrarFallo(circuito.bic());
+        }
+    }
+
+    private boolean responde(String bic, String url) {
+        try {
+            int status = cliente.head().uri(url).exchange((req, res) -> res.getStatusCode().value(), false);
+            if (status >= 500) {
+                log.warn("Sondeo de {} respondió {}: el circuito sigue abierto", bic, status);
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Sondeo de {} sin respuesta: {}", bic, e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.bancario.msdirectorio.servicio;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.bancario.msdirectorio.modelo.Institucion;
+import com.bancario.msdirectorio.modelo.SecuenciaDirectorio;
+import com.bancario.msdirectorio.modelo.VersionPendiente;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Versión monótona del directorio.
+ *
+ * Cada escritura de una institución toma el siguiente valor del contador
+ * {@code secuencias/directorio} y lo guarda en el documento. Tomar el número y
+ * guardar el documento son dos operaciones, así que una escritura con un número
+ * bajo puede hacerse visible después de otra con un número mayor. Por eso a los
+ * clientes sólo se les anuncia la versión <em>asentada</em>.
+ *
+ * Al tomar un número se apunta en {@code versionesPendientes} y se borra al
+ * confirmar la escritura. La versión asentada es la menor de dos cotas: el
+ * valor que tenía el contador hace al menos
+ * {@code directorio.cambios.asentamiento-ms} (cubre el instante entre el
+ * {@code $inc} y el apunte) y la versión pendiente más baja menos uno (cubre un
+ * guardado lento, dure lo que dure). Un pendiente con más de
+ * {@code directorio.cambios.pendiente-max-ms} se da por perdido, sea una
+ * escritura fallida o una que nunca confirmó; si aun así llegara a guardarse,
+ * el feed no la mostraría y el cliente la recupera con la resincronización
+ * completa periódica (ver {@link CambiosDirectorioServicio}).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class VersionDirectorioServicio {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${directorio.cambios.asentamiento-ms:1000}")
+    private long asentamientoMs;
+
+    @Value("${directorio.cambios.pendiente-max-ms:30000}")
+    private long pendienteMaxMs;
+
+    private record Muestra(long instante, long version) {
+    }
+
+    // Muestras recientes del contador, de la más antigua a la más nueva
+    private final Deque<Muestra> muestras = new ArrayDeque<>();
+    private final List<LongConsumer> alAsentar = new CopyOnWriteArrayList<>();
+    private volatile long versionAsentada;
+    private volatile long versionActual;
+
+    /**
+     * Siguiente versión del directorio ({@code $inc} atómico, compartido entre
+     * réplicas). Queda pendiente hasta que quien la pidió llame a
+     * {@link #confirmar}.
+     */
+    public long siguiente() {
+        SecuenciaDirectorio secuencia = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(SecuenciaDirectorio.ID_DIRECTORIO)),
+                new Update().inc("valor", 1L),
+                FindAndModifyOptions.options().returnNew(true).upsert(true),
+                SecuenciaDirectorio.class);
+        long version = secuencia.getValor();
+        mongoTemplate.insert(new VersionPendiente(version, System.currentTimeMillis()));
+        return version;
+    }
+
+    /**
+     * La escritura con esa versión terminó (guardada o no): deja de frenar el
+     * asentamiento.
+     */
+    public void confirmar(long version) {
+        mongoTemplate.remove(Query.query(Criteria.where("_id").is(version)), VersionPendiente.class);
+    }
+
+    public long versionAsentada() {
+        return versionAsentada;
+    }
+
+    public long versionActual() {
+        return versionActual;
+    }
+
+    /**
+     * Se invoca con la nueva versión asentada cada vez que avanza.
+     */
+    public void alAsentar(LongConsumer oyente) {
+        alAsentar.add(oyente);
+    }
+
+    /**
+     * Documentos anteriores al versionado: se reescriben una vez para que
+     * reciban versión y entren en el feed de cambios.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void versionarExistentes() {
+        try {
+            List<Institucion> sinVersion = mongoTemplate.find(
+                    Query.query(Criteria.where("version").exists(false)), Institucion.class);
+            sinVersion.forEach(mongoTemplate::save);
+            if (!sinVersion.isEmpty()) {
+                log.info("Versionadas {} instituciones existentes", sinVersion.size());
+            }
+            muestrear();
+        } catch (RuntimeException e) {
+            log.error("No se pudo versionar el directorio al iniciar: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${directorio.cambios.muestreo-ms:250}")
+    public synchronized void muestrear() {
+        SecuenciaDirectorio secuencia = mongoTemplate.findById(SecuenciaDirectorio.ID_DIRECTORIO,
+                SecuenciaDirectorio.class);
+        long ahora = System.currentTimeMillis();
+        long version = secuencia != null ? secuencia.getValor() : 0L;
+
+        muestras.addLast(new Muestra(ahora, version));
+        // Se conserva la última muestra ya asentada y las posteriores
+        while (muestras.size() > 1) {
+            Iterator<Muestra> it = muestras.iterator();
+            it.next();
+            if (ahora - it.next().instante() < asentamientoMs) {
+                break;
+            }
+            muestras.removeFirst();
+        }
+        Muestra primera = muestras.peekFirst();
+        long porTiempo = ahora - primera.instante() >= asentamientoMs ? primera.version() : versionAsentada;
+        VersionPendiente pendiente = pendienteMasBaja(ahora);
+        long asentada = pendiente != null ? Math.min(porTiempo, pendiente.getVersion() - 1) : porTiempo;
+        versionActual = version;
+        if (asentada > versionAsentada) {
+            versionAsentada = asentada;
+            alAsentar.forEach(oyente -> oyente.accept(asentada));
+        }
+    }
+
+    // Descarta los pendientes vencidos y devuelve el más bajo de los que quedan
+    private VersionPendiente pendienteMasBaja(long ahora) {
+        long limite = ahora - pendienteMaxMs;
+        long perdidas = mongoTemplate.remove(Query.query(Criteria.where("instante").lt(limite)),
+                VersionPendiente.class).getDeletedCount();
+        if (perdidas > 0) {
+            log.warn("{} versiones del directorio sin confirmar tras {} ms se dan por perdidas", perdidas,
+                    pendienteMaxMs);
+        }
+        return mongoTemplate.findOne(new Query().with(Sort.by("_id")).limit(1), VersionPendiente.class);
+    }
+}
@@ -0,0 +1,43 @@
+package com.bancario.msdirectorio.servicio;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.stereotype.Component;
+
+import com.bancario.msdirectorio.modelo.Institucion;
+
+/**
+ * Asigna versión a toda escritura de {@link Institucion}, venga del servicio,
+ * del circuit breaker o del versionado inicial, para que ningún cambio quede
+ * fuera del feed, y la confirma cuando el documento ya está guardado.
+ */
+@Component
+public class VersionadoInstitucionListener extends AbstractMongoEventListener<Institucion> {
+
+    // Se resuelve al primer evento: MongoTemplate crea los listeners antes que los servicios que lo usan
+    private final ObjectProvider<VersionDirectorioServicio> versiones;
+
+    public VersionadoInstitucionListener(ObjectProvider<VersionDirectorioServicio> versiones) {
+        this.versiones = versiones;
+    }
+
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<Institucion> event) {
+        Institucion inst = event.getSource();
+        inst.setVersion(versiones.getObject().siguiente());
+        inst.setFechaVersion(LocalDateTime.now(ZoneOffset.UTC));
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Institucion> event) {
+        Long version = event.getSource().getVersion();
+        if (version != null) {
+            versiones.getObject().confirmar(version);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.bancario.msdirectorio.mapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.bancario.msdirectorio.dto.InstitucionDTO;
+
+class InstitucionCodecTest {
+
+    @Test
+    void idaYVueltaConTodosLosCampos() {
+        InstitucionDTO dto = InstitucionDTO.builder()
+                .id("65f0c0ffee")
+                .codigoBic("NEXUS_BANK")
+                .nombre("Banco Nexus — Sucursal Quito ñ")
+                .urlDestino("https://nexus.example/api")
+                .llavePublica("MIIBIjANBgkq")
+                .estadoOperativo("ONLINE")
+                .reglasEnrutamiento(List.of(new InstitucionDTO.ReglaDTO("450099", "NEXUS_BANK"),
+                        new InstitucionDTO.ReglaDTO("45009912", null)))
+                .interruptorCircuito(new InstitucionDTO.CircuitBreakerDTO(true, 300, "2026-01-05T10:15:30"))
+                .version(1L << 40)
+                .build();
+
+        assertEquals(dto, InstitucionCodec.decodificar(InstitucionCodec.codificar(dto)));
+    }
+
+    @Test
+    void idaYVueltaConCamposNulos() {
+        InstitucionDTO dto = InstitucionDTO.builder().codigoBic("ECUSOL_BK").build();
+
+        InstitucionDTO leido = InstitucionCodec.decodificar(InstitucionCodec.codificar(dto));
+
+        assertEquals(dto, leido);
+        assertNull(leido.getReglasEnrutamiento());
+        assertNull(leido.getInterruptorCircuito());
+        assertNull(leido.getVersion());
+    }
+
+    @Test
+    void listaDeReglasVaciaNoEsNula() {
+        InstitucionDTO dto = InstitucionDTO.builder().codigoBic("ECUSOL_BK").reglasEnrutamiento(List.of())
+                .interruptorCircuito(new InstitucionDTO.CircuitBreakerDTO(false, 0, null)).build();
+
+        assertEquals(dto, InstitucionCodec.decodificar(InstitucionCodec.codificar(dto)));
+    }
+
+    @Test
+    void otroFormatoOVacioEsFalloDeCache() {
+        byte[] datos = InstitucionCodec.codificar(InstitucionDTO.builder().codigoBic("NEXUS_BANK").build());
+        datos[0] = 2;
+
+        assertNull(InstitucionCodec.decodificar(datos));
+        assertNull(InstitucionCodec.decodificar(null));
+        assertNull(InstitucionCodec.decodificar(new byte[0]));
+        // Entrada negativa de CacheInstitucionServicio y JSON de versiones anteriores
+        assertNull(InstitucionCodec.decodificar(new byte[] { 0 }));
+        assertNull(InstitucionCodec.decodificar("{\"codigoBic\":\"NEXUS_BANK\"}".getBytes()));
+    }
+
+    @Test
+    void truncadoEsFalloDeCache() {
+        byte[] datos = InstitucionCodec.codificar(InstitucionDTO.builder().codigoBic("NEXUS_BANK").nombre("Nexus")
+                .version(7L).build());
+
+        assertNull(InstitucionCodec.decodificar(Arrays.copyOf(datos, datos.length - 3)));
+    }
+
+    @Test
+    void numeroDeReglasCorruptoNoReservaMemoria() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(1);
+        for (int i = 0; i < 6; i++) {
+            bytes.write(0); // seis textos nulos
+        }
+        // varint 0x7FFFFFFF: dos mil millones de reglas en una decena de bytes
+        bytes.writeBytes(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 });
+
+        assertNull(InstitucionCodec.decodificar(bytes.toByteArray()));
+    }
+
+    @Test
+    void longitudDeTextoCorruptaNoReservaMemoria() {
+        byte[] datos = { 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'x' };
+
+        assertNull(InstitucionCodec.decodificar(datos));
+    }
+}
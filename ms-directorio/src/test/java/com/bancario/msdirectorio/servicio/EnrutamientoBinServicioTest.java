@@ -0,0 +1,114 @@
+package com.bancario.msdirectorio.servicio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.bancario.msdirectorio.modelo.Institucion;
+import com.bancario.msdirectorio.modelo.ReglaEnrutamiento;
+import com.bancario.msdirectorio.repositorio.InstitucionRepositorio;
+
+class EnrutamientoBinServicioTest {
+
+    private InstitucionRepositorio repositorio;
+    private EnrutamientoBinServicio servicio;
+
+    @BeforeEach
+    void setUp() {
+        repositorio = mock(InstitucionRepositorio.class);
+        VersionDirectorioServicio version = mock(VersionDirectorioServicio.class);
+        servicio = new EnrutamientoBinServicio(repositorio, version);
+    }
+
+    @Test
+    void resuelvePorPrefijoMasLargoConPrefijosAnidados() {
+        cargar(institucion("BANKA", "4512"), institucion("BANKB", "451234"), institucion("BANKC", "45123456"));
+
+        assertEquals(Optional.of("BANKC"), servicio.resolver("45123456789"));
+        assertEquals(Optional.of("BANKC"), servicio.resolver("45123456"));
+        // Siete dígitos: encaja con 451234 pero no llega a cubrir 45123456
+        assertEquals(Optional.of("BANKB"), servicio.resolver("4512345"));
+        assertEquals(Optional.of("BANKB"), servicio.resolver("45123499"));
+        assertEquals(Optional.of("BANKA"), servicio.resolver("451299"));
+    }
+
+    @Test
+    void prefijoDelMismoLargoQueLaConsulta() {
+        cargar(institucion("BANKB", "451234"), institucion("BANKD", "99887766554"));
+
+        assertEquals(Optional.of("BANKB"), servicio.resolver("451234"));
+        assertEquals(Optional.of("BANKD"), servicio.resolver("99887766554"));
+        assertTrue(servicio.resolver("9988776655").isEmpty());
+    }
+
+    @Test
+    void sinReglaQueEncaje() {
+        cargar(institucion("BANKA", "4512"), institucion("BANKB", "451234"));
+
+        assertTrue(servicio.resolver("452000").isEmpty());
+        assertTrue(servicio.resolver("451000").isEmpty());
+        assertTrue(servicio.resolver("000000").isEmpty());
+    }
+
+    @Test
+    void tablaVaciaNoResuelveNada() {
+        cargar();
+
+        assertTrue(servicio.resolver("451234").isEmpty());
+    }
+
+    @Test
+    void consultaFueraDeRangoEsInvalida() {
+        cargar(institucion("BANKA", "4512"));
+
+        assertThrows(IllegalArgumentException.class, () -> servicio.resolver("45123"));
+        assertThrows(IllegalArgumentException.class, () -> servicio.resolver("451234567890"));
+        assertThrows(IllegalArgumentException.class, () -> servicio.resolver("45A234"));
+    }
+
+    @Test
+    void registrarAplicaLaReglaSinRecargar() {
+        cargar(institucion("BANKA", "4512"));
+
+        servicio.registrar("451234", "BANKB");
+
+        assertEquals(Optional.of("BANKB"), servicio.resolver("451234"));
+        assertEquals(Optional.of("BANKA"), servicio.resolver("451299"));
+    }
+
+    @Test
+    void recargaYRegistroConservanElMismoDuenoDeUnPrefijoDuplicado() {
+        cargar(institucion("BANKA", "451234"), institucion("BANKB", "451234"));
+        assertEquals(Optional.of("BANKA"), servicio.propietario("451234"));
+
+        servicio.registrar("451234", "BANKB");
+
+        assertEquals(Optional.of("BANKA"), servicio.propietario("451234"));
+        assertEquals(Optional.of("BANKA"), servicio.resolver("451234"));
+    }
+
+    private void cargar(Institucion... instituciones) {
+        when(repositorio.findAll()).thenReturn(List.of(instituciones));
+        servicio.recargar();
+    }
+
+    private static Institucion institucion(String bic, String... prefijos) {
+        Institucion inst = new Institucion();
+        inst.setCodigoBic(bic);
+        List<ReglaEnrutamiento> reglas = new ArrayList<>();
+        for (String prefijo : prefijos) {
+            reglas.add(new ReglaEnrutamiento(prefijo, bic));
+        }
+        inst.setReglasEnrutamiento(reglas);
+        return inst;
+    }
+}